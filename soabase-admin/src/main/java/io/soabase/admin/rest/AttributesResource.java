@@ -16,6 +16,7 @@
 package io.soabase.admin.rest;
 
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import io.soabase.core.SoaFeatures;
 import io.soabase.core.features.attributes.AttributeKey;
 import io.soabase.core.features.attributes.DynamicAttributes;
@@ -67,6 +68,34 @@ public class AttributesResource
         return Response.ok().build();
     }
 
+    @DELETE
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Path("batch")
+    public Response deleteBatch(List<Attribute> attributeList)
+    {
+        List<AttributeKey> keys = Lists.newArrayList();
+        for ( Attribute attribute : attributeList )
+        {
+            keys.add(new AttributeKey(attribute.getKey(), attribute.getScope()));
+        }
+        getAttributes().removeAll(keys);
+        return Response.ok().build();
+    }
+
+    @POST
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Path("batch")
+    public Response addUpdateBatch(List<Attribute> attributeList)
+    {
+        Map<AttributeKey, Object> newAttributes = Maps.newHashMap();
+        for ( Attribute attribute : attributeList )
+        {
+            newAttributes.put(new AttributeKey(attribute.getKey(), attribute.getScope()), attribute.getValue());
+        }
+        getAttributes().putAll(newAttributes);
+        return Response.ok().build();
+    }
+
     @GET
     @Produces(MediaType.APPLICATION_JSON)
     @Path("all")
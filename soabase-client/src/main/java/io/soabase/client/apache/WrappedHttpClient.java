@@ -99,6 +99,10 @@ public class WrappedHttpClient implements HttpClient
                     throw e;
                 }
             }
+            finally
+            {
+                requestRunner.attemptCompleted();
+            }
         }
 
         throw new IOException("Retries expired for " + requestRunner.getOriginalUri());
@@ -145,6 +149,10 @@ public class WrappedHttpClient implements HttpClient
                     throw e;
                 }
             }
+            finally
+            {
+                requestRunner.attemptCompleted();
+            }
         }
 
         throw new IOException("Retries expired for " + requestRunner.getOriginalUri());
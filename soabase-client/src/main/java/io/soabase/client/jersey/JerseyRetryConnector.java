@@ -73,6 +73,10 @@ public class JerseyRetryConnector implements Connector
                     throw new ProcessingException(e);
                 }
             }
+            finally
+            {
+                requestRunner.attemptCompleted();
+            }
         }
         throw new ProcessingException("Retries expired: " + requestRunner.getOriginalUri());
     }
@@ -112,7 +116,15 @@ public class JerseyRetryConnector implements Connector
         };
 
         request.setUri(requestRunner.prepareRequest(request));
-        connector.apply(request, localCallback);
+        try
+        {
+            connector.apply(request, localCallback);
+        }
+        catch ( RuntimeException e )
+        {
+            requestRunner.attemptCompleted();
+            throw e;
+        }
         return SettableFuture.create(); // just a dummy
     }
 
@@ -135,8 +147,16 @@ public class JerseyRetryConnector implements Connector
             @Override
             public void run()
             {
-                request.setUri(requestRunner.prepareRequest(request));
-                connector.apply(request, callback);
+                try
+                {
+                    request.setUri(requestRunner.prepareRequest(request));
+                    connector.apply(request, callback);
+                }
+                catch ( RuntimeException e )
+                {
+                    // otherwise the exception is lost in the executor and the caller's callback is never called
+                    callback.failure(e);
+                }
             }
         };
         retryComponents.getExecutorService().submit(runnable);
@@ -42,6 +42,7 @@ import io.dropwizard.server.SimpleServerFactory;
 import io.dropwizard.setup.Bootstrap;
 import io.dropwizard.setup.Environment;
 import io.soabase.core.features.ExecutorBuilder;
+import io.soabase.core.features.attributes.AttributesSnapshotFilter;
 import io.soabase.core.features.attributes.DynamicAttributes;
 import io.soabase.core.features.attributes.StandardAttributesContainer;
 import io.soabase.core.features.client.ClientFilter;
@@ -53,8 +54,12 @@ import io.soabase.core.features.discovery.ExtendedDiscovery;
 import io.soabase.core.features.discovery.HealthCheckIntegration;
 import io.soabase.core.features.discovery.SafeDiscovery;
 import io.soabase.core.features.logging.LoggingReader;
+import io.soabase.core.listening.Listenable;
+import io.soabase.core.listening.ListenerContainer;
+import io.soabase.core.listening.ListenerDispatcher;
 import io.soabase.core.rest.DiscoveryApis;
 import io.soabase.core.rest.DynamicAttributeApis;
+import io.soabase.core.rest.DynamicAttributeMetaApis;
 import io.soabase.core.rest.LoggingApis;
 import io.soabase.core.rest.SoaApis;
 import org.eclipse.jetty.servlets.CrossOriginFilter;
@@ -147,7 +152,22 @@ public class SoaBundle<T extends Configuration> implements ConfiguredBundle<T>
         final SoaInfo soaInfo = new SoaInfo(scopes, ports.mainPort, ports.adminPort, soaConfiguration.getServiceName(), soaConfiguration.getInstanceName(), soaConfiguration.isRegisterInDiscovery());
 
         Discovery discovery = wrapDiscovery(checkManaged(environment, soaConfiguration.getDiscoveryFactory().build(environment, soaInfo)));
+        ListenerDispatcher.getDefault().registerMetrics(environment.metrics(), MetricRegistry.name(ListenerDispatcher.class));
         DynamicAttributes attributes = StandardAttributesContainer.wrapAttributes(checkManaged(environment, soaConfiguration.getAttributesFactory().build(environment, scopes)), hasAdminKey);
+        attributes.setObjectMapper(environment.getObjectMapper());
+        if ( soaConfiguration.getAttributeReadSampleRate() > 0 )
+        {
+            attributes.getReadTracker().enable(soaConfiguration.getAttributeReadSampleRate());
+        }
+        if ( !soaConfiguration.isQueueAttributeListeners() )
+        {
+            callListenersDirectly(attributes.getListenable());
+            callListenersDirectly(attributes.getBatchListenable());
+        }
+        if ( soaConfiguration.isPinAttributesSnapshot() )
+        {
+            environment.servlets().addFilter("SoaAttributesSnapshotFilter", new AttributesSnapshotFilter(attributes)).addMappingForUrlPatterns(EnumSet.allOf(DispatcherType.class), true, "/*");
+        }
 
         final SoaFeaturesImpl features = new SoaFeaturesImpl(discovery, attributes, soaInfo, new ExecutorBuilder(environment.lifecycle()));
         final LoggingReader loggingReader = initLogging(configuration);
@@ -175,6 +195,14 @@ public class SoaBundle<T extends Configuration> implements ConfiguredBundle<T>
         addMetrics(environment);
     }
 
+    private static void callListenersDirectly(Listenable<?> listenable)
+    {
+        if ( listenable instanceof ListenerContainer )
+        {
+            ((ListenerContainer<?>)listenable).setQueueListeners(false);
+        }
+    }
+
     private void setFeaturesInContext(Environment environment, SoaFeaturesImpl features)
     {
         SoaFeaturesImpl tempFeatures = (SoaFeaturesImpl)environment.getApplicationContext().getAttribute(SoaFeatures.class.getName());
@@ -336,6 +364,7 @@ public class SoaBundle<T extends Configuration> implements ConfiguredBundle<T>
         jerseyEnvironment.register(SoaApis.class);
         jerseyEnvironment.register(DiscoveryApis.class);
         jerseyEnvironment.register(DynamicAttributeApis.class);
+        jerseyEnvironment.register(DynamicAttributeMetaApis.class);
         jerseyEnvironment.register(LoggingApis.class);
         jerseyEnvironment.register(binder);
         jerseyEnvironment.setUrlPattern(jerseyConfig.getUrlPattern());
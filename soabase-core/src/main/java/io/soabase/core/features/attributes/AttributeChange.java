@@ -0,0 +1,79 @@
+/**
+ * Copyright 2014 Jordan Zimmerman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.soabase.core.features.attributes;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A single change to the attributes. See {@link AttributeChanges}
+ */
+public class AttributeChange
+{
+    private final String key;
+    private final String scope;
+    private final String value;
+    private final long version;
+
+    public AttributeChange(String key, String scope, String value, long version)
+    {
+        this.key = Preconditions.checkNotNull(key, "key cannot be null");
+        this.scope = Preconditions.checkNotNull(scope, "scope cannot be null");
+        this.value = value;
+        this.version = version;
+    }
+
+    public String getKey()
+    {
+        return key;
+    }
+
+    public String getScope()
+    {
+        return scope;
+    }
+
+    /**
+     * @return the new value or <code>null</code> if the attribute was removed
+     */
+    public String getValue()
+    {
+        return value;
+    }
+
+    public boolean isRemoved()
+    {
+        return (value == null);
+    }
+
+    /**
+     * @return the attributes version that this change is part of
+     */
+    public long getVersion()
+    {
+        return version;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "AttributeChange{" +
+            "key='" + key + '\'' +
+            ", scope='" + scope + '\'' +
+            ", value='" + value + '\'' +
+            ", version=" + version +
+            '}';
+    }
+}
@@ -0,0 +1,161 @@
+/**
+ * Copyright 2014 Jordan Zimmerman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.soabase.core.features.attributes;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * All of the changes from a single refresh or override. Attributes changes and override changes are
+ * never mixed in one change set - except in a resync change set (see {@link #isResync()}).
+ */
+public class AttributeChangeSet
+{
+    private final List<AttributeValueChange> added;
+    private final List<AttributeValueChange> changed;
+    private final List<AttributeValueChange> removed;
+    private final boolean resync;
+
+    public AttributeChangeSet(List<AttributeValueChange> added, List<AttributeValueChange> changed, List<AttributeValueChange> removed)
+    {
+        this(added, changed, removed, false);
+    }
+
+    public AttributeChangeSet(List<AttributeValueChange> added, List<AttributeValueChange> changed, List<AttributeValueChange> removed, boolean resync)
+    {
+        this.added = ImmutableList.copyOf(added);
+        this.changed = ImmutableList.copyOf(changed);
+        this.removed = ImmutableList.copyOf(removed);
+        this.resync = resync;
+    }
+
+    /**
+     * Combine two change sets that haven't been delivered yet into one. e.g. an attribute that was added
+     * and then changed is reported as added with the newest value. An attribute that was added and then removed
+     * isn't reported at all.
+     *
+     * @param earlier the older change set
+     * @param later the newer change set
+     * @return combined change set
+     */
+    public static AttributeChangeSet coalesce(AttributeChangeSet earlier, AttributeChangeSet later)
+    {
+        // oldValue null means added, newValue null means removed
+        Map<List<String>, AttributeValueChange> combined = Maps.newLinkedHashMap();
+        for ( AttributeChangeSet changeSet : ImmutableList.of(earlier, later) )
+        {
+            for ( AttributeValueChange change : Iterables.concat(changeSet.added, changeSet.changed, changeSet.removed) )
+            {
+                List<String> id = Lists.newArrayList(change.getKey(), change.getScope());
+                AttributeValueChange previous = combined.remove(id);
+                if ( previous == null )
+                {
+                    combined.put(id, change);
+                }
+                else if ( (previous.getOldValue() != null) || (change.getNewValue() != null) )
+                {
+                    combined.put(id, new AttributeValueChange(change.getKey(), change.getScope(), previous.getOldValue(), change.getNewValue()));
+                }
+                // else added and then removed - nothing to report
+            }
+        }
+
+        List<AttributeValueChange> added = Lists.newArrayList();
+        List<AttributeValueChange> changed = Lists.newArrayList();
+        List<AttributeValueChange> removed = Lists.newArrayList();
+        for ( AttributeValueChange change : combined.values() )
+        {
+            if ( change.getOldValue() == null )
+            {
+                added.add(change);
+            }
+            else if ( change.getNewValue() == null )
+            {
+                removed.add(change);
+            }
+            else if ( (earlier.resync || later.resync) || !Objects.equal(change.getOldValue(), change.getNewValue()) )
+            {
+                changed.add(change);
+            }
+        }
+        return new AttributeChangeSet(added, changed, removed, earlier.resync || later.resync);
+    }
+
+    public List<AttributeValueChange> getAdded()
+    {
+        return added;
+    }
+
+    public List<AttributeValueChange> getChanged()
+    {
+        return changed;
+    }
+
+    public List<AttributeValueChange> getRemoved()
+    {
+        return removed;
+    }
+
+    /**
+     * @return true if this change set is for overrides (which includes system properties)
+     */
+    public boolean isOverrides()
+    {
+        for ( List<AttributeValueChange> list : ImmutableList.of(added, changed, removed) )
+        {
+            if ( !list.isEmpty() )
+            {
+                return list.get(0).isOverride();
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true if events were discarded because the listener fell too far behind. Every current attribute
+     * and override is reported as changed so that the listener can re-read the values.
+     */
+    public boolean isResync()
+    {
+        return resync;
+    }
+
+    public int size()
+    {
+        return added.size() + changed.size() + removed.size();
+    }
+
+    public boolean isEmpty()
+    {
+        return (size() == 0);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "AttributeChangeSet{" +
+            "added=" + added +
+            ", changed=" + changed +
+            ", removed=" + removed +
+            ", resync=" + resync +
+            '}';
+    }
+}
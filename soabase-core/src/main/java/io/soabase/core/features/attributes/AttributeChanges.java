@@ -0,0 +1,68 @@
+/**
+ * Copyright 2014 Jordan Zimmerman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.soabase.core.features.attributes;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import java.util.List;
+
+/**
+ * The result of {@link DynamicAttributes#getChangesSince(long)}. If {@link #isFull()} is true, the
+ * requested version is no longer (or not yet) known and {@link #getChanges()} contains every attribute. Callers should
+ * replace all their attributes with them. Otherwise {@link #getChanges()} contains only the changes made after the
+ * requested version in the order they were made.
+ */
+public class AttributeChanges
+{
+    private final long version;
+    private final boolean full;
+    private final List<AttributeChange> changes;
+
+    public AttributeChanges(long version, boolean full, List<AttributeChange> changes)
+    {
+        this.version = version;
+        this.full = full;
+        this.changes = ImmutableList.copyOf(Preconditions.checkNotNull(changes, "changes cannot be null"));
+    }
+
+    /**
+     * @return the current version. Pass this to the next call to {@link DynamicAttributes#getChangesSince(long)}
+     */
+    public long getVersion()
+    {
+        return version;
+    }
+
+    public boolean isFull()
+    {
+        return full;
+    }
+
+    public List<AttributeChange> getChanges()
+    {
+        return changes;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "AttributeChanges{" +
+            "version=" + version +
+            ", full=" + full +
+            ", changes=" + changes +
+            '}';
+    }
+}
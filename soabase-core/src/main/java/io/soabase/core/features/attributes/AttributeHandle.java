@@ -0,0 +1,39 @@
+/**
+ * Copyright 2014 Jordan Zimmerman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.soabase.core.features.attributes;
+
+/**
+ * A handle to a single attribute. The handle holds the already converted
+ * value and is updated by the container whenever the attribute changes. Reading
+ * the value is a single volatile read. Get a handle once and keep it - e.g. in a field.
+ */
+public interface AttributeHandle<T>
+{
+    /**
+     * Return the attribute key this handle is for
+     *
+     * @return key
+     */
+    public String getKey();
+
+    /**
+     * Return the current value of the attribute after applying overrides and scopes, etc.
+     * or the handle's default if the attribute isn't set
+     *
+     * @return value
+     */
+    public T get();
+}
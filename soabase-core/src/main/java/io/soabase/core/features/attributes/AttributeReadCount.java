@@ -0,0 +1,66 @@
+/**
+ * Copyright 2014 Jordan Zimmerman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.soabase.core.features.attributes;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Read counts for an attribute key. See {@link AttributeReadTracker}
+ */
+public class AttributeReadCount
+{
+    private final String key;
+    private final long reads;
+    private final long misses;
+
+    public AttributeReadCount(String key, long reads, long misses)
+    {
+        this.key = Preconditions.checkNotNull(key, "key cannot be null");
+        this.reads = reads;
+        this.misses = misses;
+    }
+
+    public String getKey()
+    {
+        return key;
+    }
+
+    /**
+     * @return number of reads (estimated if sampling)
+     */
+    public long getReads()
+    {
+        return reads;
+    }
+
+    /**
+     * @return number of reads that found no value and returned the default (estimated if sampling)
+     */
+    public long getMisses()
+    {
+        return misses;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "AttributeReadCount{" +
+            "key='" + key + '\'' +
+            ", reads=" + reads +
+            ", misses=" + misses +
+            '}';
+    }
+}
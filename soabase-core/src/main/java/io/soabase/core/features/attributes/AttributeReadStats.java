@@ -0,0 +1,99 @@
+/**
+ * Copyright 2014 Jordan Zimmerman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.soabase.core.features.attributes;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import java.util.List;
+
+/**
+ * Report from {@link AttributeReadTracker#getStats(int)}
+ */
+public class AttributeReadStats
+{
+    private final boolean enabled;
+    private final int sampleRate;
+    private final long trackingMs;
+    private final long totalReads;
+    private final double readsPerSecond;
+    private final List<AttributeReadCount> hotKeys;
+    private final List<AttributeReadCount> missedKeys;
+    private final List<String> unreadKeys;
+
+    public AttributeReadStats(boolean enabled, int sampleRate, long trackingMs, long totalReads, List<AttributeReadCount> hotKeys, List<AttributeReadCount> missedKeys, List<String> unreadKeys)
+    {
+        this.enabled = enabled;
+        this.sampleRate = sampleRate;
+        this.trackingMs = trackingMs;
+        this.totalReads = totalReads;
+        this.readsPerSecond = (trackingMs > 0) ? ((totalReads * 1000.0) / trackingMs) : 0;
+        this.hotKeys = ImmutableList.copyOf(Preconditions.checkNotNull(hotKeys, "hotKeys cannot be null"));
+        this.missedKeys = ImmutableList.copyOf(Preconditions.checkNotNull(missedKeys, "missedKeys cannot be null"));
+        this.unreadKeys = ImmutableList.copyOf(Preconditions.checkNotNull(unreadKeys, "unreadKeys cannot be null"));
+    }
+
+    public boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    public int getSampleRate()
+    {
+        return sampleRate;
+    }
+
+    /**
+     * @return how long reads have been tracked
+     */
+    public long getTrackingMs()
+    {
+        return trackingMs;
+    }
+
+    public long getTotalReads()
+    {
+        return totalReads;
+    }
+
+    public double getReadsPerSecond()
+    {
+        return readsPerSecond;
+    }
+
+    /**
+     * @return the most read keys, most read first
+     */
+    public List<AttributeReadCount> getHotKeys()
+    {
+        return hotKeys;
+    }
+
+    /**
+     * @return keys that were read but had no value (i.e. the default was returned), most missed first
+     */
+    public List<AttributeReadCount> getMissedKeys()
+    {
+        return missedKeys;
+    }
+
+    /**
+     * @return current attribute keys that haven't been read while tracking
+     */
+    public List<String> getUnreadKeys()
+    {
+        return unreadKeys;
+    }
+}
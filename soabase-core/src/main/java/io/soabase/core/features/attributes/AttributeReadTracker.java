@@ -0,0 +1,169 @@
+/**
+ * Copyright 2014 Jordan Zimmerman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.soabase.core.features.attributes;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Optional tracking of attribute reads. When disabled (the default) the cost of a read is a single
+ * volatile check. When enabled, reads are counted with per-key {@link StripedCounter}s. A sample rate of N counts
+ * 1 in N reads (and adds N) to reduce the overhead further. Note: reads via {@link AttributeHandle}s are not tracked.
+ */
+public class AttributeReadTracker
+{
+    private final StandardAttributesContainer container;
+    private final ConcurrentMap<String, StripedCounter> reads = Maps.newConcurrentMap();
+    private final ConcurrentMap<String, StripedCounter> misses = Maps.newConcurrentMap();
+    private volatile boolean enabled = false;
+    private volatile int sampleRate = 1;
+    private volatile long startTime = 0;
+
+    AttributeReadTracker(StandardAttributesContainer container)
+    {
+        this.container = container;
+    }
+
+    /**
+     * Start tracking reads
+     *
+     * @param sampleRate 1 to count every read, N to count 1 in N reads
+     */
+    public void enable(int sampleRate)
+    {
+        Preconditions.checkArgument(sampleRate > 0, "sampleRate must be greater than 0");
+        this.sampleRate = sampleRate;
+        if ( !enabled )
+        {
+            startTime = System.currentTimeMillis();
+            enabled = true;
+        }
+    }
+
+    public void disable()
+    {
+        enabled = false;
+    }
+
+    public boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    /**
+     * Clear all counts
+     */
+    public void reset()
+    {
+        reads.clear();
+        misses.clear();
+        startTime = System.currentTimeMillis();
+    }
+
+    /**
+     * @param top max number of hot/missed keys to return
+     * @return report
+     */
+    public AttributeReadStats getStats(int top)
+    {
+        long localStartTime = startTime;
+        long trackingMs = (localStartTime > 0) ? (System.currentTimeMillis() - localStartTime) : 0;
+
+        long totalReads = 0;
+        List<AttributeReadCount> counts = Lists.newArrayList();
+        for ( Map.Entry<String, StripedCounter> entry : reads.entrySet() )
+        {
+            StripedCounter missCounter = misses.get(entry.getKey());
+            AttributeReadCount count = new AttributeReadCount(entry.getKey(), entry.getValue().get(), (missCounter != null) ? missCounter.get() : 0);
+            totalReads += count.getReads();
+            counts.add(count);
+        }
+
+        List<AttributeReadCount> missedKeys = Lists.newArrayList();
+        for ( AttributeReadCount count : counts )
+        {
+            if ( count.getMisses() > 0 )
+            {
+                missedKeys.add(count);
+            }
+        }
+
+        Comparator<AttributeReadCount> byReads = new Comparator<AttributeReadCount>()
+        {
+            @Override
+            public int compare(AttributeReadCount o1, AttributeReadCount o2)
+            {
+                return Long.compare(o2.getReads(), o1.getReads());
+            }
+        };
+        Comparator<AttributeReadCount> byMisses = new Comparator<AttributeReadCount>()
+        {
+            @Override
+            public int compare(AttributeReadCount o1, AttributeReadCount o2)
+            {
+                return Long.compare(o2.getMisses(), o1.getMisses());
+            }
+        };
+        Collections.sort(counts, byReads);
+        Collections.sort(missedKeys, byMisses);
+
+        List<String> unreadKeys = Lists.newArrayList(Sets.newTreeSet(Sets.difference(container.getStoredKeys(), reads.keySet())));
+        return new AttributeReadStats(enabled, sampleRate, trackingMs, totalReads, counts.subList(0, Math.min(top, counts.size())), missedKeys.subList(0, Math.min(top, missedKeys.size())), unreadKeys);
+    }
+
+    void record(String key, boolean found)
+    {
+        if ( !enabled )
+        {
+            return;
+        }
+
+        int localSampleRate = sampleRate;
+        if ( (localSampleRate > 1) && (ThreadLocalRandom.current().nextInt(localSampleRate) != 0) )
+        {
+            return;
+        }
+
+        getCounter(reads, key).add(localSampleRate);
+        if ( !found )
+        {
+            getCounter(misses, key).add(localSampleRate);
+        }
+    }
+
+    private static StripedCounter getCounter(ConcurrentMap<String, StripedCounter> counters, String key)
+    {
+        StripedCounter counter = counters.get(key);
+        if ( counter == null )
+        {
+            StripedCounter newCounter = new StripedCounter();
+            counter = counters.putIfAbsent(key, newCounter);
+            if ( counter == null )
+            {
+                counter = newCounter;
+            }
+        }
+        return counter;
+    }
+}
@@ -0,0 +1,82 @@
+/**
+ * Copyright 2014 Jordan Zimmerman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.soabase.core.features.attributes;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A single entry in an {@link AttributeChangeSet}
+ */
+public class AttributeValueChange
+{
+    private final String key;
+    private final String scope;
+    private final Object oldValue;
+    private final Object newValue;
+
+    public AttributeValueChange(String key, String scope, Object oldValue, Object newValue)
+    {
+        this.key = Preconditions.checkNotNull(key, "key cannot be null");
+        this.scope = scope;
+        this.oldValue = oldValue;
+        this.newValue = newValue;
+    }
+
+    public String getKey()
+    {
+        return key;
+    }
+
+    /**
+     * @return the attribute's scope or <code>null</code> if this is an override
+     */
+    public String getScope()
+    {
+        return scope;
+    }
+
+    public boolean isOverride()
+    {
+        return (scope == null);
+    }
+
+    /**
+     * @return the previous value or <code>null</code> if the attribute was added
+     */
+    public Object getOldValue()
+    {
+        return oldValue;
+    }
+
+    /**
+     * @return the new value or <code>null</code> if the attribute was removed
+     */
+    public Object getNewValue()
+    {
+        return newValue;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "AttributeValueChange{" +
+            "key='" + key + '\'' +
+            ", scope='" + scope + '\'' +
+            ", oldValue=" + oldValue +
+            ", newValue=" + newValue +
+            '}';
+    }
+}
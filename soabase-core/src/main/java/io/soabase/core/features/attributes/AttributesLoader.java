@@ -0,0 +1,34 @@
+/**
+ * Copyright 2014 Jordan Zimmerman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.soabase.core.features.attributes;
+
+import java.util.Map;
+
+/**
+ * Loads the complete set of attributes from a backing store. Used with {@link CachingDynamicAttributes}
+ * which handles scheduling, timeouts, errors, etc.
+ */
+public interface AttributesLoader
+{
+    /**
+     * Load all attributes. Throw an exception if the attributes cannot be loaded - the
+     * previously loaded attributes will continue to be used.
+     *
+     * @return attributes
+     * @throws Exception errors
+     */
+    public Map<AttributeKey, Object> load() throws Exception;
+}
@@ -0,0 +1,349 @@
+/**
+ * Copyright 2014 Jordan Zimmerman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.soabase.core.features.attributes;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.dropwizard.lifecycle.Managed;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Periodically runs an attributes refresh. Only one refresh runs at a time - callers that
+ * ask for a refresh while one is running wait for the running one. Each refresh is limited by a timeout. A refresh that
+ * times out is interrupted and marked as abandoned (see {@link #isAbandoned()}). If it doesn't stop, no new refresh starts
+ * until it finishes. When refreshes
+ * fail, the previously loaded attributes continue to be used and the time until the next refresh is doubled
+ * up to a maximum. Slow refreshes back off the same way.
+ * <p>
+ * So that a fleet of instances that were restarted together doesn't refresh in lock step, the first refresh is
+ * delayed by a phase offset derived from the instance name and every delay is randomly jittered.
+ */
+public class AttributesRefresher implements Managed
+{
+    private final Logger log = LoggerFactory.getLogger(getClass());
+    private final Callable<?> refresh;
+    private final long periodMs;
+    private final long timeoutMs;
+    private final long maxBackoffMs;
+    private final long phaseOffsetMs;
+    private final double jitterRatio;
+    private final long slowRefreshMs;
+    private final Timer refreshTimer;
+    private final Counter failureCounter;
+    private final Counter timeoutCounter;
+    private final Counter slowCounter;
+    private final Histogram skewHistogram;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("AttributesRefresher-%d").setDaemon(true).build());
+    private final ExecutorService refreshExecutor = Executors.newCachedThreadPool(new ThreadFactoryBuilder().setNameFormat("AttributesRefresh-%d").setDaemon(true).build());
+    private Future<?> inFlight = null; // guarded by this
+    private boolean running = false;    // guarded by this - cleared by the refresh itself, unlike inFlight.isDone()
+    private volatile boolean abandoned = false;
+    private volatile long lastRefreshMs = 0;
+    private volatile long nextDelayMs = 0;
+    private int consecutiveBackoffs = 0;    // only accessed from the scheduler thread
+
+    public static final double DEFAULT_JITTER_RATIO = 0.1;
+
+    /**
+     * Refresher without phase offset, jitter or slow refresh detection
+     *
+     * @param name name used for metrics
+     * @param refresh the refresh to run. Throw an exception to signal failure.
+     * @param periodMs time between refreshes
+     * @param timeoutMs max time to wait for a refresh
+     * @param maxBackoffMs max time between refreshes when refreshes are failing
+     * @param metricRegistry registry for refresh latency and failure metrics
+     */
+    public AttributesRefresher(String name, Callable<?> refresh, long periodMs, long timeoutMs, long maxBackoffMs, MetricRegistry metricRegistry)
+    {
+        this(name, refresh, periodMs, timeoutMs, maxBackoffMs, null, 0, 0, metricRegistry);
+    }
+
+    /**
+     * @param name name used for metrics
+     * @param refresh the refresh to run. Throw an exception to signal failure.
+     * @param periodMs time between refreshes
+     * @param timeoutMs max time to wait for a refresh
+     * @param maxBackoffMs max time between refreshes when refreshes are failing or slow
+     * @param instanceName used to derive the phase offset of the first refresh or <code>null</code> for no offset
+     * @param jitterRatio each delay is randomly changed by up to this fraction of the period (0 for no jitter)
+     * @param slowRefreshMs refreshes that take longer than this back off as if they failed (0 to disable)
+     * @param metricRegistry registry for refresh latency and failure metrics
+     */
+    public AttributesRefresher(String name, Callable<?> refresh, long periodMs, long timeoutMs, long maxBackoffMs, String instanceName, double jitterRatio, long slowRefreshMs, MetricRegistry metricRegistry)
+    {
+        Preconditions.checkArgument(periodMs > 0, "periodMs must be greater than 0");
+        Preconditions.checkArgument((jitterRatio >= 0) && (jitterRatio < 1), "jitterRatio must be at least 0 and less than 1");
+        this.refresh = refresh;
+        this.periodMs = periodMs;
+        this.timeoutMs = timeoutMs;
+        this.maxBackoffMs = Math.max(maxBackoffMs, periodMs);
+        this.jitterRatio = jitterRatio;
+        this.slowRefreshMs = slowRefreshMs;
+        phaseOffsetMs = (instanceName != null) ? getPhaseOffsetMs(instanceName, periodMs) : 0;
+
+        refreshTimer = metricRegistry.timer(MetricRegistry.name(AttributesRefresher.class, name, "refresh"));
+        failureCounter = metricRegistry.counter(MetricRegistry.name(AttributesRefresher.class, name, "failures"));
+        timeoutCounter = metricRegistry.counter(MetricRegistry.name(AttributesRefresher.class, name, "timeouts"));
+        slowCounter = metricRegistry.counter(MetricRegistry.name(AttributesRefresher.class, name, "slow"));
+        skewHistogram = metricRegistry.histogram(MetricRegistry.name(AttributesRefresher.class, name, "skew-ms"));
+        Gauge<Long> phaseOffsetGauge = new Gauge<Long>()
+        {
+            @Override
+            public Long getValue()
+            {
+                return phaseOffsetMs;
+            }
+        };
+        Gauge<Long> nextDelayGauge = new Gauge<Long>()
+        {
+            @Override
+            public Long getValue()
+            {
+                return nextDelayMs;
+            }
+        };
+        metricRegistry.register(MetricRegistry.name(AttributesRefresher.class, name, "phase-offset-ms"), phaseOffsetGauge);
+        metricRegistry.register(MetricRegistry.name(AttributesRefresher.class, name, "next-delay-ms"), nextDelayGauge);
+    }
+
+    @Override
+    public void start() throws Exception
+    {
+        scheduleNext((phaseOffsetMs > 0) ? phaseOffsetMs : periodMs);
+    }
+
+    @Override
+    public void stop() throws Exception
+    {
+        scheduler.shutdownNow();
+        refreshExecutor.shutdownNow();
+    }
+
+    /**
+     * Refresh now and wait for the result (up to the timeout). If a refresh is already running, wait for it instead
+     * of starting another.
+     *
+     * @return true if the refresh succeeded
+     */
+    public boolean refreshNow()
+    {
+        Future<?> future = startRefresh();
+        if ( future == null )
+        {
+            log.warn("A timed out attributes refresh is still running. Continuing to use the previous attributes.");
+            timeoutCounter.inc();
+            return false;
+        }
+
+        try
+        {
+            future.get(timeoutMs, TimeUnit.MILLISECONDS);
+            return true;
+        }
+        catch ( TimeoutException e )
+        {
+            log.warn(String.format("Attributes refresh timed out after %d ms. Continuing to use the previous attributes.", timeoutMs));
+            timeoutCounter.inc();
+            abandoned = true;
+            future.cancel(true);
+        }
+        catch ( CancellationException e )
+        {
+            // another caller timed out waiting for the same refresh
+        }
+        catch ( ExecutionException e )
+        {
+            log.error("Attributes refresh failed. Continuing to use the previous attributes.", e.getCause());
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
+    /**
+     * Start a refresh on the refresher's own thread without waiting for it. Use this from callbacks that
+     * mustn't block - e.g. ZooKeeper event threads.
+     */
+    public void refreshAsync()
+    {
+        Runnable command = new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                refreshNow();
+            }
+        };
+        try
+        {
+            scheduler.execute(command);
+        }
+        catch ( RejectedExecutionException ignore )
+        {
+            // we're shutting down
+        }
+    }
+
+    /**
+     * Refreshes that apply their result should call this first and, if it returns true, drop the result. The
+     * refresh has timed out and the caller has already continued with the previous attributes.
+     *
+     * @return true if the currently running refresh has timed out
+     */
+    public boolean isAbandoned()
+    {
+        return abandoned;
+    }
+
+    @VisibleForTesting
+    long getNextDelayMs(int backoffs)
+    {
+        if ( backoffs == 0 )
+        {
+            return periodMs;
+        }
+        long delay = periodMs << Math.min(backoffs, 20);
+        return ((delay <= 0) || (delay > maxBackoffMs)) ? maxBackoffMs : delay;
+    }
+
+    @VisibleForTesting
+    long applyJitter(long delayMs)
+    {
+        if ( jitterRatio == 0 )
+        {
+            return delayMs;
+        }
+        long maxJitterMs = (long)(periodMs * jitterRatio);
+        long jitteredMs = delayMs + ThreadLocalRandom.current().nextLong(-maxJitterMs, maxJitterMs + 1);
+        return Math.max(jitteredMs, 1);
+    }
+
+    @VisibleForTesting
+    long getPhaseOffsetMs()
+    {
+        return phaseOffsetMs;
+    }
+
+    @VisibleForTesting
+    static long getPhaseOffsetMs(String instanceName, long periodMs)
+    {
+        // murmur spreads similar names (host-1, host-2, ...) across the period much better than String.hashCode()
+        long hash = Hashing.murmur3_32().hashUnencodedChars(instanceName).asInt() & 0xffffffffL;
+        return hash % periodMs;
+    }
+
+    private synchronized Future<?> startRefresh()
+    {
+        if ( !running )
+        {
+            Callable<Void> timedRefresh = new Callable<Void>()
+            {
+                @Override
+                public Void call() throws Exception
+                {
+                    Timer.Context context = refreshTimer.time();
+                    try
+                    {
+                        refresh.call();
+                    }
+                    catch ( Exception e )
+                    {
+                        failureCounter.inc();
+                        throw e;
+                    }
+                    finally
+                    {
+                        lastRefreshMs = TimeUnit.NANOSECONDS.toMillis(context.stop());
+                        refreshFinished();
+                    }
+                    return null;
+                }
+            };
+            abandoned = false;
+            inFlight = refreshExecutor.submit(timedRefresh);
+            running = true;
+        }
+        else if ( inFlight.isCancelled() )
+        {
+            return null;
+        }
+        return inFlight;
+    }
+
+    private synchronized void refreshFinished()
+    {
+        running = false;
+    }
+
+    private void scheduleNext(long delayMs)
+    {
+        if ( scheduler.isShutdown() )
+        {
+            return;
+        }
+
+        nextDelayMs = delayMs;
+        final long plannedStartMs = System.currentTimeMillis() + delayMs;
+        Runnable command = new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                skewHistogram.update(System.currentTimeMillis() - plannedStartMs);
+
+                boolean success = refreshNow();
+                boolean slow = success && (slowRefreshMs > 0) && (lastRefreshMs > slowRefreshMs);
+                if ( slow )
+                {
+                    log.warn(String.format("Attributes refresh took %d ms. Backing off.", lastRefreshMs));
+                    slowCounter.inc();
+                }
+                consecutiveBackoffs = (success && !slow) ? 0 : (consecutiveBackoffs + 1);
+                scheduleNext(applyJitter(getNextDelayMs(consecutiveBackoffs)));
+            }
+        };
+        try
+        {
+            scheduler.schedule(command, delayMs, TimeUnit.MILLISECONDS);
+        }
+        catch ( RejectedExecutionException ignore )
+        {
+            // we're shutting down
+        }
+    }
+}
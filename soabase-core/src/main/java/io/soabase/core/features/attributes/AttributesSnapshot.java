@@ -0,0 +1,98 @@
+/**
+ * Copyright 2014 Jordan Zimmerman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.soabase.core.features.attributes;
+
+import java.util.Map;
+
+/**
+ * An immutable view of the attributes at a point in time. Values read from a snapshot
+ * never change, so several related attributes read from the same snapshot are always consistent
+ * with each other. Snapshots are cheap - {@link DynamicAttributes#snapshot()} doesn't copy anything.
+ */
+public interface AttributesSnapshot
+{
+    /**
+     * @return the attributes version when this snapshot was taken. See {@link DynamicAttributes#getChangesSince(long)}
+     */
+    public long getVersion();
+
+    /**
+     * Unlike {@link #getVersion()}, the tag also changes when overrides or system properties change. Two
+     * snapshots with the same tag have the same values.
+     *
+     * @return a tag suitable for an HTTP ETag
+     */
+    public String getETag();
+
+    public String getAttribute(String key);
+
+    public String getAttribute(String key, String defaultValue);
+
+    public boolean getAttributeBoolean(String key);
+
+    public boolean getAttributeBoolean(String key, boolean defaultValue);
+
+    public int getAttributeInt(String key);
+
+    public int getAttributeInt(String key, int defaultValue);
+
+    public long getAttributeLong(String key);
+
+    public long getAttributeLong(String key, long defaultValue);
+
+    public double getAttributeDouble(String key);
+
+    public double getAttributeDouble(String key, double defaultValue);
+
+    /**
+     * Return the attribute's value deserialized from JSON. The value is deserialized once each time it changes and
+     * the same instance is returned to every caller - treat it as immutable.
+     *
+     * @param key key
+     * @param clazz type to deserialize to
+     * @return object or null if the attribute is missing or can't be deserialized as the given type
+     */
+    public <T> T getAttributeObject(String key, Class<T> clazz);
+
+    /**
+     * Same as {@link #getAttributeObject(String, Class)} but with a default for missing/invalid values
+     *
+     * @param key key
+     * @param clazz type to deserialize to
+     * @param defaultValue default
+     * @return object or defaultValue
+     */
+    public <T> T getAttributeObject(String key, Class<T> clazz, T defaultValue);
+
+    /**
+     * Evaluate a feature flag. The flag's rule is the attribute's value - see the Dynamic Attributes
+     * documentation for the rule syntax. Missing flags are disabled.
+     *
+     * @param flag flag/attribute key
+     * @param userKey the key to bucket (user id, account id, etc.) or null
+     * @return true if the flag is enabled for the user key
+     */
+    public boolean isEnabled(String flag, String userKey);
+
+    /**
+     * Return all attributes whose key starts with the given prefix (e.g. "service.db.pool."). The result is
+     * a read-only view, sorted by key, that is not copied from the attributes.
+     *
+     * @param prefix key prefix. An empty prefix returns all attributes.
+     * @return key to value map
+     */
+    public Map<String, String> getAttributesWithPrefix(String prefix);
+}
@@ -0,0 +1,88 @@
+/**
+ * Copyright 2014 Jordan Zimmerman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.soabase.core.features.attributes;
+
+import com.google.common.base.Preconditions;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import java.io.IOException;
+
+/**
+ * Pins one {@link AttributesSnapshot} for the duration of each request. Code running in the request
+ * thread calls {@link #snapshot(DynamicAttributes)} to get the pinned snapshot so that every attribute
+ * read during the request sees the same values. Note: the snapshot is held in a thread local so it is not
+ * available to work handed off to other threads.
+ */
+public class AttributesSnapshotFilter implements Filter
+{
+    private static final ThreadLocal<AttributesSnapshot> pinned = new ThreadLocal<>();
+
+    private final DynamicAttributes attributes;
+
+    public AttributesSnapshotFilter(DynamicAttributes attributes)
+    {
+        this.attributes = Preconditions.checkNotNull(attributes, "attributes cannot be null");
+    }
+
+    /**
+     * Return the snapshot pinned for the current request or, if there isn't one, a new snapshot
+     *
+     * @param attributes attributes to snapshot if there's no pinned snapshot
+     * @return snapshot
+     */
+    public static AttributesSnapshot snapshot(DynamicAttributes attributes)
+    {
+        AttributesSnapshot snapshot = pinned.get();
+        return (snapshot != null) ? snapshot : attributes.snapshot();
+    }
+
+    @Override
+    public void init(FilterConfig filterConfig) throws ServletException
+    {
+        // NOP
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException
+    {
+        AttributesSnapshot previous = pinned.get();
+        if ( previous == null )
+        {
+            pinned.set(attributes.snapshot());
+        }
+        try
+        {
+            chain.doFilter(request, response);
+        }
+        finally
+        {
+            if ( previous == null )
+            {
+                pinned.remove();
+            }
+        }
+    }
+
+    @Override
+    public void destroy()
+    {
+        // NOP
+    }
+}
@@ -0,0 +1,81 @@
+/**
+ * Copyright 2014 Jordan Zimmerman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.soabase.core.features.attributes;
+
+import com.codahale.metrics.MetricRegistry;
+import io.dropwizard.lifecycle.Managed;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+/**
+ * Attributes that are periodically re-loaded in full from an {@link AttributesLoader}.
+ * See {@link AttributesRefresher} for details on how refreshes are run.
+ */
+public class CachingDynamicAttributes extends ContainerDynamicAttributes implements Managed
+{
+    private final Logger log = LoggerFactory.getLogger(getClass());
+    private final AttributesRefresher refresher;
+
+    public CachingDynamicAttributes(String name, final AttributesLoader loader, List<String> scopes, long refreshPeriodMs, long refreshTimeoutMs, long maxBackoffMs, MetricRegistry metricRegistry)
+    {
+        super(new StandardAttributesContainer(scopes));
+        Callable<Void> refresh = new Callable<Void>()
+        {
+            @Override
+            public Void call() throws Exception
+            {
+                Map<AttributeKey, Object> attributes = loader.load();
+                if ( refresher.isAbandoned() )
+                {
+                    log.warn("Dropping attributes from a refresh that timed out");
+                }
+                else
+                {
+                    container.reset(attributes);
+                }
+                return null;
+            }
+        };
+        String instanceName = (scopes.size() > 0) ? scopes.get(0) : null;  // the first scope is the instance name
+        refresher = new AttributesRefresher(name, refresh, refreshPeriodMs, refreshTimeoutMs, maxBackoffMs, instanceName, AttributesRefresher.DEFAULT_JITTER_RATIO, 0, metricRegistry);
+    }
+
+    /**
+     * Re-load the attributes now
+     *
+     * @return true if successful
+     */
+    public boolean refresh()
+    {
+        return refresher.refreshNow();
+    }
+
+    @Override
+    public void start() throws Exception
+    {
+        refresher.refreshNow();
+        refresher.start();
+    }
+
+    @Override
+    public void stop() throws Exception
+    {
+        refresher.stop();
+    }
+}
@@ -0,0 +1,92 @@
+/**
+ * Copyright 2014 Jordan Zimmerman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.soabase.core.features.attributes;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.dropwizard.setup.Environment;
+import javax.validation.constraints.Min;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Base for attribute factories whose backing store can only be read in full. Subclasses
+ * supply an {@link AttributesLoader} and get periodic refresh, timeouts, serve-stale-on-error,
+ * backoff and metrics from {@link CachingDynamicAttributes}. Subclasses must be annotated with <code>JsonTypeName</code>
+ * like other factories.
+ */
+public abstract class CachingDynamicAttributesFactory implements DynamicAttributesFactory
+{
+    @Min(1)
+    private int refreshPeriodSeconds = 30;
+
+    @Min(1)
+    private int refreshTimeoutSeconds = 30;
+
+    @Min(1)
+    private int maxBackoffSeconds = 300;
+
+    @JsonProperty("refreshPeriodSeconds")
+    public int getRefreshPeriodSeconds()
+    {
+        return refreshPeriodSeconds;
+    }
+
+    @JsonProperty("refreshPeriodSeconds")
+    public void setRefreshPeriodSeconds(int refreshPeriodSeconds)
+    {
+        this.refreshPeriodSeconds = refreshPeriodSeconds;
+    }
+
+    @JsonProperty("refreshTimeoutSeconds")
+    public int getRefreshTimeoutSeconds()
+    {
+        return refreshTimeoutSeconds;
+    }
+
+    @JsonProperty("refreshTimeoutSeconds")
+    public void setRefreshTimeoutSeconds(int refreshTimeoutSeconds)
+    {
+        this.refreshTimeoutSeconds = refreshTimeoutSeconds;
+    }
+
+    @JsonProperty("maxBackoffSeconds")
+    public int getMaxBackoffSeconds()
+    {
+        return maxBackoffSeconds;
+    }
+
+    @JsonProperty("maxBackoffSeconds")
+    public void setMaxBackoffSeconds(int maxBackoffSeconds)
+    {
+        this.maxBackoffSeconds = maxBackoffSeconds;
+    }
+
+    @Override
+    public DynamicAttributes build(Environment environment, List<String> scopes)
+    {
+        AttributesLoader loader = buildLoader(environment, scopes);
+        return new CachingDynamicAttributes(getClass().getSimpleName(), loader, scopes, TimeUnit.SECONDS.toMillis(refreshPeriodSeconds), TimeUnit.SECONDS.toMillis(refreshTimeoutSeconds), TimeUnit.SECONDS.toMillis(maxBackoffSeconds), environment.metrics());
+    }
+
+    /**
+     * Return the loader for the backing store
+     *
+     * @param environment DW environment
+     * @param scopes the instance's scopes - loaders can use these to only load what's needed
+     * @return loader
+     */
+    protected abstract AttributesLoader buildLoader(Environment environment, List<String> scopes);
+}
@@ -0,0 +1,248 @@
+/**
+ * Copyright 2014 Jordan Zimmerman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.soabase.core.features.attributes;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.util.concurrent.ListenableFuture;
+import io.soabase.core.listening.Listenable;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Base for {@link DynamicAttributes} implementations that keep their attributes in
+ * a {@link StandardAttributesContainer}. Subclasses load/update the container - the
+ * accessor methods are implemented here.
+ */
+public abstract class ContainerDynamicAttributes implements DynamicAttributes
+{
+    protected final StandardAttributesContainer container;
+
+    protected ContainerDynamicAttributes(StandardAttributesContainer container)
+    {
+        this.container = container;
+    }
+
+    @Override
+    public String getAttribute(String key)
+    {
+        return container.getAttribute(key, null);
+    }
+
+    @Override
+    public String getAttribute(String key, String defaultValue)
+    {
+        return container.getAttribute(key, defaultValue);
+    }
+
+    @Override
+    public boolean getAttributeBoolean(String key)
+    {
+        return container.getAttributeBoolean(key, false);
+    }
+
+    @Override
+    public boolean getAttributeBoolean(String key, boolean defaultValue)
+    {
+        return container.getAttributeBoolean(key, defaultValue);
+    }
+
+    @Override
+    public int getAttributeInt(String key)
+    {
+        return container.getAttributeInt(key, 0);
+    }
+
+    @Override
+    public int getAttributeInt(String key, int defaultValue)
+    {
+        return container.getAttributeInt(key, defaultValue);
+    }
+
+    @Override
+    public long getAttributeLong(String key)
+    {
+        return container.getAttributeLong(key, 0);
+    }
+
+    @Override
+    public long getAttributeLong(String key, long defaultValue)
+    {
+        return container.getAttributeLong(key, defaultValue);
+    }
+
+    @Override
+    public double getAttributeDouble(String key, double defaultValue)
+    {
+        return container.getAttributeDouble(key, defaultValue);
+    }
+
+    @Override
+    public <T> T getAttributeObject(String key, Class<T> clazz)
+    {
+        return container.getAttributeObject(key, clazz, null);
+    }
+
+    @Override
+    public <T> T getAttributeObject(String key, Class<T> clazz, T defaultValue)
+    {
+        return container.getAttributeObject(key, clazz, defaultValue);
+    }
+
+    @Override
+    public void setObjectMapper(ObjectMapper objectMapper)
+    {
+        container.setObjectMapper(objectMapper);
+    }
+
+    @Override
+    public double getAttributeDouble(String key)
+    {
+        return container.getAttributeDouble(key, 0.0);
+    }
+
+    @Override
+    public boolean isEnabled(String flag, String userKey)
+    {
+        return container.isEnabled(flag, userKey);
+    }
+
+    @Override
+    public AttributeReadTracker getReadTracker()
+    {
+        return container.getReadTracker();
+    }
+
+    @Override
+    public List<FeatureFlagStats> getFeatureFlagStats()
+    {
+        return container.getFeatureFlagStats();
+    }
+
+    @Override
+    public Map<String, String> getAttributesWithPrefix(String prefix)
+    {
+        return container.getAttributesWithPrefix(prefix);
+    }
+
+    @Override
+    public AttributesSnapshot snapshot()
+    {
+        return container.snapshot();
+    }
+
+    @Override
+    public AttributeHandle<String> stringHandle(String key, String defaultValue)
+    {
+        return container.stringHandle(key, defaultValue);
+    }
+
+    @Override
+    public AttributeHandle<Boolean> booleanHandle(String key, boolean defaultValue)
+    {
+        return container.booleanHandle(key, defaultValue);
+    }
+
+    @Override
+    public AttributeHandle<Integer> intHandle(String key, int defaultValue)
+    {
+        return container.intHandle(key, defaultValue);
+    }
+
+    @Override
+    public AttributeHandle<Long> longHandle(String key, long defaultValue)
+    {
+        return container.longHandle(key, defaultValue);
+    }
+
+    @Override
+    public AttributeHandle<Double> doubleHandle(String key, double defaultValue)
+    {
+        return container.doubleHandle(key, defaultValue);
+    }
+
+    @Override
+    public void temporaryOverride(String key, boolean value)
+    {
+        container.temporaryOverride(key, value);
+    }
+
+    @Override
+    public void temporaryOverride(String key, int value)
+    {
+        container.temporaryOverride(key, value);
+    }
+
+    @Override
+    public void temporaryOverride(String key, long value)
+    {
+        container.temporaryOverride(key, value);
+    }
+
+    @Override
+    public void temporaryOverride(String key, String value)
+    {
+        container.temporaryOverride(key, value);
+    }
+
+    @Override
+    public void temporaryOverride(String key, double value)
+    {
+        container.temporaryOverride(key, value);
+    }
+
+    @Override
+    public boolean removeOverride(String key)
+    {
+        return container.removeOverride(key);
+    }
+
+    @Override
+    public void refreshSystemProperties()
+    {
+        container.refreshSystemProperties();
+    }
+
+    @Override
+    public Collection<String> getKeys()
+    {
+        return container.getKeys();
+    }
+
+    @Override
+    public Listenable<DynamicAttributeListener> getListenable()
+    {
+        return container.getListenable();
+    }
+
+    @Override
+    public Listenable<DynamicAttributeBatchListener> getBatchListenable()
+    {
+        return container.getBatchListenable();
+    }
+
+    @Override
+    public AttributeChanges getChangesSince(long sinceVersion)
+    {
+        return container.getChangesSince(sinceVersion);
+    }
+
+    @Override
+    public ListenableFuture<Long> waitForChange(long sinceVersion)
+    {
+        return container.waitForChange(sinceVersion);
+    }
+}
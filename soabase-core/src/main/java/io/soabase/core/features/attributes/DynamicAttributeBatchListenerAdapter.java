@@ -0,0 +1,70 @@
+/**
+ * Copyright 2014 Jordan Zimmerman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.soabase.core.features.attributes;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Adapts a per-key {@link DynamicAttributeListener} to a {@link DynamicAttributeBatchListener}
+ * by calling the per-key listener for each entry in the change set
+ */
+public class DynamicAttributeBatchListenerAdapter implements DynamicAttributeBatchListener
+{
+    private final DynamicAttributeListener listener;
+
+    public DynamicAttributeBatchListenerAdapter(DynamicAttributeListener listener)
+    {
+        this.listener = Preconditions.checkNotNull(listener, "listener cannot be null");
+    }
+
+    @Override
+    public void attributesChanged(AttributeChangeSet changes)
+    {
+        for ( AttributeValueChange change : changes.getAdded() )
+        {
+            if ( change.isOverride() )
+            {
+                listener.overrideAdded(change.getKey());
+            }
+            else
+            {
+                listener.attributeAdded(change.getKey(), change.getScope());
+            }
+        }
+        for ( AttributeValueChange change : changes.getChanged() )
+        {
+            if ( change.isOverride() )
+            {
+                listener.overrideAdded(change.getKey());
+            }
+            else
+            {
+                listener.attributeChanged(change.getKey(), change.getScope());
+            }
+        }
+        for ( AttributeValueChange change : changes.getRemoved() )
+        {
+            if ( change.isOverride() )
+            {
+                listener.overrideRemoved(change.getKey());
+            }
+            else
+            {
+                listener.attributeRemoved(change.getKey(), change.getScope());
+            }
+        }
+    }
+}
@@ -15,8 +15,12 @@
  */
 package io.soabase.core.features.attributes;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.util.concurrent.ListenableFuture;
 import io.soabase.core.listening.Listenable;
 import java.util.Collection;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Gives access to dynamic attributes. The various get methods return
@@ -45,6 +49,90 @@ public interface DynamicAttributes
 
     public double getAttributeDouble(String key, double defaultValue);
 
+    /**
+     * Return the attribute's value deserialized from JSON. The value is parsed once each time it changes. Maps, lists
+     * and sets of JSON values are returned as a single unmodifiable instance shared by every caller. Other types
+     * get a new instance per call.
+     *
+     * @param key key
+     * @param clazz type to deserialize to
+     * @return object or null if the attribute is missing or can't be deserialized as the given type
+     */
+    public <T> T getAttributeObject(String key, Class<T> clazz);
+
+    /**
+     * Same as {@link #getAttributeObject(String, Class)} but with a default for missing/invalid values
+     *
+     * @param key key
+     * @param clazz type to deserialize to
+     * @param defaultValue default
+     * @return object or defaultValue
+     */
+    public <T> T getAttributeObject(String key, Class<T> clazz, T defaultValue);
+
+    /**
+     * Change the mapper used by {@link #getAttributeObject(String, Class)}. {@link io.soabase.core.SoaBundle} sets
+     * this to the environment's mapper. Previously deserialized values are deserialized again on next use.
+     *
+     * @param objectMapper mapper
+     */
+    public void setObjectMapper(ObjectMapper objectMapper);
+
+    /**
+     * Evaluate a feature flag. See {@link AttributesSnapshot#isEnabled(String, String)}
+     *
+     * @param flag flag/attribute key
+     * @param userKey the key to bucket (user id, account id, etc.) or null
+     * @return true if the flag is enabled for the user key
+     */
+    public boolean isEnabled(String flag, String userKey);
+
+    /**
+     * @return tracker for attribute reads. Tracking is disabled by default.
+     */
+    public AttributeReadTracker getReadTracker();
+
+    /**
+     * @return evaluation counts for attributes that have been used as feature flags
+     */
+    public List<FeatureFlagStats> getFeatureFlagStats();
+
+    /**
+     * Return all attributes whose key starts with the given prefix. See {@link AttributesSnapshot#getAttributesWithPrefix(String)}
+     *
+     * @param prefix key prefix
+     * @return read-only key to value map
+     */
+    public Map<String, String> getAttributesWithPrefix(String prefix);
+
+    /**
+     * Return an immutable view of the current attributes. Use this when reading several
+     * related attributes so that they are consistent with each other. Taking a snapshot
+     * is as cheap as a single attribute read.
+     *
+     * @return snapshot
+     */
+    public AttributesSnapshot snapshot();
+
+    /**
+     * Return a handle to the given attribute. The handle's value is converted
+     * once when the attribute changes instead of on every read. Handles are cached - getting
+     * a handle for the same key and default returns the same instance.
+     *
+     * @param key attribute key
+     * @param defaultValue value to use when the attribute isn't set
+     * @return handle
+     */
+    public AttributeHandle<String> stringHandle(String key, String defaultValue);
+
+    public AttributeHandle<Boolean> booleanHandle(String key, boolean defaultValue);
+
+    public AttributeHandle<Integer> intHandle(String key, int defaultValue);
+
+    public AttributeHandle<Long> longHandle(String key, long defaultValue);
+
+    public AttributeHandle<Double> doubleHandle(String key, double defaultValue);
+
     public void temporaryOverride(String key, boolean value);
 
     public void temporaryOverride(String key, int value);
@@ -57,7 +145,40 @@ public interface DynamicAttributes
 
     public boolean removeOverride(String key);
 
+    /**
+     * System properties are treated as overrides. They are captured at startup. Call
+     * this method to re-capture the current system properties.
+     */
+    public void refreshSystemProperties();
+
     public Collection<String> getKeys();
 
     public Listenable<DynamicAttributeListener> getListenable();
+
+    /**
+     * Batch listeners receive all of the changes from a refresh or override in a single call.
+     * Prefer this to {@link #getListenable()} when many attributes can change at once.
+     *
+     * @return batch listenable
+     */
+    public Listenable<DynamicAttributeBatchListener> getBatchListenable();
+
+    /**
+     * Return the changes made to the attributes after the given version. Use this to
+     * mirror the attributes: start with version 0 (which returns all attributes) and pass
+     * the returned {@link AttributeChanges#getVersion()} to the next call.
+     *
+     * @param sinceVersion previously returned version or 0
+     * @return changes
+     */
+    public AttributeChanges getChangesSince(long sinceVersion);
+
+    /**
+     * Return a future that completes when the attributes version is different than the given
+     * version. Cancel the future if you no longer need it.
+     *
+     * @param sinceVersion previously returned version or 0
+     * @return future that completes with the new version
+     */
+    public ListenableFuture<Long> waitForChange(long sinceVersion);
 }
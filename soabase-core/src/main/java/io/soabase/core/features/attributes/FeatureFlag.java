@@ -0,0 +1,197 @@
+/**
+ * Copyright 2014 Jordan Zimmerman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.soabase.core.features.attributes;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import java.util.Set;
+
+/**
+ * A feature flag rule compiled from an attribute value. Values are either a plain
+ * boolean/number (enabled for everyone if true/non-zero) or a list of clauses separated by ";":
+ * <ul>
+ *     <li><code>percent:N</code> - enabled for N percent of user keys (decimals allowed)</li>
+ *     <li><code>allow:a,b,c</code> - always enabled for these user keys</li>
+ *     <li><code>deny:a,b,c</code> - never enabled for these user keys</li>
+ *     <li><code>scope:a,b,c</code> - only enabled in instances that have one of these scopes</li>
+ * </ul>
+ * e.g. <code>percent:10;allow:qa-user;scope:canary</code>. Values that can't be parsed disable the flag.
+ * Evaluation doesn't allocate.
+ */
+class FeatureFlag
+{
+    private static final Logger log = LoggerFactory.getLogger(FeatureFlag.class);
+
+    private static final int ALL_BASIS_POINTS = 10000;
+    private static final Splitter clauseSplitter = Splitter.on(';').trimResults().omitEmptyStrings();
+    private static final Splitter listSplitter = Splitter.on(',').trimResults().omitEmptyStrings();
+
+    private final String rule;
+    private final int basisPoints;
+    private final Set<String> allow;
+    private final Set<String> deny;
+    private final boolean scopeMatches;
+    private final StripedCounter evaluations = new StripedCounter();   // striped - flags are evaluated on hot paths from many threads
+    private final StripedCounter enabled = new StripedCounter();
+
+    static FeatureFlag compile(ResolvedAttribute attribute, Set<String> instanceScopes)
+    {
+        if ( attribute.number != null )
+        {
+            return new FeatureFlag(attribute.stringValue, (attribute.number.doubleValue() != 0) ? ALL_BASIS_POINTS : 0, ImmutableSet.<String>of(), ImmutableSet.<String>of(), true);
+        }
+        String trimmed = attribute.stringValue.trim();
+        if ( trimmed.equalsIgnoreCase("true") || trimmed.equalsIgnoreCase("false") )
+        {
+            return new FeatureFlag(attribute.stringValue, trimmed.equalsIgnoreCase("true") ? ALL_BASIS_POINTS : 0, ImmutableSet.<String>of(), ImmutableSet.<String>of(), true);
+        }
+
+        int basisPoints = 0;
+        Set<String> allow = ImmutableSet.of();
+        Set<String> deny = ImmutableSet.of();
+        boolean scopeMatches = true;
+        try
+        {
+            for ( String clause : clauseSplitter.split(attribute.stringValue) )
+            {
+                int colon = clause.indexOf(':');
+                if ( colon < 0 )
+                {
+                    throw new IllegalArgumentException("Missing \":\" in clause: " + clause);
+                }
+                String name = clause.substring(0, colon).trim();
+                String value = clause.substring(colon + 1).trim();
+                switch ( name )
+                {
+                    case "percent":
+                    {
+                        double percent = Double.parseDouble(value);
+                        basisPoints = (int)Math.round(Math.max(0, Math.min(100, percent)) * 100);
+                        break;
+                    }
+
+                    case "allow":
+                    {
+                        allow = ImmutableSet.copyOf(listSplitter.split(value));
+                        break;
+                    }
+
+                    case "deny":
+                    {
+                        deny = ImmutableSet.copyOf(listSplitter.split(value));
+                        break;
+                    }
+
+                    case "scope":
+                    {
+                        scopeMatches = false;
+                        for ( String scope : listSplitter.split(value) )
+                        {
+                            scopeMatches = scopeMatches || instanceScopes.contains(scope);
+                        }
+                        break;
+                    }
+
+                    default:
+                    {
+                        throw new IllegalArgumentException("Unknown clause: " + name);
+                    }
+                }
+            }
+        }
+        catch ( IllegalArgumentException e )
+        {
+            log.warn(String.format("Could not parse feature flag rule \"%s\" - treating the flag as disabled: %s", attribute.stringValue, e.getMessage()));
+            return new FeatureFlag(attribute.stringValue, 0, ImmutableSet.<String>of(), ImmutableSet.<String>of(), false);
+        }
+        return new FeatureFlag(attribute.stringValue, basisPoints, allow, deny, scopeMatches);
+    }
+
+    private FeatureFlag(String rule, int basisPoints, Set<String> allow, Set<String> deny, boolean scopeMatches)
+    {
+        this.rule = rule;
+        this.basisPoints = basisPoints;
+        this.allow = allow;
+        this.deny = deny;
+        this.scopeMatches = scopeMatches;
+    }
+
+    boolean isEnabled(String flag, String userKey)
+    {
+        boolean result = evaluate(flag, userKey);
+        evaluations.add(1);
+        if ( result )
+        {
+            enabled.add(1);
+        }
+        return result;
+    }
+
+    FeatureFlagStats getStats(String flag)
+    {
+        return new FeatureFlagStats(flag, rule, evaluations.get(), enabled.get());
+    }
+
+    /**
+     * Consistent bucket (0 - 9999) for the flag/user. The flag is part of the hash so that
+     * the same users aren't always the first to get every flag.
+     */
+    static int bucket(String flag, String userKey)
+    {
+        // FNV-1a over the chars - no allocation
+        int hash = 0x811c9dc5;
+        for ( int i = 0; i < flag.length(); ++i )
+        {
+            hash = (hash ^ flag.charAt(i)) * 0x01000193;
+        }
+        hash = (hash ^ 0xffff) * 0x01000193;
+        for ( int i = 0; i < userKey.length(); ++i )
+        {
+            hash = (hash ^ userKey.charAt(i)) * 0x01000193;
+        }
+
+        // murmur3 finalizer for better avalanche
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        hash ^= hash >>> 16;
+        return (hash & 0x7fffffff) % ALL_BASIS_POINTS;
+    }
+
+    private boolean evaluate(String flag, String userKey)
+    {
+        if ( !scopeMatches )
+        {
+            return false;
+        }
+        if ( userKey == null )
+        {
+            return basisPoints >= ALL_BASIS_POINTS;
+        }
+        if ( deny.contains(userKey) )
+        {
+            return false;
+        }
+        if ( allow.contains(userKey) )
+        {
+            return true;
+        }
+        return (basisPoints >= ALL_BASIS_POINTS) || (bucket(flag, userKey) < basisPoints);
+    }
+}
@@ -0,0 +1,68 @@
+/**
+ * Copyright 2014 Jordan Zimmerman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.soabase.core.features.attributes;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Evaluation counts for a feature flag since its rule last changed
+ */
+public class FeatureFlagStats
+{
+    private final String flag;
+    private final String rule;
+    private final long evaluations;
+    private final long enabled;
+
+    public FeatureFlagStats(String flag, String rule, long evaluations, long enabled)
+    {
+        this.flag = Preconditions.checkNotNull(flag, "flag cannot be null");
+        this.rule = Preconditions.checkNotNull(rule, "rule cannot be null");
+        this.evaluations = evaluations;
+        this.enabled = enabled;
+    }
+
+    public String getFlag()
+    {
+        return flag;
+    }
+
+    public String getRule()
+    {
+        return rule;
+    }
+
+    public long getEvaluations()
+    {
+        return evaluations;
+    }
+
+    public long getEnabled()
+    {
+        return enabled;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "FeatureFlagStats{" +
+            "flag='" + flag + '\'' +
+            ", rule='" + rule + '\'' +
+            ", evaluations=" + evaluations +
+            ", enabled=" + enabled +
+            '}';
+    }
+}
@@ -0,0 +1,526 @@
+/**
+ * Copyright 2014 Jordan Zimmerman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.soabase.core.features.attributes;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.dropwizard.jackson.Jackson;
+import io.dropwizard.lifecycle.Managed;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Attributes are read from files in a directory. Each file holds the attributes for one scope
+ * and is named for the scope: <code>scope.yml</code>, <code>scope.yaml</code>, <code>scope.json</code> or
+ * <code>scope.properties</code>. The default scope's file is named via <code>defaultScopeName</code>.
+ * Nested YAML/JSON objects are flattened into dotted keys. The directory is watched with a {@link WatchService}
+ * and only files that changed are re-read.
+ * <p>
+ * Writes only go to <code>scope.properties</code> files - YAML/JSON files are never re-written as that would lose
+ * their nesting and comments. Properties files are merged last so written values override the other files.
+ * Removing a key that is defined in a YAML/JSON file fails - edit that file instead.
+ */
+public class FileDynamicAttributes extends ContainerDynamicAttributes implements WritableDynamicAttributes, Managed
+{
+    private final Logger log = LoggerFactory.getLogger(getClass());
+    private final Path directory;
+    private final String defaultScopeName;
+    private final Set<String> scopes;
+    private final ObjectMapper jsonMapper = Jackson.newObjectMapper();
+    private final ObjectMapper yamlMapper = Jackson.newObjectMapper(new YAMLFactory());
+    private final Map<Path, Map<String, Object>> fileContents = Maps.newHashMap();  // guarded by this
+    private final ExecutorService executorService = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder().setNameFormat("FileDynamicAttributes-%d").setDaemon(true).build());
+    private volatile WatchService watchService;
+
+    private static final List<String> EXTENSIONS = ImmutableList.of(".yml", ".yaml", ".json", ".properties");
+    private static final String WRITE_EXTENSION = ".properties";
+
+    public FileDynamicAttributes(Path directory, String defaultScopeName, List<String> scopes)
+    {
+        super(new StandardAttributesContainer(scopes));
+        this.directory = directory;
+        this.defaultScopeName = defaultScopeName;
+
+        Set<String> uniqueScopes = Sets.newLinkedHashSet(scopes);
+        uniqueScopes.add(StandardAttributesContainer.DEFAULT_SCOPE);
+        this.scopes = uniqueScopes;
+    }
+
+    @Override
+    public void start() throws Exception
+    {
+        Files.createDirectories(directory);
+        watchService = directory.getFileSystem().newWatchService();
+        directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+
+        reloadAll();
+
+        executorService.submit(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                watchLoop();
+            }
+        });
+    }
+
+    @Override
+    public void stop() throws Exception
+    {
+        executorService.shutdownNow();
+        WatchService localWatchService = watchService;
+        if ( localWatchService != null )
+        {
+            localWatchService.close();
+        }
+    }
+
+    @Override
+    public void put(AttributeKey key, Object value)
+    {
+        Map<AttributeKey, Object> attributes = Maps.newHashMap();
+        attributes.put(key, value);
+        putAll(attributes);
+    }
+
+    @Override
+    public void remove(AttributeKey key)
+    {
+        removeAll(ImmutableList.of(key));
+    }
+
+    @Override
+    public ListenableFuture<Void> putAsync(AttributeKey key, Object value)
+    {
+        try
+        {
+            put(key, value);
+        }
+        catch ( Exception e )
+        {
+            return Futures.immediateFailedFuture(e);
+        }
+        return Futures.immediateFuture(null);
+    }
+
+    @Override
+    public ListenableFuture<Void> removeAsync(AttributeKey key)
+    {
+        try
+        {
+            remove(key);
+        }
+        catch ( Exception e )
+        {
+            return Futures.immediateFailedFuture(e);
+        }
+        return Futures.immediateFuture(null);
+    }
+
+    @Override
+    public synchronized void putAll(Map<AttributeKey, Object> attributes)
+    {
+        Map<String, Map<String, Object>> scopeValues = Maps.newHashMap();
+        for ( Map.Entry<AttributeKey, Object> entry : attributes.entrySet() )
+        {
+            Map<String, Object> values = getScopeValuesForWrite(scopeValues, entry.getKey().getScope());
+            values.put(entry.getKey().getKey(), String.valueOf(entry.getValue()));
+        }
+        writeScopes(scopeValues);
+    }
+
+    @Override
+    public synchronized void removeAll(Collection<AttributeKey> keys)
+    {
+        Map<String, Map<String, Object>> scopeValues = Maps.newHashMap();
+        for ( AttributeKey key : keys )
+        {
+            Map<String, Object> values = getScopeValuesForWrite(scopeValues, key.getScope());
+            if ( values.remove(key.getKey()) == null )
+            {
+                checkNotReadOnly(key);
+            }
+        }
+        writeScopes(scopeValues);
+    }
+
+    @Override
+    public Map<AttributeKey, Object> getAll()
+    {
+        Map<AttributeKey, Object> all = Maps.newHashMap();
+        try ( DirectoryStream<Path> stream = Files.newDirectoryStream(directory) )
+        {
+            // merge in EXTENSIONS order - the same as getScopeValues()
+            List<Path> paths = Lists.newArrayList(stream);
+            for ( String extension : EXTENSIONS )
+            {
+                for ( Path path : paths )
+                {
+                    String scope = toScope(path);
+                    if ( (scope != null) && path.getFileName().toString().endsWith(extension) )
+                    {
+                        for ( Map.Entry<String, Object> entry : readFile(path).entrySet() )
+                        {
+                            all.put(new AttributeKey(entry.getKey(), scope), entry.getValue());
+                        }
+                    }
+                }
+            }
+        }
+        catch ( IOException e )
+        {
+            log.error("Could not read attribute files in: " + directory, e);
+            throw new RuntimeException(e);
+        }
+        return all;
+    }
+
+    private void watchLoop()
+    {
+        try
+        {
+            while ( !Thread.currentThread().isInterrupted() )
+            {
+                WatchKey watchKey = watchService.take();
+                boolean overflow = false;
+                Set<Path> changedPaths = Sets.newHashSet();
+                for ( WatchEvent<?> event : watchKey.pollEvents() )
+                {
+                    if ( event.kind() == StandardWatchEventKinds.OVERFLOW )
+                    {
+                        overflow = true;
+                    }
+                    else
+                    {
+                        changedPaths.add(directory.resolve((Path)event.context()));
+                    }
+                }
+                watchKey.reset();
+
+                if ( overflow )
+                {
+                    reloadAll();
+                }
+                else
+                {
+                    reload(changedPaths);
+                }
+            }
+        }
+        catch ( InterruptedException | ClosedWatchServiceException e )
+        {
+            // we're shutting down
+        }
+    }
+
+    private synchronized void reloadAll()
+    {
+        Set<Path> paths = Sets.newHashSet(fileContents.keySet());
+        try ( DirectoryStream<Path> stream = Files.newDirectoryStream(directory) )
+        {
+            for ( Path path : stream )
+            {
+                paths.add(path);
+            }
+        }
+        catch ( IOException e )
+        {
+            log.error("Could not list attribute files in: " + directory, e);
+            return;
+        }
+        reload(paths);
+    }
+
+    private synchronized void reload(Collection<Path> paths)
+    {
+        Set<String> changedScopes = Sets.newHashSet();
+        for ( Path path : paths )
+        {
+            String scope = toScope(path);
+            if ( (scope == null) || !scopes.contains(scope) )
+            {
+                continue;
+            }
+
+            Map<String, Object> newContents = Files.isRegularFile(path) ? readFileQuietly(path) : null;
+            if ( newContents == null )
+            {
+                if ( fileContents.remove(path) != null )
+                {
+                    changedScopes.add(scope);
+                }
+            }
+            else if ( !newContents.equals(fileContents.put(path, newContents)) )
+            {
+                changedScopes.add(scope);
+            }
+        }
+
+        if ( changedScopes.size() > 0 )
+        {
+            applyScopeChanges(changedScopes);
+        }
+    }
+
+    private void applyScopeChanges(Set<String> changedScopes)
+    {
+        Map<AttributeKey, Object> upserts = Maps.newHashMap();
+        List<AttributeKey> deletes = Lists.newArrayList();
+        Map<AttributeKey, Object> current = container.getAll();
+        for ( String scope : changedScopes )
+        {
+            Map<String, Object> values = getScopeValues(scope);
+            for ( Map.Entry<String, Object> entry : values.entrySet() )
+            {
+                AttributeKey key = new AttributeKey(entry.getKey(), scope);
+                if ( !current.containsKey(key) || !Objects.equal(current.get(key), entry.getValue()) )
+                {
+                    upserts.put(key, entry.getValue());
+                }
+            }
+            for ( AttributeKey key : current.keySet() )
+            {
+                if ( key.getScope().equals(scope) && !values.containsKey(key.getKey()) )
+                {
+                    deletes.add(key);
+                }
+            }
+        }
+        container.applyChanges(upserts, deletes);
+    }
+
+    // a scope may have more than one file - files are merged in EXTENSIONS order
+    private Map<String, Object> getScopeValues(String scope)
+    {
+        Map<String, Object> values = Maps.newTreeMap();
+        for ( String extension : EXTENSIONS )
+        {
+            Map<String, Object> contents = fileContents.get(toPath(scope, extension));
+            if ( contents != null )
+            {
+                values.putAll(contents);
+            }
+        }
+        return values;
+    }
+
+    private Map<String, Object> getScopeValuesForWrite(Map<String, Map<String, Object>> scopeValues, String scope)
+    {
+        Map<String, Object> values = scopeValues.get(scope);
+        if ( values == null )
+        {
+            Path path = findWritePath(scope);
+            Map<String, Object> existing = Files.exists(path) ? readFileQuietly(path) : null;
+            values = Maps.newTreeMap();
+            if ( existing != null )
+            {
+                values.putAll(existing);
+            }
+            scopeValues.put(scope, values);
+        }
+        return values;
+    }
+
+    private void checkNotReadOnly(AttributeKey key)
+    {
+        for ( String extension : EXTENSIONS )
+        {
+            Path path = toWritablePath(key.getScope(), extension);
+            Map<String, Object> contents = (!extension.equals(WRITE_EXTENSION) && Files.exists(path)) ? readFileQuietly(path) : null;
+            if ( (contents != null) && contents.containsKey(key.getKey()) )
+            {
+                throw new IllegalArgumentException(String.format("Cannot remove \"%s\" - it's defined in %s which is not written to. Edit the file instead.", key.getKey(), path));
+            }
+        }
+    }
+
+    private void writeScopes(Map<String, Map<String, Object>> scopeValues)
+    {
+        for ( Map.Entry<String, Map<String, Object>> entry : scopeValues.entrySet() )
+        {
+            Path path = findWritePath(entry.getKey());
+            try
+            {
+                writeFile(path, entry.getValue());
+            }
+            catch ( IOException e )
+            {
+                log.error("Could not write attributes file: " + path, e);
+                throw new RuntimeException(e);
+            }
+        }
+
+        // apply immediately instead of waiting for the watch event
+        List<Path> paths = Lists.newArrayList();
+        for ( String scope : scopeValues.keySet() )
+        {
+            paths.add(findWritePath(scope));
+        }
+        reload(paths);
+    }
+
+    private Path findWritePath(String scope)
+    {
+        return toWritablePath(scope, WRITE_EXTENSION);
+    }
+
+    // scopes come from API callers - don't let them name files outside of the directory
+    private Path toWritablePath(String scope, String extension)
+    {
+        if ( scope.contains("/") || scope.contains("\\") || scope.contains(directory.getFileSystem().getSeparator()) || scope.contains("..") || scope.startsWith(".") )
+        {
+            throw new IllegalArgumentException("Invalid scope for a file name: " + scope);
+        }
+        return toPath(scope, extension);
+    }
+
+    private void writeFile(Path path, Map<String, Object> values) throws IOException
+    {
+        // write to a temp file and rename so that readers never see a partial file
+        Path tempPath = Files.createTempFile(directory, ".", ".tmp");
+        try
+        {
+            Properties properties = new Properties();
+            for ( Map.Entry<String, Object> entry : values.entrySet() )
+            {
+                properties.setProperty(entry.getKey(), String.valueOf(entry.getValue()));
+            }
+            try ( Writer writer = Files.newBufferedWriter(tempPath, StandardCharsets.UTF_8) )
+            {
+                properties.store(writer, null);
+            }
+            Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        finally
+        {
+            Files.deleteIfExists(tempPath);
+        }
+    }
+
+    private Map<String, Object> readFileQuietly(Path path)
+    {
+        try
+        {
+            return readFile(path);
+        }
+        catch ( Exception e )
+        {
+            // the file may be in the middle of being written - the next event will re-read it
+            log.error("Could not read attributes file: " + path, e);
+            return fileContents.get(path);
+        }
+    }
+
+    private Map<String, Object> readFile(Path path) throws IOException
+    {
+        String name = path.getFileName().toString();
+        Map<String, Object> values = Maps.newTreeMap();
+        if ( name.endsWith(".properties") )
+        {
+            Properties properties = new Properties();
+            try ( Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8) )
+            {
+                properties.load(reader);
+            }
+            for ( String propertyName : properties.stringPropertyNames() )
+            {
+                values.put(propertyName, properties.getProperty(propertyName));
+            }
+        }
+        else
+        {
+            ObjectMapper mapper = name.endsWith(".json") ? jsonMapper : yamlMapper;
+            Map<String, Object> tree = mapper.readValue(path.toFile(), new TypeReference<Map<String, Object>>(){});
+            if ( tree != null )
+            {
+                flatten(values, "", tree);
+            }
+        }
+        return ImmutableMap.copyOf(values);
+    }
+
+    private static void flatten(Map<String, Object> values, String prefix, Map<?, ?> tree)
+    {
+        for ( Map.Entry<?, ?> entry : tree.entrySet() )
+        {
+            String key = prefix + entry.getKey();
+            Object value = entry.getValue();
+            if ( value instanceof Map )
+            {
+                flatten(values, key + ".", (Map<?, ?>)value);
+            }
+            else if ( value != null )
+            {
+                values.put(key, String.valueOf(value));
+            }
+        }
+    }
+
+    private String toScope(Path path)
+    {
+        String name = path.getFileName().toString();
+        if ( name.startsWith(".") )
+        {
+            return null;    // hidden and temp files
+        }
+        for ( String extension : EXTENSIONS )
+        {
+            if ( name.endsWith(extension) )
+            {
+                String scope = name.substring(0, name.length() - extension.length());
+                return scope.equals(defaultScopeName) ? StandardAttributesContainer.DEFAULT_SCOPE : scope;
+            }
+        }
+        return null;
+    }
+
+    private Path toPath(String scope, String extension)
+    {
+        String name = scope.equals(StandardAttributesContainer.DEFAULT_SCOPE) ? defaultScopeName : scope;
+        return directory.resolve(name + extension);
+    }
+}
@@ -0,0 +1,63 @@
+/**
+ * Copyright 2014 Jordan Zimmerman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.soabase.core.features.attributes;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonTypeName;
+import io.dropwizard.setup.Environment;
+import org.hibernate.validator.constraints.NotEmpty;
+import java.nio.file.Paths;
+import java.util.List;
+
+@JsonTypeName("file")
+public class FileDynamicAttributesFactory implements DynamicAttributesFactory
+{
+    @NotEmpty
+    private String directory;
+
+    @NotEmpty
+    private String defaultScopeName = "default";
+
+    @JsonProperty("directory")
+    public String getDirectory()
+    {
+        return directory;
+    }
+
+    @JsonProperty("directory")
+    public void setDirectory(String directory)
+    {
+        this.directory = directory;
+    }
+
+    @JsonProperty("defaultScopeName")
+    public String getDefaultScopeName()
+    {
+        return defaultScopeName;
+    }
+
+    @JsonProperty("defaultScopeName")
+    public void setDefaultScopeName(String defaultScopeName)
+    {
+        this.defaultScopeName = defaultScopeName;
+    }
+
+    @Override
+    public DynamicAttributes build(Environment environment, List<String> scopes)
+    {
+        return new FileDynamicAttributes(Paths.get(directory), defaultScopeName, scopes);
+    }
+}
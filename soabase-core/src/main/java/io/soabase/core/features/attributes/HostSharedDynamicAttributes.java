@@ -0,0 +1,517 @@
+/**
+ * Copyright 2014 Jordan Zimmerman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.soabase.core.features.attributes;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Charsets;
+import com.google.common.base.Function;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.dropwizard.lifecycle.Managed;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shares one copy of the attributes between the instances on a host. The instance that holds a lock on
+ * <code>mappedFile.lock</code> is the writer - it periodically reads all attributes from the store and, when they change,
+ * writes them to a memory-mapped file. Every instance (including the writer) checks the file's sequence number
+ * every <code>pollPeriodMs</code> and, when it changes, decodes the attributes for its scopes directly from
+ * the mapped file. When the writer exits the OS releases its lock and another instance takes over.
+ * <p>
+ * The sequence number is odd while the writer is writing. Readers only use data that was read between two
+ * reads of the same even sequence number. Accesses to the sequence are fenced (see {@link #fence()}).
+ * The file is only grown when the data doesn't fit - a new writer re-uses the existing file.
+ * <p>
+ * The store is never started. It's only used to read all attributes and for writes. Writes are applied locally
+ * immediately and reach other instances with the next snapshot.
+ */
+public class HostSharedDynamicAttributes extends ContainerDynamicAttributes implements WritableDynamicAttributes, Managed
+{
+    private final Logger log = LoggerFactory.getLogger(getClass());
+    private final WritableDynamicAttributes store;
+    private final Path mappedFile;
+    private final Path lockFile;
+    private final Set<String> scopes;
+    private final long pollPeriodMs;
+    private final AttributesRefresher refresher;
+    private final ScheduledExecutorService executorService = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("HostSharedDynamicAttributes-%d").setDaemon(true).build());
+    private RandomAccessFile file = null;   // guarded by this
+    private MappedByteBuffer buffer = null; // guarded by this
+    private RandomAccessFile lockRandomAccessFile = null;   // guarded by this
+    private FileLock lock = null;   // guarded by this
+    private byte[] lastPublished = null;    // guarded by this
+    private volatile long appliedSequence = -1;
+
+    private static volatile int fenceValue = 0; // see fence()
+
+    private static final int MAGIC = 0x534f4148;  // "SOAH"
+    private static final int FORMAT_VERSION = 1;
+    private static final int MAGIC_OFFSET = 0;
+    private static final int FORMAT_VERSION_OFFSET = 4;
+    private static final int SEQUENCE_OFFSET = 8;
+    private static final int LENGTH_OFFSET = 16;
+    private static final int HEADER_SIZE = 24;
+    private static final int MIN_FILE_SIZE = 64 * 1024;
+    private static final int MAX_READ_ATTEMPTS = 3;
+
+    /**
+     * @param store the backing store
+     * @param mappedFile the file to share. <code>mappedFile.lock</code> is used to choose the writer.
+     * @param scopes scopes to resolve. The first scope is the instance name.
+     * @param refreshPeriodMs how often the writer reads the store
+     * @param refreshTimeoutMs max time for the writer to read the store and write the file
+     * @param maxBackoffMs max time between reads when reads are failing
+     * @param pollPeriodMs how often to check the file for changes
+     * @param metricRegistry registry for metrics
+     */
+    public HostSharedDynamicAttributes(WritableDynamicAttributes store, Path mappedFile, List<String> scopes, long refreshPeriodMs, long refreshTimeoutMs, long maxBackoffMs, long pollPeriodMs, MetricRegistry metricRegistry)
+    {
+        super(new StandardAttributesContainer(scopes));
+        this.store = store;
+        this.mappedFile = mappedFile;
+        this.pollPeriodMs = pollPeriodMs;
+        lockFile = mappedFile.resolveSibling(mappedFile.getFileName() + ".lock");
+        this.scopes = ImmutableSet.<String>builder().addAll(scopes).add(StandardAttributesContainer.DEFAULT_SCOPE).build();
+
+        Callable<Void> publish = new Callable<Void>()
+        {
+            @Override
+            public Void call() throws Exception
+            {
+                publish();
+                return null;
+            }
+        };
+        refresher = new AttributesRefresher("host-shared", publish, refreshPeriodMs, refreshTimeoutMs, maxBackoffMs, scopes.get(0), AttributesRefresher.DEFAULT_JITTER_RATIO, 0, metricRegistry);
+
+        Gauge<Boolean> writerGauge = new Gauge<Boolean>()
+        {
+            @Override
+            public Boolean getValue()
+            {
+                return isWriter();
+            }
+        };
+        Gauge<Long> sequenceGauge = new Gauge<Long>()
+        {
+            @Override
+            public Long getValue()
+            {
+                return appliedSequence;
+            }
+        };
+        metricRegistry.register(MetricRegistry.name(HostSharedDynamicAttributes.class, "writer"), writerGauge);
+        metricRegistry.register(MetricRegistry.name(HostSharedDynamicAttributes.class, "sequence"), sequenceGauge);
+    }
+
+    @Override
+    public void start() throws Exception
+    {
+        synchronized(this)
+        {
+            file = new RandomAccessFile(mappedFile.toFile(), "rw");
+            lockRandomAccessFile = new RandomAccessFile(lockFile.toFile(), "rw");
+        }
+        poll();
+
+        Runnable poller = new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                poll();
+            }
+        };
+        executorService.scheduleWithFixedDelay(poller, pollPeriodMs, pollPeriodMs, TimeUnit.MILLISECONDS);
+        refresher.start();
+    }
+
+    @Override
+    public void stop() throws Exception
+    {
+        executorService.shutdownNow();
+        refresher.stop();
+        synchronized(this)
+        {
+            if ( lock != null )
+            {
+                lock.release();
+                lock = null;
+            }
+            if ( lockRandomAccessFile != null )
+            {
+                lockRandomAccessFile.close();
+                lockRandomAccessFile = null;
+            }
+            if ( file != null )
+            {
+                file.close();
+                file = null;
+            }
+            buffer = null;
+        }
+    }
+
+    /**
+     * @return true if this instance is currently writing the shared file
+     */
+    public synchronized boolean isWriter()
+    {
+        return (lock != null);
+    }
+
+    /**
+     * @return sequence number of the last applied snapshot or -1
+     */
+    public long getAppliedSequence()
+    {
+        return appliedSequence;
+    }
+
+    /**
+     * If this instance is the writer, read the store now and write the file if needed
+     *
+     * @return true if successful
+     */
+    public boolean refresh()
+    {
+        return refresher.refreshNow();
+    }
+
+    @Override
+    public void put(AttributeKey key, Object value)
+    {
+        store.put(key, value);
+        container.applyChanges(ImmutableMap.of(key, value), ImmutableList.<AttributeKey>of());
+    }
+
+    @Override
+    public void remove(AttributeKey key)
+    {
+        store.remove(key);
+        container.applyChanges(Maps.<AttributeKey, Object>newHashMap(), ImmutableList.of(key));
+    }
+
+    @Override
+    public ListenableFuture<Void> putAsync(final AttributeKey key, final Object value)
+    {
+        Function<Void, Void> apply = new Function<Void, Void>()
+        {
+            @Override
+            public Void apply(Void input)
+            {
+                container.applyChanges(ImmutableMap.of(key, value), ImmutableList.<AttributeKey>of());
+                return null;
+            }
+        };
+        return Futures.transform(store.putAsync(key, value), apply);
+    }
+
+    @Override
+    public ListenableFuture<Void> removeAsync(final AttributeKey key)
+    {
+        Function<Void, Void> apply = new Function<Void, Void>()
+        {
+            @Override
+            public Void apply(Void input)
+            {
+                container.applyChanges(Maps.<AttributeKey, Object>newHashMap(), ImmutableList.of(key));
+                return null;
+            }
+        };
+        return Futures.transform(store.removeAsync(key), apply);
+    }
+
+    @Override
+    public void putAll(Map<AttributeKey, Object> attributes)
+    {
+        store.putAll(attributes);
+        container.applyChanges(attributes, ImmutableList.<AttributeKey>of());
+    }
+
+    @Override
+    public void removeAll(Collection<AttributeKey> keys)
+    {
+        store.removeAll(keys);
+        container.applyChanges(Maps.<AttributeKey, Object>newHashMap(), keys);
+    }
+
+    @Override
+    public Map<AttributeKey, Object> getAll()
+    {
+        return store.getAll();
+    }
+
+    private void poll()
+    {
+        try
+        {
+            if ( tryBecomeWriter() )
+            {
+                log.info("Now the host-shared attributes writer for: " + mappedFile);
+                refresher.refreshNow();
+            }
+            applyMapped();
+        }
+        catch ( Throwable e )
+        {
+            // an uncaught Throwable would silently cancel the scheduled poll
+            log.error("Could not check the host-shared attributes file: " + mappedFile, e);
+        }
+    }
+
+    private synchronized boolean tryBecomeWriter() throws IOException
+    {
+        if ( (lock != null) || (lockRandomAccessFile == null) )
+        {
+            return false;
+        }
+        try
+        {
+            lock = lockRandomAccessFile.getChannel().tryLock();
+        }
+        catch ( OverlappingFileLockException e )
+        {
+            // another instance in this JVM is the writer
+        }
+        return (lock != null);
+    }
+
+    private synchronized void publish() throws Exception
+    {
+        if ( lock == null )
+        {
+            return;
+        }
+
+        byte[] attributesBytes = encodeAttributes(store.getAll());
+        if ( Arrays.equals(attributesBytes, lastPublished) )
+        {
+            return;
+        }
+
+        long neededSize = HEADER_SIZE + attributesBytes.length;
+        if ( (buffer == null) || (buffer.capacity() < neededSize) )
+        {
+            // re-use the existing file (restarts, writer takeovers) - only grow it when the data doesn't fit
+            long size = file.length();
+            if ( size < neededSize )
+            {
+                size = Math.max(MIN_FILE_SIZE, neededSize * 2);
+                file.setLength(size);
+            }
+            buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+
+        long sequence = (buffer.getInt(MAGIC_OFFSET) == MAGIC) ? buffer.getLong(SEQUENCE_OFFSET) : 0;
+        long writingSequence = ((sequence % 2) == 0) ? (sequence + 1) : (sequence + 2);    // a previous writer may have died mid-write
+        buffer.putLong(SEQUENCE_OFFSET, writingSequence);
+        fence();    // the odd sequence must be visible before any of the data changes
+        buffer.putInt(MAGIC_OFFSET, MAGIC);
+        buffer.putInt(FORMAT_VERSION_OFFSET, FORMAT_VERSION);
+        buffer.putInt(LENGTH_OFFSET, attributesBytes.length);
+        ByteBuffer data = buffer.duplicate();
+        data.position(HEADER_SIZE);
+        data.put(attributesBytes);
+        fence();    // the data must be visible before the even sequence
+        buffer.putLong(SEQUENCE_OFFSET, writingSequence + 1);
+        lastPublished = attributesBytes;
+
+        applyMapped();
+    }
+
+    private synchronized void applyMapped() throws IOException
+    {
+        if ( (file == null) || (file.length() < HEADER_SIZE) )
+        {
+            return;
+        }
+        if ( buffer == null )
+        {
+            buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, file.length());
+        }
+        if ( (buffer.getInt(MAGIC_OFFSET) != MAGIC) || (buffer.getInt(FORMAT_VERSION_OFFSET) != FORMAT_VERSION) )
+        {
+            return;
+        }
+
+        for ( int attempt = 0; attempt < MAX_READ_ATTEMPTS; ++attempt )
+        {
+            long sequence = buffer.getLong(SEQUENCE_OFFSET);
+            if ( sequence == appliedSequence )
+            {
+                return;
+            }
+            if ( (sequence % 2) != 0 )
+            {
+                continue;   // being written
+            }
+            fence();    // don't read the data before the sequence
+
+            Map<AttributeKey, Object> attributes;
+            try
+            {
+                int length = buffer.getInt(LENGTH_OFFSET);
+                if ( (length < 0) || ((HEADER_SIZE + (long)length) > file.length()) )
+                {
+                    throw new IllegalStateException("Bad attributes length: " + length);
+                }
+                if ( (HEADER_SIZE + length) > buffer.capacity() )
+                {
+                    // the writer grew the file
+                    buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, file.length());
+                }
+                ByteBuffer data = buffer.duplicate();
+                data.position(HEADER_SIZE);
+                data.limit(HEADER_SIZE + length);
+                attributes = decodeAttributes(data);
+            }
+            catch ( RuntimeException e )
+            {
+                attributes = null;  // most likely a torn read - the sequence check below will retry
+                log.debug("Could not decode the host-shared attributes file. Retrying.", e);
+            }
+
+            fence();    // finish reading the data before re-checking the sequence
+            if ( (attributes != null) && (buffer.getLong(SEQUENCE_OFFSET) == sequence) )
+            {
+                container.reset(attributes);
+                appliedSequence = sequence;
+                return;
+            }
+        }
+    }
+
+    /**
+     * MappedByteBuffer gets/puts are plain memory accesses that the JIT and CPU may reorder. Java 7 has no
+     * explicit fence API, so use a volatile read and write: the JIT doesn't move memory accesses across them
+     * and HotSpot emits a full hardware barrier (e.g. a locked instruction on x86) after the volatile write.
+     * The mapped pages are shared with the other processes, so this orders the sequence against the data
+     * for them as well.
+     */
+    private static void fence()
+    {
+        fenceValue = fenceValue + 1;
+    }
+
+    // decode in place - only this instance's scopes are copied out of the mapped file
+    private Map<AttributeKey, Object> decodeAttributes(ByteBuffer data)
+    {
+        Map<AttributeKey, Object> attributes = Maps.newHashMap();
+        int count = data.getInt();
+        if ( (count < 0) || (count > (data.remaining() / 12)) ) // each attribute has at least three lengths
+        {
+            throw new IllegalStateException("Bad attribute count: " + count);
+        }
+        for ( int i = 0; i < count; ++i )
+        {
+            int keyPosition = data.position();
+            skipString(data);
+            String scope = readString(data);
+            if ( scopes.contains(scope) )
+            {
+                int valuePosition = data.position();
+                data.position(keyPosition);
+                String key = readString(data);
+                data.position(valuePosition);
+                attributes.put(new AttributeKey(key, scope), readString(data));
+            }
+            else
+            {
+                skipString(data);
+            }
+        }
+        return attributes;
+    }
+
+    private static byte[] encodeAttributes(Map<AttributeKey, Object> attributes) throws IOException
+    {
+        // sorted so that unchanged attributes always encode to the same bytes
+        Map<String, Map.Entry<AttributeKey, Object>> sorted = Maps.newTreeMap();
+        for ( Map.Entry<AttributeKey, Object> entry : attributes.entrySet() )
+        {
+            sorted.put(entry.getKey().getScope() + '\u0000' + entry.getKey().getKey(), entry);
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(sorted.size());
+        for ( Map.Entry<AttributeKey, Object> entry : sorted.values() )
+        {
+            writeString(out, entry.getKey().getKey());
+            writeString(out, entry.getKey().getScope());
+            writeString(out, String.valueOf(entry.getValue()));
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static void writeString(DataOutputStream out, String str) throws IOException
+    {
+        byte[] bytes = str.getBytes(Charsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer data)
+    {
+        byte[] bytes = new byte[readLength(data)];
+        data.get(bytes);
+        return new String(bytes, Charsets.UTF_8);
+    }
+
+    private static void skipString(ByteBuffer data)
+    {
+        int length = readLength(data);
+        data.position(data.position() + length);
+    }
+
+    // a torn read can produce any length - check it before allocating
+    private static int readLength(ByteBuffer data)
+    {
+        int length = data.getInt();
+        if ( (length < 0) || (length > data.remaining()) )
+        {
+            throw new IllegalStateException("Bad string length: " + length);
+        }
+        return length;
+    }
+}
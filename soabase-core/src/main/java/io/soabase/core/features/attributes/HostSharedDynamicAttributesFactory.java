@@ -0,0 +1,134 @@
+/**
+ * Copyright 2014 Jordan Zimmerman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.soabase.core.features.attributes;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonTypeName;
+import com.google.common.base.Preconditions;
+import io.dropwizard.setup.Environment;
+import org.hibernate.validator.constraints.NotEmpty;
+import javax.validation.Valid;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Wraps another attributes factory. See {@link HostSharedDynamicAttributes}
+ */
+@JsonTypeName("host-shared")
+public class HostSharedDynamicAttributesFactory implements DynamicAttributesFactory
+{
+    @Valid
+    @NotNull
+    private DynamicAttributesFactory attributesFactory;
+
+    @NotEmpty
+    private String mappedFile;
+
+    @Min(1)
+    private int pollPeriodMs = 100;
+
+    @Min(1)
+    private int refreshPeriodSeconds = 30;
+
+    @Min(1)
+    private int refreshTimeoutSeconds = 30;
+
+    @Min(1)
+    private int maxBackoffSeconds = 300;
+
+    @JsonProperty("attributes")
+    public DynamicAttributesFactory getAttributesFactory()
+    {
+        return attributesFactory;
+    }
+
+    @JsonProperty("attributes")
+    public void setAttributesFactory(DynamicAttributesFactory attributesFactory)
+    {
+        this.attributesFactory = attributesFactory;
+    }
+
+    @JsonProperty("mappedFile")
+    public String getMappedFile()
+    {
+        return mappedFile;
+    }
+
+    @JsonProperty("mappedFile")
+    public void setMappedFile(String mappedFile)
+    {
+        this.mappedFile = mappedFile;
+    }
+
+    @JsonProperty("pollPeriodMs")
+    public int getPollPeriodMs()
+    {
+        return pollPeriodMs;
+    }
+
+    @JsonProperty("pollPeriodMs")
+    public void setPollPeriodMs(int pollPeriodMs)
+    {
+        this.pollPeriodMs = pollPeriodMs;
+    }
+
+    @JsonProperty("refreshPeriodSeconds")
+    public int getRefreshPeriodSeconds()
+    {
+        return refreshPeriodSeconds;
+    }
+
+    @JsonProperty("refreshPeriodSeconds")
+    public void setRefreshPeriodSeconds(int refreshPeriodSeconds)
+    {
+        this.refreshPeriodSeconds = refreshPeriodSeconds;
+    }
+
+    @JsonProperty("refreshTimeoutSeconds")
+    public int getRefreshTimeoutSeconds()
+    {
+        return refreshTimeoutSeconds;
+    }
+
+    @JsonProperty("refreshTimeoutSeconds")
+    public void setRefreshTimeoutSeconds(int refreshTimeoutSeconds)
+    {
+        this.refreshTimeoutSeconds = refreshTimeoutSeconds;
+    }
+
+    @JsonProperty("maxBackoffSeconds")
+    public int getMaxBackoffSeconds()
+    {
+        return maxBackoffSeconds;
+    }
+
+    @JsonProperty("maxBackoffSeconds")
+    public void setMaxBackoffSeconds(int maxBackoffSeconds)
+    {
+        this.maxBackoffSeconds = maxBackoffSeconds;
+    }
+
+    @Override
+    public DynamicAttributes build(Environment environment, List<String> scopes)
+    {
+        DynamicAttributes store = attributesFactory.build(environment, scopes);
+        Preconditions.checkArgument(store instanceof WritableDynamicAttributes, "The host-shared attributes store must implement WritableDynamicAttributes. Got: " + store.getClass().getName());
+        return new HostSharedDynamicAttributes((WritableDynamicAttributes)store, Paths.get(mappedFile), scopes, TimeUnit.SECONDS.toMillis(refreshPeriodSeconds), TimeUnit.SECONDS.toMillis(refreshTimeoutSeconds), TimeUnit.SECONDS.toMillis(maxBackoffSeconds), pollPeriodMs, environment.metrics());
+    }
+}
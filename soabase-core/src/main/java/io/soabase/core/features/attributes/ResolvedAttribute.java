@@ -0,0 +1,289 @@
+/**
+ * Copyright 2014 Jordan Zimmerman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.soabase.core.features.attributes;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A pre-resolved attribute value as published in the container's snapshot. The
+ * string and numeric forms are computed once so that reads don't need to re-parse.
+ */
+class ResolvedAttribute
+{
+    private static final Logger log = LoggerFactory.getLogger(ResolvedAttribute.class);
+    private static final Long ZERO = 0L;
+    private static final Object NOT_PARSEABLE = new Object();
+    private static final Set<Class<?>> IMMUTABLE_TYPES = ImmutableSet.<Class<?>>of(String.class, Boolean.class, Character.class, Byte.class, Short.class, Integer.class, Long.class, Float.class, Double.class, BigInteger.class, BigDecimal.class);
+
+    final Object value;
+    final String stringValue;
+    final Number integralNumber;    // int/long/boolean reads - strings only when they are whole numbers
+    final Number number;            // any numeric value - double reads
+    final boolean isOverride;
+    private volatile FeatureFlag featureFlag = null;
+    private volatile Map<Class<?>, DecodedObject> objects = null;
+
+    private static class DecodedObject
+    {
+        private final ObjectMapper mapper;
+        private final Object object;    // immutable - shared by all callers. null if tree is used
+        private final JsonNode tree;    // other types are re-created from the parsed tree for each caller
+
+        private DecodedObject(ObjectMapper mapper, Object object, JsonNode tree)
+        {
+            this.mapper = mapper;
+            this.object = object;
+            this.tree = tree;
+        }
+    }
+
+    ResolvedAttribute(Object value, boolean isOverride)
+    {
+        this.value = value;
+        this.isOverride = isOverride;
+        stringValue = value.toString();
+        number = parse(value);
+        integralNumber = parseIntegral(value, number);
+    }
+
+    boolean isSame(Object value, boolean isOverride)
+    {
+        return (this.isOverride == isOverride) && Objects.equal(this.value, value);
+    }
+
+    /**
+     * Overrides that aren't whole numbers are treated as 0 - other values that aren't whole numbers
+     * return the default. i.e. the string "1.5" is not truncated to 1.
+     *
+     * @param defaultValue default
+     * @return integral value
+     */
+    Number asIntegral(Number defaultValue)
+    {
+        if ( integralNumber != null )
+        {
+            return integralNumber;
+        }
+        return isOverride ? ZERO : defaultValue;
+    }
+
+    /**
+     * Overrides that aren't numeric are treated as 0 - other values that aren't numeric
+     * return the default
+     *
+     * @param defaultValue default
+     * @return numeric value
+     */
+    Number asNumber(Number defaultValue)
+    {
+        if ( number != null )
+        {
+            return number;
+        }
+        return isOverride ? ZERO : defaultValue;
+    }
+
+    /**
+     * The value compiled as a feature flag rule. Compiled on first use - as resolved attributes are
+     * re-used while unchanged, each new value is compiled once.
+     *
+     * @param instanceScopes this instance's scopes
+     * @return rule
+     */
+    FeatureFlag featureFlag(Set<String> instanceScopes)
+    {
+        FeatureFlag localFeatureFlag = featureFlag;
+        if ( localFeatureFlag == null )
+        {
+            localFeatureFlag = FeatureFlag.compile(this, instanceScopes);   // benign race - at worst compiled more than once
+            featureFlag = localFeatureFlag;
+        }
+        return localFeatureFlag;
+    }
+
+    /**
+     * The value deserialized from JSON as the given type. Parsed on first use per type - as resolved attributes
+     * are re-used while unchanged, each new value is parsed once. Strings, boxed primitives, enums and maps/lists/sets of
+     * them are returned as a single immutable instance that's shared by all callers. Other types can't be made
+     * immutable so each caller gets its own instance created from the already parsed JSON tree.
+     *
+     * @param mapper mapper to use
+     * @param clazz type
+     * @return object or null if the value can't be deserialized as the given type
+     */
+    <T> T asObject(ObjectMapper mapper, Class<T> clazz)
+    {
+        Map<Class<?>, DecodedObject> localObjects = objects;
+        if ( localObjects == null )
+        {
+            synchronized(this)
+            {
+                if ( objects == null )
+                {
+                    objects = Maps.newConcurrentMap();
+                }
+                localObjects = objects;
+            }
+        }
+
+        DecodedObject decoded = localObjects.get(clazz);
+        if ( (decoded == null) || (decoded.mapper != mapper) )
+        {
+            decoded = decode(mapper, clazz);    // benign race - at worst decoded more than once
+            localObjects.put(clazz, decoded);
+        }
+
+        if ( decoded.object != null )
+        {
+            return (decoded.object != NOT_PARSEABLE) ? clazz.cast(decoded.object) : null;
+        }
+        try
+        {
+            return mapper.treeToValue(decoded.tree, clazz);
+        }
+        catch ( Exception e )
+        {
+            log.debug(String.format("Could not deserialize attribute value as %s: %s", clazz.getName(), stringValue), e);
+            return null;
+        }
+    }
+
+    /**
+     * @return the compiled feature flag rule or null if the value has never been used as a feature flag
+     */
+    FeatureFlag compiledFeatureFlag()
+    {
+        return featureFlag;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "ResolvedAttribute{" +
+            "value=" + value +
+            ", isOverride=" + isOverride +
+            '}';
+    }
+
+    private DecodedObject decode(ObjectMapper mapper, Class<?> clazz)
+    {
+        try
+        {
+            JsonNode tree = clazz.isInstance(value) ? mapper.valueToTree(value) : mapper.readTree(stringValue);
+            Object object = clazz.isInstance(value) ? value : mapper.treeToValue(tree, clazz);
+            Object immutable = toImmutable(object);
+            if ( clazz.isInstance(immutable) )
+            {
+                return new DecodedObject(mapper, immutable, null);
+            }
+            return new DecodedObject(mapper, null, tree);
+        }
+        catch ( Exception e )
+        {
+            log.debug(String.format("Could not deserialize attribute value as %s: %s", clazz.getName(), stringValue), e);
+            return new DecodedObject(mapper, NOT_PARSEABLE, null);
+        }
+    }
+
+    // returns null if the object can't be made immutable
+    private static Object toImmutable(Object object)
+    {
+        if ( (object == null) || IMMUTABLE_TYPES.contains(object.getClass()) || (object instanceof Enum) )
+        {
+            return object;
+        }
+
+        // JSON allows nulls so Guava's immutable collections can't be used
+        if ( object instanceof Map )
+        {
+            Map<Object, Object> copy = Maps.newLinkedHashMap();
+            for ( Map.Entry<?, ?> entry : ((Map<?, ?>)object).entrySet() )
+            {
+                Object immutable = toImmutable(entry.getValue());
+                if ( (immutable == null) && (entry.getValue() != null) )
+                {
+                    return null;
+                }
+                copy.put(entry.getKey(), immutable);
+            }
+            return Collections.unmodifiableMap(copy);
+        }
+        if ( (object instanceof List) || (object instanceof Set) )
+        {
+            List<Object> copy = Lists.newArrayList();
+            for ( Object element : (Iterable<?>)object )
+            {
+                Object immutable = toImmutable(element);
+                if ( (immutable == null) && (element != null) )
+                {
+                    return null;
+                }
+                copy.add(immutable);
+            }
+            return (object instanceof Set) ? Collections.unmodifiableSet(Sets.newLinkedHashSet(copy)) : Collections.unmodifiableList(copy);
+        }
+        return null;
+    }
+
+    private static Number parseIntegral(Object value, Number number)
+    {
+        if ( value instanceof Number )
+        {
+            return number;  // typed numbers are converted as-is
+        }
+        return (number instanceof Long) ? number : null;    // strings must be whole numbers - "1.5" is not an int
+    }
+
+    private static Number parse(Object value)
+    {
+        if ( value instanceof Number )
+        {
+            return (Number)value;
+        }
+        String str = String.valueOf(value);
+        try
+        {
+            return Long.parseLong(str);
+        }
+        catch ( NumberFormatException e )
+        {
+            // ignore
+        }
+        try
+        {
+            return Double.parseDouble(str);
+        }
+        catch ( NumberFormatException e )
+        {
+            // ignore
+        }
+        return null;
+    }
+}
@@ -15,8 +15,12 @@
  */
 package io.soabase.core.features.attributes;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.util.concurrent.ListenableFuture;
 import io.soabase.core.listening.Listenable;
 import java.util.Collection;
+import java.util.List;
+import java.util.Map;
 
 class SafeDynamicAttributes implements DynamicAttributes
 {
@@ -87,6 +91,84 @@ class SafeDynamicAttributes implements DynamicAttributes
         return implementation.getAttributeDouble(key, defaultValue);
     }
 
+    @Override
+    public <T> T getAttributeObject(String key, Class<T> clazz)
+    {
+        return implementation.getAttributeObject(key, clazz, null);
+    }
+
+    @Override
+    public <T> T getAttributeObject(String key, Class<T> clazz, T defaultValue)
+    {
+        return implementation.getAttributeObject(key, clazz, defaultValue);
+    }
+
+    @Override
+    public void setObjectMapper(ObjectMapper objectMapper)
+    {
+        implementation.setObjectMapper(objectMapper);
+    }
+
+    @Override
+    public boolean isEnabled(String flag, String userKey)
+    {
+        return implementation.isEnabled(flag, userKey);
+    }
+
+    @Override
+    public AttributeReadTracker getReadTracker()
+    {
+        return implementation.getReadTracker();
+    }
+
+    @Override
+    public List<FeatureFlagStats> getFeatureFlagStats()
+    {
+        return implementation.getFeatureFlagStats();
+    }
+
+    @Override
+    public Map<String, String> getAttributesWithPrefix(String prefix)
+    {
+        return implementation.getAttributesWithPrefix(prefix);
+    }
+
+    @Override
+    public AttributesSnapshot snapshot()
+    {
+        return implementation.snapshot();
+    }
+
+    @Override
+    public AttributeHandle<String> stringHandle(String key, String defaultValue)
+    {
+        return implementation.stringHandle(key, defaultValue);
+    }
+
+    @Override
+    public AttributeHandle<Boolean> booleanHandle(String key, boolean defaultValue)
+    {
+        return implementation.booleanHandle(key, defaultValue);
+    }
+
+    @Override
+    public AttributeHandle<Integer> intHandle(String key, int defaultValue)
+    {
+        return implementation.intHandle(key, defaultValue);
+    }
+
+    @Override
+    public AttributeHandle<Long> longHandle(String key, long defaultValue)
+    {
+        return implementation.longHandle(key, defaultValue);
+    }
+
+    @Override
+    public AttributeHandle<Double> doubleHandle(String key, double defaultValue)
+    {
+        return implementation.doubleHandle(key, defaultValue);
+    }
+
     @Override
     public void temporaryOverride(String key, boolean value)
     {
@@ -123,6 +205,12 @@ class SafeDynamicAttributes implements DynamicAttributes
         return implementation.removeOverride(key);
     }
 
+    @Override
+    public void refreshSystemProperties()
+    {
+        implementation.refreshSystemProperties();
+    }
+
     @Override
     public Collection<String> getKeys()
     {
@@ -134,4 +222,22 @@ class SafeDynamicAttributes implements DynamicAttributes
     {
         return implementation.getListenable();
     }
+
+    @Override
+    public Listenable<DynamicAttributeBatchListener> getBatchListenable()
+    {
+        return implementation.getBatchListenable();
+    }
+
+    @Override
+    public AttributeChanges getChangesSince(long sinceVersion)
+    {
+        return implementation.getChangesSince(sinceVersion);
+    }
+
+    @Override
+    public ListenableFuture<Long> waitForChange(long sinceVersion)
+    {
+        return implementation.waitForChange(sinceVersion);
+    }
 }
@@ -0,0 +1,339 @@
+/**
+ * Copyright 2014 Jordan Zimmerman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.soabase.core.features.attributes;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Charsets;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.dropwizard.lifecycle.Managed;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Wraps another container based implementation and keeps a copy of its attributes in a local file.
+ * The file is loaded when this instance is created so that attributes are available immediately. The wrapped
+ * implementation is started in the background and the file is re-written (debounced) whenever its attributes change.
+ */
+public class SnapshotDynamicAttributes extends ContainerDynamicAttributes implements WritableDynamicAttributes, Managed
+{
+    private final Logger log = LoggerFactory.getLogger(getClass());
+    private final ContainerDynamicAttributes implementation;
+    private final Path snapshotFile;
+    private final long writeDelayMs;
+    private final ScheduledExecutorService executorService = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("SnapshotDynamicAttributes-%d").setDaemon(true).build());
+    private final AtomicBoolean writeScheduled = new AtomicBoolean(false);
+    private final long snapshotLoadTime;
+    private volatile long snapshotTimestamp = 0;
+
+    private static final int MAGIC = 0x534f4153;    // "SOAS"
+    private static final int VERSION = 1;
+
+    public SnapshotDynamicAttributes(ContainerDynamicAttributes implementation, Path snapshotFile, long writeDelayMs, MetricRegistry metricRegistry)
+    {
+        super(implementation.container);
+        this.implementation = implementation;
+        this.snapshotFile = snapshotFile;
+        this.writeDelayMs = writeDelayMs;
+
+        Map<AttributeKey, Object> snapshot = readSnapshot();
+        if ( snapshot != null )
+        {
+            container.reset(snapshot);
+            snapshotLoadTime = container.getLastUpdateTime();
+        }
+        else
+        {
+            snapshotLoadTime = -1;
+        }
+
+        DynamicAttributeBatchListener listener = new DynamicAttributeBatchListener()
+        {
+            @Override
+            public void attributesChanged(AttributeChangeSet changes)
+            {
+                if ( !changes.isOverrides() )  // overrides aren't saved
+                {
+                    scheduleWrite();
+                }
+            }
+        };
+        container.getBatchListenable().addListener(listener);
+
+        Gauge<Boolean> staleGauge = new Gauge<Boolean>()
+        {
+            @Override
+            public Boolean getValue()
+            {
+                return isStale();
+            }
+        };
+        Gauge<Long> lastSyncAgeGauge = new Gauge<Long>()
+        {
+            @Override
+            public Long getValue()
+            {
+                return getLastSyncAgeMs();
+            }
+        };
+        metricRegistry.register(MetricRegistry.name(SnapshotDynamicAttributes.class, "stale"), staleGauge);
+        metricRegistry.register(MetricRegistry.name(SnapshotDynamicAttributes.class, "last-sync-age-ms"), lastSyncAgeGauge);
+    }
+
+    /**
+     * @return true if the attributes being served are from the snapshot file - i.e. the wrapped implementation
+     * hasn't delivered attributes yet
+     */
+    public boolean isStale()
+    {
+        return (snapshotLoadTime > 0) && !hasSynced();
+    }
+
+    /**
+     * @return age of the attributes being served. If the attributes are from the snapshot file this is the time
+     * since the snapshot was written.
+     */
+    public long getLastSyncAgeMs()
+    {
+        long syncTime = isStale() ? snapshotTimestamp : container.getLastUpdateTime();
+        return (syncTime > 0) ? (System.currentTimeMillis() - syncTime) : -1;
+    }
+
+    @Override
+    public void start() throws Exception
+    {
+        Runnable command = new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    if ( implementation instanceof Managed )
+                    {
+                        ((Managed)implementation).start();
+                    }
+                    if ( hasSynced() )
+                    {
+                        writeSnapshot();
+                    }
+                }
+                catch ( Exception e )
+                {
+                    log.error("Could not start attributes implementation. Serving from snapshot: " + snapshotFile, e);
+                }
+            }
+        };
+        executorService.submit(command);
+    }
+
+    @Override
+    public void stop() throws Exception
+    {
+        executorService.shutdownNow();
+        if ( implementation instanceof Managed )
+        {
+            ((Managed)implementation).stop();
+        }
+        if ( hasSynced() )
+        {
+            writeSnapshot();
+        }
+    }
+
+    @Override
+    public void put(AttributeKey key, Object value)
+    {
+        getWritable().put(key, value);
+    }
+
+    @Override
+    public void remove(AttributeKey key)
+    {
+        getWritable().remove(key);
+    }
+
+    @Override
+    public ListenableFuture<Void> putAsync(AttributeKey key, Object value)
+    {
+        return getWritable().putAsync(key, value);
+    }
+
+    @Override
+    public ListenableFuture<Void> removeAsync(AttributeKey key)
+    {
+        return getWritable().removeAsync(key);
+    }
+
+    @Override
+    public void putAll(Map<AttributeKey, Object> attributes)
+    {
+        getWritable().putAll(attributes);
+    }
+
+    @Override
+    public void removeAll(Collection<AttributeKey> keys)
+    {
+        getWritable().removeAll(keys);
+    }
+
+    @Override
+    public Map<AttributeKey, Object> getAll()
+    {
+        return getWritable().getAll();
+    }
+
+    private boolean hasSynced()
+    {
+        return container.getLastUpdateTime() > Math.max(snapshotLoadTime, 0);
+    }
+
+    private WritableDynamicAttributes getWritable()
+    {
+        if ( implementation instanceof WritableDynamicAttributes )
+        {
+            return (WritableDynamicAttributes)implementation;
+        }
+        throw new UnsupportedOperationException("Attributes implementation is not writable: " + implementation.getClass().getName());
+    }
+
+    private void scheduleWrite()
+    {
+        if ( writeScheduled.compareAndSet(false, true) )
+        {
+            Runnable command = new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    writeScheduled.set(false);
+                    writeSnapshot();
+                }
+            };
+            executorService.schedule(command, writeDelayMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private synchronized void writeSnapshot()
+    {
+        try
+        {
+            Path tempFile = Files.createTempFile(snapshotFile.toAbsolutePath().getParent(), ".snapshot", ".tmp");
+            try
+            {
+                Map<AttributeKey, Object> attributes = container.getAll();
+                long timestamp = System.currentTimeMillis();
+                try ( DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile))) )
+                {
+                    out.writeInt(MAGIC);
+                    out.writeInt(VERSION);
+                    out.writeLong(timestamp);
+                    out.writeInt(attributes.size());
+                    for ( Map.Entry<AttributeKey, Object> entry : attributes.entrySet() )
+                    {
+                        writeString(out, entry.getKey().getKey());
+                        writeString(out, entry.getKey().getScope());
+                        writeString(out, String.valueOf(entry.getValue()));
+                    }
+                }
+                Files.move(tempFile, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                snapshotTimestamp = timestamp;
+            }
+            finally
+            {
+                Files.deleteIfExists(tempFile);
+            }
+        }
+        catch ( IOException e )
+        {
+            log.error("Could not write attributes snapshot: " + snapshotFile, e);
+        }
+    }
+
+    private Map<AttributeKey, Object> readSnapshot()
+    {
+        if ( !Files.exists(snapshotFile) )
+        {
+            return null;
+        }
+
+        try
+        {
+            ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(snapshotFile));
+            if ( (data.getInt() != MAGIC) || (data.getInt() != VERSION) )
+            {
+                log.warn("Ignoring attributes snapshot with unknown format: " + snapshotFile);
+                return null;
+            }
+            long timestamp = data.getLong();
+            int count = data.getInt();
+            if ( (count < 0) || (count > (data.remaining() / 12)) ) // each attribute has at least three lengths
+            {
+                throw new IllegalStateException("Bad attribute count: " + count);
+            }
+            Map<AttributeKey, Object> attributes = Maps.newHashMap();
+            for ( int i = 0; i < count; ++i )
+            {
+                String key = readString(data);
+                String scope = readString(data);
+                attributes.put(new AttributeKey(key, scope), readString(data));
+            }
+            snapshotTimestamp = timestamp;
+            return attributes;
+        }
+        catch ( IOException | RuntimeException e )
+        {
+            // a truncated or corrupt snapshot is the same as no snapshot
+            log.error("Could not read attributes snapshot: " + snapshotFile, e);
+            return null;
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String str) throws IOException
+    {
+        byte[] bytes = str.getBytes(Charsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    // a corrupt file can produce any length - check it before allocating
+    private static String readString(ByteBuffer data)
+    {
+        int length = data.getInt();
+        if ( (length < 0) || (length > data.remaining()) )
+        {
+            throw new IllegalStateException("Bad string length: " + length);
+        }
+        byte[] bytes = new byte[length];
+        data.get(bytes);
+        return new String(bytes, Charsets.UTF_8);
+    }
+}
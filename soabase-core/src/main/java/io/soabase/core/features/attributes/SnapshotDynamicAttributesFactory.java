@@ -0,0 +1,88 @@
+/**
+ * Copyright 2014 Jordan Zimmerman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.soabase.core.features.attributes;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonTypeName;
+import com.google.common.base.Preconditions;
+import io.dropwizard.setup.Environment;
+import org.hibernate.validator.constraints.NotEmpty;
+import javax.validation.Valid;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+import java.nio.file.Paths;
+import java.util.List;
+
+/**
+ * Wraps another attributes factory. See {@link SnapshotDynamicAttributes}
+ */
+@JsonTypeName("snapshot")
+public class SnapshotDynamicAttributesFactory implements DynamicAttributesFactory
+{
+    @Valid
+    @NotNull
+    private DynamicAttributesFactory attributesFactory = new NullDynamicAttributesFactory();
+
+    @NotEmpty
+    private String snapshotFile;
+
+    @Min(0)
+    private int writeDelayMs = 1000;
+
+    @JsonProperty("attributes")
+    public DynamicAttributesFactory getAttributesFactory()
+    {
+        return attributesFactory;
+    }
+
+    @JsonProperty("attributes")
+    public void setAttributesFactory(DynamicAttributesFactory attributesFactory)
+    {
+        this.attributesFactory = attributesFactory;
+    }
+
+    @JsonProperty("snapshotFile")
+    public String getSnapshotFile()
+    {
+        return snapshotFile;
+    }
+
+    @JsonProperty("snapshotFile")
+    public void setSnapshotFile(String snapshotFile)
+    {
+        this.snapshotFile = snapshotFile;
+    }
+
+    @JsonProperty("writeDelayMs")
+    public int getWriteDelayMs()
+    {
+        return writeDelayMs;
+    }
+
+    @JsonProperty("writeDelayMs")
+    public void setWriteDelayMs(int writeDelayMs)
+    {
+        this.writeDelayMs = writeDelayMs;
+    }
+
+    @Override
+    public DynamicAttributes build(Environment environment, List<String> scopes)
+    {
+        DynamicAttributes attributes = attributesFactory.build(environment, scopes);
+        Preconditions.checkArgument(attributes instanceof ContainerDynamicAttributes, "Snapshots are only supported for implementations based on ContainerDynamicAttributes. Got: " + attributes.getClass().getName());
+        return new SnapshotDynamicAttributes((ContainerDynamicAttributes)attributes, Paths.get(snapshotFile), writeDelayMs, environment.metrics());
+    }
+}
@@ -0,0 +1,126 @@
+/**
+ * Copyright 2014 Jordan Zimmerman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.soabase.core.features.attributes;
+
+import com.google.common.base.Objects;
+
+abstract class StandardAttributeHandle<T> implements AttributeHandle<T>
+{
+    private final String key;
+    private final T defaultValue;
+    private volatile T value;
+
+    StandardAttributeHandle(String key, T defaultValue)
+    {
+        this.key = key;
+        this.defaultValue = defaultValue;
+        value = defaultValue;
+    }
+
+    @Override
+    public String getKey()
+    {
+        return key;
+    }
+
+    @Override
+    public T get()
+    {
+        return value;
+    }
+
+    boolean isSameHandle(StandardAttributeHandle<?> handle)
+    {
+        return (getClass() == handle.getClass()) && key.equals(handle.key) && Objects.equal(defaultValue, handle.defaultValue);
+    }
+
+    void update(ResolvedAttribute attribute)
+    {
+        value = (attribute != null) ? convert(attribute, defaultValue) : defaultValue;
+    }
+
+    protected abstract T convert(ResolvedAttribute attribute, T defaultValue);
+
+    static class StringHandle extends StandardAttributeHandle<String>
+    {
+        StringHandle(String key, String defaultValue)
+        {
+            super(key, defaultValue);
+        }
+
+        @Override
+        protected String convert(ResolvedAttribute attribute, String defaultValue)
+        {
+            return attribute.stringValue;
+        }
+    }
+
+    static class BooleanHandle extends StandardAttributeHandle<Boolean>
+    {
+        BooleanHandle(String key, Boolean defaultValue)
+        {
+            super(key, defaultValue);
+        }
+
+        @Override
+        protected Boolean convert(ResolvedAttribute attribute, Boolean defaultValue)
+        {
+            return attribute.asIntegral(defaultValue ? 1 : 0).intValue() != 0;
+        }
+    }
+
+    static class IntHandle extends StandardAttributeHandle<Integer>
+    {
+        IntHandle(String key, Integer defaultValue)
+        {
+            super(key, defaultValue);
+        }
+
+        @Override
+        protected Integer convert(ResolvedAttribute attribute, Integer defaultValue)
+        {
+            return attribute.asIntegral(defaultValue).intValue();
+        }
+    }
+
+    static class LongHandle extends StandardAttributeHandle<Long>
+    {
+        LongHandle(String key, Long defaultValue)
+        {
+            super(key, defaultValue);
+        }
+
+        @Override
+        protected Long convert(ResolvedAttribute attribute, Long defaultValue)
+        {
+            return attribute.asIntegral(defaultValue).longValue();
+        }
+    }
+
+    static class DoubleHandle extends StandardAttributeHandle<Double>
+    {
+        DoubleHandle(String key, Double defaultValue)
+        {
+            super(key, defaultValue);
+        }
+
+        @Override
+        protected Double convert(ResolvedAttribute attribute, Double defaultValue)
+        {
+            return attribute.asNumber(defaultValue).doubleValue();
+        }
+    }
+}
@@ -15,30 +15,102 @@
  */
 package io.soabase.core.features.attributes;
 
-import com.google.common.base.Function;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.base.Objects;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import io.dropwizard.jackson.Jackson;
 import io.soabase.core.listening.Listenable;
 import io.soabase.core.listening.ListenerContainer;
+import io.soabase.core.listening.ListenerDispatcher;
+import io.soabase.core.listening.ListenerEventHandler;
 import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 public class StandardAttributesContainer
 {
     public static final String DEFAULT_SCOPE = "";
+    public static final int DEFAULT_CHANGE_BUFFER_SIZE = 1000;
 
     private final Map<String, Object> overrides = Maps.newConcurrentMap();
     private final Map<AttributeKey, Object> attributes = Maps.newConcurrentMap();
-    private final ListenerContainer<DynamicAttributeListener> listenable = new ListenerContainer<>();
+    // a slow listener must not hold up refreshes - each listener gets its own bounded queue by default
+    private final ListenerContainer<DynamicAttributeListener> listenable = new ListenerContainer<>(ListenerDispatcher.getDefault(), ListenerDispatcher.DEFAULT_QUEUE_CAPACITY);
+    private final ListenerContainer<DynamicAttributeBatchListener> batchListenable = new ListenerContainer<>(ListenerDispatcher.getDefault(), ListenerDispatcher.DEFAULT_QUEUE_CAPACITY);
+    private final ListenerEventHandler<DynamicAttributeBatchListener, AttributeChangeSet> batchEventHandler = new ListenerEventHandler<DynamicAttributeBatchListener, AttributeChangeSet>()
+    {
+        @Override
+        public void deliver(DynamicAttributeBatchListener listener, AttributeChangeSet changes)
+        {
+            if ( !changes.isEmpty() )   // coalescing can cancel out all changes
+            {
+                listener.attributesChanged(changes);
+            }
+        }
+
+        @Override
+        public AttributeChangeSet coalesce(AttributeChangeSet earlier, AttributeChangeSet later)
+        {
+            return AttributeChangeSet.coalesce(earlier, later);
+        }
+
+        @Override
+        public AttributeChangeSet resync()
+        {
+            return buildResyncChangeSet();
+        }
+    };
+    private final ListenerEventHandler<DynamicAttributeListener, AttributeChangeSet> eventHandler = new ListenerEventHandler<DynamicAttributeListener, AttributeChangeSet>()
+    {
+        @Override
+        public void deliver(DynamicAttributeListener listener, AttributeChangeSet changes)
+        {
+            new DynamicAttributeBatchListenerAdapter(listener).attributesChanged(changes);
+        }
+
+        @Override
+        public AttributeChangeSet coalesce(AttributeChangeSet earlier, AttributeChangeSet later)
+        {
+            return AttributeChangeSet.coalesce(earlier, later);
+        }
+
+        @Override
+        public AttributeChangeSet resync()
+        {
+            return buildResyncChangeSet();
+        }
+    };
     private final List<String> scopes;
+    private final Set<String> instanceScopes;
+    private final AttributeReadTracker readTracker = new AttributeReadTracker(this);
+    private final Map<String, Integer> scopePriorities;
     private final AtomicBoolean firstTime = new AtomicBoolean(true);
+    private volatile Map<String, String> systemProperties = snapshotSystemProperties();
+    private volatile StandardAttributesSnapshot snapshot = null;    // set in constructor
+    private final String containerId = Long.toHexString(ThreadLocalRandom.current().nextLong());    // keeps ETags from matching across restarts
+    private volatile ObjectMapper objectMapper = Jackson.newObjectMapper();
+    private volatile long lastUpdateTime = 0;
+    private final Map<String, List<StandardAttributeHandle<?>>> handles = Maps.newHashMap(); // guarded by this
+    private final AttributeChange[] changeBuffer;   // guarded by this
+    private int changeBufferHead = 0;   // guarded by this
+    private int changeBufferCount = 0;  // guarded by this
+    private long version = 0;   // guarded by this
+    private long evictedVersion = 0;    // guarded by this
+    private List<SettableFuture<Long>> versionWaiters = Lists.newArrayList();   // guarded by this
 
     public static DynamicAttributes wrapAttributes(DynamicAttributes attributes, boolean hasAdminKey)
     {
@@ -56,127 +128,282 @@ public class StandardAttributesContainer
 
     public StandardAttributesContainer(List<String> scopes)
     {
+        this(scopes, DEFAULT_CHANGE_BUFFER_SIZE);
+    }
+
+    /**
+     * @param scopes scopes to resolve
+     * @param changeBufferSize number of recent changes to keep for {@link #getChangesSince(long)}
+     */
+    public StandardAttributesContainer(List<String> scopes, int changeBufferSize)
+    {
+        Preconditions.checkArgument(changeBufferSize > 0, "changeBufferSize must be greater than 0");
+        changeBuffer = new AttributeChange[changeBufferSize];
         scopes = Preconditions.checkNotNull(scopes, "scopes cannot be null");
         ImmutableList.Builder<String> builder = ImmutableList.builder();
         builder.addAll(scopes);
         builder.add(DEFAULT_SCOPE);
         this.scopes = builder.build();
+        instanceScopes = ImmutableSet.copyOf(this.scopes);
+
+        Map<String, Integer> priorities = Maps.newHashMap();
+        for ( int i = this.scopes.size() - 1; i >= 0; --i )
+        {
+            priorities.put(this.scopes.get(i), i);    // iterate backwards so that the first occurrence of a scope wins
+        }
+        scopePriorities = ImmutableMap.copyOf(priorities);
+
+        synchronized(this)
+        {
+            publish();
+        }
     }
 
+    /**
+     * Replace all attributes with the given attributes. Listeners are notified for
+     * additions, changes and removals.
+     *
+     * @param newAttributes the complete set of attributes
+     */
     public void reset(Map<AttributeKey, Object> newAttributes)
     {
-        final Set<AttributeKey> deletingKeys = Sets.newHashSet(attributes.keySet());
-        final boolean notifyListeners = !firstTime.compareAndSet(true, false);
+        internalApplyChanges(newAttributes, null);
+    }
 
-        for ( Map.Entry<AttributeKey, Object> entry : newAttributes.entrySet() )
+    /**
+     * Apply an incremental change to the attributes. Attributes not mentioned are left as they are.
+     * Listeners are notified for additions, changes and removals.
+     *
+     * @param upserts attributes that were added or changed
+     * @param deletes attributes that were removed
+     */
+    public void applyChanges(Map<AttributeKey, Object> upserts, Collection<AttributeKey> deletes)
+    {
+        internalApplyChanges(upserts, Preconditions.checkNotNull(deletes, "deletes cannot be null"));
+    }
+
+    private void internalApplyChanges(Map<AttributeKey, Object> newAttributes, Collection<AttributeKey> deletes)
+    {
+        final List<AttributeKey> addedKeys = Lists.newArrayList();
+        final List<AttributeKey> changedKeys = Lists.newArrayList();
+        final List<AttributeValueChange> changedValues = Lists.newArrayList();
+        final List<AttributeValueChange> removedValues = Lists.newArrayList();
+        final Set<AttributeKey> deletingKeys;
+        final boolean notifyListeners;
+        final List<SettableFuture<Long>> waiters;
+        final long newVersion;
+        synchronized(this)
         {
-            final AttributeKey attributeKey = entry.getKey();
-            Object value = entry.getValue();
-            deletingKeys.remove(attributeKey);
+            if ( deletes != null )
+            {
+                deletingKeys = Sets.newHashSet();
+                for ( AttributeKey attributeKey : deletes )
+                {
+                    if ( attributes.containsKey(attributeKey) )
+                    {
+                        deletingKeys.add(attributeKey);
+                    }
+                }
+            }
+            else
+            {
+                deletingKeys = Sets.newHashSet(attributes.keySet());
+            }
+            notifyListeners = !firstTime.compareAndSet(true, false);
+            lastUpdateTime = Math.max(System.currentTimeMillis(), lastUpdateTime + 1);  // strictly increasing so that callers can detect any update
 
-            final boolean isNew = !attributes.containsKey(attributeKey);
-            if ( isNew || !Objects.equal(value, attributes.get(attributeKey)) )
+            for ( Map.Entry<AttributeKey, Object> entry : newAttributes.entrySet() )
             {
-                attributes.put(attributeKey, value);
+                AttributeKey attributeKey = entry.getKey();
+                Object value = entry.getValue();
+                deletingKeys.remove(attributeKey);
 
-                Function<DynamicAttributeListener, Void> notify = new Function<DynamicAttributeListener, Void>()
+                boolean isNew = !attributes.containsKey(attributeKey);
+                Object oldValue = attributes.get(attributeKey);
+                if ( isNew || !Objects.equal(value, oldValue) )
                 {
-                    @Override
-                    public Void apply(DynamicAttributeListener listener)
+                    attributes.put(attributeKey, value);
+                    if ( isNew )
                     {
-                        if ( isNew )
-                        {
-                            listener.attributeAdded(attributeKey.getKey(), attributeKey.getScope());
-                        }
-                        else
-                        {
-                            listener.attributeChanged(attributeKey.getKey(), attributeKey.getScope());
-                        }
-                        return null;
+                        addedKeys.add(attributeKey);
                     }
-                };
-                if ( notifyListeners )
+                    else
+                    {
+                        changedKeys.add(attributeKey);
+                        changedValues.add(new AttributeValueChange(attributeKey.getKey(), attributeKey.getScope(), oldValue, value));
+                    }
+                }
+            }
+
+            for ( AttributeKey attributeKey : deletingKeys )
+            {
+                Object oldValue = attributes.remove(attributeKey);
+                removedValues.add(new AttributeValueChange(attributeKey.getKey(), attributeKey.getScope(), oldValue, null));
+            }
+
+            if ( (addedKeys.size() > 0) || (changedKeys.size() > 0) || (deletingKeys.size() > 0) )
+            {
+                newVersion = ++version;
+                for ( AttributeKey attributeKey : addedKeys )
+                {
+                    recordChange(attributeKey, attributes.get(attributeKey));
+                }
+                for ( AttributeKey attributeKey : changedKeys )
                 {
-                    listenable.forEach(notify);
+                    recordChange(attributeKey, attributes.get(attributeKey));
                 }
+                for ( AttributeKey attributeKey : deletingKeys )
+                {
+                    recordChange(attributeKey, null);
+                }
+                waiters = versionWaiters;
+                versionWaiters = Lists.newArrayList();
+
+                publish();
+            }
+            else
+            {
+                newVersion = version;
+                waiters = ImmutableList.of();
             }
         }
 
-        for ( final AttributeKey attributeKey : deletingKeys )
+        for ( SettableFuture<Long> waiter : waiters )
+        {
+            waiter.set(newVersion);
+        }
+
+        if ( notifyListeners )
         {
-            attributes.remove(attributeKey);
-            if ( notifyListeners )
+            List<AttributeValueChange> addedValues = Lists.newArrayList();
+            for ( AttributeKey attributeKey : addedKeys )
             {
-                Function<DynamicAttributeListener, Void> notify = new Function<DynamicAttributeListener, Void>()
-                {
-                    @Override
-                    public Void apply(DynamicAttributeListener listener)
-                    {
-                        listener.attributeRemoved(attributeKey.getKey(), attributeKey.getScope());
-                        return null;
-                    }
-                };
-                listenable.forEach(notify);
+                addedValues.add(new AttributeValueChange(attributeKey.getKey(), attributeKey.getScope(), null, newAttributes.get(attributeKey)));
+            }
+            AttributeChangeSet changes = new AttributeChangeSet(addedValues, changedValues, removedValues);
+            if ( !changes.isEmpty() )
+            {
+                notifyListeners(changes, REFRESH_COALESCE_KEY);
             }
         }
     }
 
     public String getAttribute(String key, String defaultValue)
     {
-        Object value = overrides.get(key);
-        if ( value == null )
-        {
-            value = System.getProperty(key, null);
-            if ( value == null )
-            {
-                value = getValue(key);
-            }
-        }
-        return (value != null) ? value.toString() : defaultValue;
+        return snapshot.getAttribute(key, defaultValue);
     }
 
     public boolean getAttributeBoolean(String key, boolean defaultValue)
     {
-        Number value = getOverrideNumber(key);
-        if ( value != null )
-        {
-            return value.intValue() != 0;
-        }
-
-        return to(getValue(key), defaultValue ? 1 : 0).intValue() != 0;
+        return snapshot.getAttributeBoolean(key, defaultValue);
     }
 
     public int getAttributeInt(String key, int defaultValue)
     {
-        Number value = getOverrideNumber(key);
-        if ( value != null )
-        {
-            return value.intValue();
-        }
-
-        return to(getValue(key), defaultValue).intValue();
+        return snapshot.getAttributeInt(key, defaultValue);
     }
 
     public long getAttributeLong(String key, long defaultValue)
     {
-        Number value = getOverrideNumber(key);
-        if ( value != null )
+        return snapshot.getAttributeLong(key, defaultValue);
+    }
+
+    public double getAttributeDouble(String key, double defaultValue)
+    {
+        return snapshot.getAttributeDouble(key, defaultValue);
+    }
+
+    public Map<String, String> getAttributesWithPrefix(String prefix)
+    {
+        return snapshot.getAttributesWithPrefix(prefix);
+    }
+
+    public <T> T getAttributeObject(String key, Class<T> clazz, T defaultValue)
+    {
+        return snapshot.getAttributeObject(key, clazz, defaultValue);
+    }
+
+    /**
+     * Change the mapper used by {@link #getAttributeObject(String, Class, Object)}. The default is a
+     * standard Dropwizard mapper.
+     *
+     * @param objectMapper mapper
+     */
+    public void setObjectMapper(ObjectMapper objectMapper)
+    {
+        synchronized(this)
         {
-            return value.longValue();
+            this.objectMapper = Preconditions.checkNotNull(objectMapper, "objectMapper cannot be null");
+            publish();
         }
+    }
+
+    public boolean isEnabled(String flag, String userKey)
+    {
+        return snapshot.isEnabled(flag, userKey);
+    }
 
-        return to(getValue(key), defaultValue).longValue();
+    /**
+     * @return tracker for attribute reads. Tracking is disabled by default.
+     */
+    public AttributeReadTracker getReadTracker()
+    {
+        return readTracker;
     }
 
-    public double getAttributeDouble(String key, double defaultValue)
+    /**
+     * Return evaluation counts for attributes that have been used as feature flags
+     *
+     * @return stats sorted by flag
+     */
+    public List<FeatureFlagStats> getFeatureFlagStats()
     {
-        Number value = getOverrideNumber(key);
-        if ( value != null )
+        StandardAttributesSnapshot localSnapshot = snapshot;
+        List<FeatureFlagStats> stats = Lists.newArrayList();
+        for ( String key : Sets.newTreeSet(Sets.union(localSnapshot.resolved.keySet(), localSnapshot.systemProperties.keySet())) )
         {
-            return value.doubleValue();
+            FeatureFlag featureFlag = localSnapshot.get(key).compiledFeatureFlag();
+            if ( featureFlag != null )
+            {
+                stats.add(featureFlag.getStats(key));
+            }
         }
+        return stats;
+    }
+
+    /**
+     * Return an immutable view of the current attributes. This is a single volatile read - nothing is copied.
+     *
+     * @return snapshot
+     */
+    public AttributesSnapshot snapshot()
+    {
+        return snapshot;
+    }
+
+    public AttributeHandle<String> stringHandle(String key, String defaultValue)
+    {
+        return registerHandle(new StandardAttributeHandle.StringHandle(key, defaultValue));
+    }
+
+    public AttributeHandle<Boolean> booleanHandle(String key, boolean defaultValue)
+    {
+        return registerHandle(new StandardAttributeHandle.BooleanHandle(key, defaultValue));
+    }
+
+    public AttributeHandle<Integer> intHandle(String key, int defaultValue)
+    {
+        return registerHandle(new StandardAttributeHandle.IntHandle(key, defaultValue));
+    }
 
-        return to(getValue(key), defaultValue).doubleValue();
+    public AttributeHandle<Long> longHandle(String key, long defaultValue)
+    {
+        return registerHandle(new StandardAttributeHandle.LongHandle(key, defaultValue));
+    }
+
+    public AttributeHandle<Double> doubleHandle(String key, double defaultValue)
+    {
+        return registerHandle(new StandardAttributeHandle.DoubleHandle(key, defaultValue));
     }
 
     public void temporaryOverride(String key, boolean value)
@@ -204,23 +431,70 @@ public class StandardAttributesContainer
         internalTemporaryOverride(key, value);
     }
 
-    public boolean removeOverride(final String key)
+    public boolean removeOverride(String key)
     {
-        boolean hadOverride = (overrides.remove(key) != null);
-        if ( hadOverride )
+        Object oldValue;
+        synchronized(this)
         {
-            Function<DynamicAttributeListener, Void> notify = new Function<DynamicAttributeListener, Void>()
+            oldValue = overrides.remove(key);
+            if ( oldValue != null )
             {
-                @Override
-                public Void apply(DynamicAttributeListener listener)
+                publish();
+            }
+        }
+
+        if ( oldValue != null )
+        {
+            List<AttributeValueChange> removed = ImmutableList.of(new AttributeValueChange(key, null, oldValue, null));
+            notifyListeners(new AttributeChangeSet(ImmutableList.<AttributeValueChange>of(), ImmutableList.<AttributeValueChange>of(), removed), new OverrideKey(key));
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * System properties act as overrides. They are captured when the container is created
+     * so that reads don't contend on the system {@link java.util.Properties} monitor. Call this method to re-capture
+     * the current system properties. Listeners are notified as with other overrides.
+     */
+    public void refreshSystemProperties()
+    {
+        List<AttributeValueChange> added = Lists.newArrayList();
+        List<AttributeValueChange> changed = Lists.newArrayList();
+        List<AttributeValueChange> removed = Lists.newArrayList();
+        synchronized(this)
+        {
+            Map<String, String> oldProperties = systemProperties;
+            Map<String, String> newProperties = snapshotSystemProperties();
+            for ( Map.Entry<String, String> entry : newProperties.entrySet() )
+            {
+                String oldValue = oldProperties.get(entry.getKey());
+                if ( oldValue == null )
+                {
+                    added.add(new AttributeValueChange(entry.getKey(), null, null, entry.getValue()));
+                }
+                else if ( !entry.getValue().equals(oldValue) )
                 {
-                    listener.overrideRemoved(key);
-                    return null;
+                    changed.add(new AttributeValueChange(entry.getKey(), null, oldValue, entry.getValue()));
                 }
-            };
-            listenable.forEach(notify);
+            }
+            for ( String key : Sets.difference(oldProperties.keySet(), newProperties.keySet()) )
+            {
+                removed.add(new AttributeValueChange(key, null, oldProperties.get(key), null));
+            }
+
+            if ( (added.size() > 0) || (changed.size() > 0) || (removed.size() > 0) )
+            {
+                systemProperties = newProperties;
+                publish();
+            }
+        }
+
+        AttributeChangeSet changes = new AttributeChangeSet(added, changed, removed);
+        if ( !changes.isEmpty() )
+        {
+            notifyListeners(changes, SYSTEM_PROPERTIES_COALESCE_KEY);
         }
-        return hadOverride;
     }
 
     public Collection<String> getKeys()
@@ -233,73 +507,335 @@ public class StandardAttributesContainer
         return attributes.containsKey(key);
     }
 
+    /**
+     * @return keys of the current attributes (not including overrides)
+     */
+    Set<String> getStoredKeys()
+    {
+        Set<String> keys = Sets.newHashSet();
+        for ( Map.Entry<String, ResolvedAttribute> entry : snapshot.resolved.entrySet() )
+        {
+            if ( !entry.getValue().isOverride )
+            {
+                keys.add(entry.getKey());
+            }
+        }
+        return keys;
+    }
+
     public Map<AttributeKey, Object> getAll()
     {
         return Maps.newHashMap(attributes);
     }
 
+    /**
+     * Return the time that attributes were last set via {@link #reset(Map)} or {@link #applyChanges(Map, Collection)}
+     * whether or not anything changed. i.e. the last time the backing store delivered attributes.
+     *
+     * @return time in epoch milliseconds or 0 if never
+     */
+    public long getLastUpdateTime()
+    {
+        return lastUpdateTime;
+    }
+
     public Listenable<DynamicAttributeListener> getListenable()
     {
         return listenable;
     }
 
-    private void internalTemporaryOverride(final String key, Object value)
+    /**
+     * Batch listeners receive all of the changes from a refresh or override in a single call
+     *
+     * @return batch listenable
+     */
+    public Listenable<DynamicAttributeBatchListener> getBatchListenable()
+    {
+        return batchListenable;
+    }
+
+    /**
+     * By default, each listener added without an executor gets its own bounded queue on the default
+     * {@link ListenerDispatcher}. Pass false to call listeners added afterwards directly from the thread that
+     * changes the attributes.
+     *
+     * @param queueListeners true to queue
+     */
+    public void setQueueListeners(boolean queueListeners)
+    {
+        listenable.setQueueListeners(queueListeners);
+        batchListenable.setQueueListeners(queueListeners);
+    }
+
+    /**
+     * Return the current version. The version is incremented each time {@link #reset(Map)} or {@link #applyChanges(Map, Collection)}
+     * changes the attributes. Overrides do not change the version.
+     *
+     * @return version
+     */
+    public synchronized long getVersion()
     {
-        overrides.put(key, value);
-        Function<DynamicAttributeListener, Void> notify = new Function<DynamicAttributeListener, Void>()
+        return version;
+    }
+
+    /**
+     * Return the changes made after the given version. If the given version is older than the changes that are
+     * kept (or is newer than the current version), all attributes are returned instead.
+     *
+     * @param sinceVersion version previously returned by {@link AttributeChanges#getVersion()} or 0
+     * @return changes
+     */
+    public synchronized AttributeChanges getChangesSince(long sinceVersion)
+    {
+        List<AttributeChange> changes = Lists.newArrayList();
+        if ( (sinceVersion < evictedVersion) || (sinceVersion > version) )
+        {
+            for ( Map.Entry<AttributeKey, Object> entry : attributes.entrySet() )
+            {
+                changes.add(new AttributeChange(entry.getKey().getKey(), entry.getKey().getScope(), String.valueOf(entry.getValue()), version));
+            }
+            return new AttributeChanges(version, true, changes);
+        }
+
+        int index = changeBufferHead - changeBufferCount;
+        for ( int i = 0; i < changeBufferCount; ++i )
         {
-            @Override
-            public Void apply(DynamicAttributeListener listener)
+            AttributeChange change = changeBuffer[(index + i + changeBuffer.length) % changeBuffer.length];
+            if ( change.getVersion() > sinceVersion )
             {
-                listener.overrideAdded(key);
-                return null;
+                changes.add(change);
             }
-        };
-        listenable.forEach(notify);
+        }
+        return new AttributeChanges(version, false, changes);
     }
 
-    private Object getValue(String key)
+    /**
+     * Return a future that completes with the new version as soon as the version is greater than the given version. If it already is,
+     * the returned future is already complete. Cancel the future if you no longer need it.
+     *
+     * @param sinceVersion version previously returned by {@link AttributeChanges#getVersion()} or 0
+     * @return future
+     */
+    public synchronized ListenableFuture<Long> waitForChange(long sinceVersion)
     {
-        for ( String scope : scopes )
+        if ( version != sinceVersion )
         {
-            Object value = attributes.get(new AttributeKey(key, scope));
-            if ( value != null )
+            return Futures.immediateFuture(version);
+        }
+
+        Iterator<SettableFuture<Long>> iterator = versionWaiters.iterator();
+        while ( iterator.hasNext() )
+        {
+            if ( iterator.next().isDone() )
+            {
+                iterator.remove();  // cancelled
+            }
+        }
+        SettableFuture<Long> future = SettableFuture.create();
+        versionWaiters.add(future);
+        return future;
+    }
+
+    private void internalTemporaryOverride(String key, Object value)
+    {
+        Object oldValue;
+        synchronized(this)
+        {
+            oldValue = overrides.put(key, value);
+            publish();
+        }
+
+        List<AttributeValueChange> change = ImmutableList.of(new AttributeValueChange(key, null, oldValue, value));
+        List<AttributeValueChange> none = ImmutableList.of();
+        notifyListeners((oldValue == null) ? new AttributeChangeSet(change, none, none) : new AttributeChangeSet(none, change, none), new OverrideKey(key));
+    }
+
+    // changes that haven't been delivered to a listener yet are combined with newer changes with the same key
+    private static final Object REFRESH_COALESCE_KEY = new Object();
+    private static final Object SYSTEM_PROPERTIES_COALESCE_KEY = new Object();
+
+    private static class OverrideKey
+    {
+        private final String key;
+
+        private OverrideKey(String key)
+        {
+            this.key = key;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            return (o instanceof OverrideKey) && key.equals(((OverrideKey)o).key);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return key.hashCode();
+        }
+    }
+
+    private void notifyListeners(final AttributeChangeSet changes, Object coalesceKey)
+    {
+        batchListenable.forEach(changes, coalesceKey, batchEventHandler);
+        listenable.forEach(changes, coalesceKey, eventHandler);
+    }
+
+    private AttributeChangeSet buildResyncChangeSet()
+    {
+        List<AttributeValueChange> changed = Lists.newArrayList();
+        synchronized(this)
+        {
+            for ( Map.Entry<AttributeKey, Object> entry : attributes.entrySet() )
+            {
+                changed.add(new AttributeValueChange(entry.getKey().getKey(), entry.getKey().getScope(), entry.getValue(), entry.getValue()));
+            }
+            for ( Map.Entry<String, Object> entry : overrides.entrySet() )
+            {
+                changed.add(new AttributeValueChange(entry.getKey(), null, entry.getValue(), entry.getValue()));
+            }
+        }
+        List<AttributeValueChange> none = ImmutableList.of();
+        return new AttributeChangeSet(none, changed, none, true);
+    }
+
+    private synchronized <T> AttributeHandle<T> registerHandle(StandardAttributeHandle<T> handle)
+    {
+        List<StandardAttributeHandle<?>> keyHandles = handles.get(handle.getKey());
+        if ( keyHandles == null )
+        {
+            keyHandles = Lists.newArrayList();
+            handles.put(handle.getKey(), keyHandles);
+        }
+        for ( StandardAttributeHandle<?> existing : keyHandles )
+        {
+            if ( existing.isSameHandle(handle) )
             {
-                return value;
+                @SuppressWarnings("unchecked")
+                AttributeHandle<T> existingHandle = (AttributeHandle<T>)existing;
+                return existingHandle;
             }
         }
 
-        return null;
+        handle.update(snapshot.get(handle.getKey()));
+        keyHandles.add(handle);
+        return handle;
     }
 
-    private Number getOverrideNumber(String key)
+    // must be called while synchronized
+    private void recordChange(AttributeKey attributeKey, Object value)
     {
-        Object value = overrides.get(key);
-        if ( value == null )
+        AttributeChange evicted = changeBuffer[changeBufferHead];
+        if ( evicted != null )
         {
-            value = System.getProperty(key, null);
+            evictedVersion = Math.max(evictedVersion, evicted.getVersion());
         }
-        return (value != null) ? to(value, 0) : null;
+        changeBuffer[changeBufferHead] = new AttributeChange(attributeKey.getKey(), attributeKey.getScope(), (value != null) ? String.valueOf(value) : null, version);
+        changeBufferHead = (changeBufferHead + 1) % changeBuffer.length;
+        changeBufferCount = Math.min(changeBufferCount + 1, changeBuffer.length);
     }
 
-    private static Number to(Object value, Number defaultValue)
+    // must be called while synchronized
+    private void publish()
     {
-        if ( value == null )
+        Map<String, Integer> bestPriorities = Maps.newHashMap();
+        Map<String, Object> values = Maps.newHashMap();
+        for ( Map.Entry<AttributeKey, Object> entry : attributes.entrySet() )
+        {
+            Integer priority = scopePriorities.get(entry.getKey().getScope());
+            if ( (priority == null) || (entry.getValue() == null) )
+            {
+                continue;
+            }
+
+            String key = entry.getKey().getKey();
+            Integer bestPriority = bestPriorities.get(key);
+            if ( (bestPriority == null) || (priority < bestPriority) )
+            {
+                bestPriorities.put(key, priority);
+                values.put(key, entry.getValue());
+            }
+        }
+
+        StandardAttributesSnapshot oldSnapshot = snapshot;
+        List<String> addedKeys = Lists.newArrayList();
+        ImmutableMap.Builder<String, ResolvedAttribute> builder = ImmutableMap.builder();
+        ImmutableMap.Builder<String, ResolvedAttribute> systemPropertiesBuilder = ImmutableMap.builder();
+        Map<String, String> localSystemProperties = systemProperties;
+        for ( Map.Entry<String, Object> entry : values.entrySet() )
         {
-            return defaultValue;
+            if ( !overrides.containsKey(entry.getKey()) && !localSystemProperties.containsKey(entry.getKey()) )
+            {
+                builder.put(entry.getKey(), resolveEnumerated(oldSnapshot, entry.getKey(), entry.getValue(), false, addedKeys));
+            }
         }
-        if ( value instanceof Number )
+        for ( Map.Entry<String, String> entry : localSystemProperties.entrySet() )
         {
-            return (Number)value;
+            if ( !overrides.containsKey(entry.getKey()) )
+            {
+                // system properties are only enumerated (prefix views, admin endpoints) when they override an attribute
+                if ( values.containsKey(entry.getKey()) )
+                {
+                    builder.put(entry.getKey(), resolveEnumerated(oldSnapshot, entry.getKey(), entry.getValue(), true, addedKeys));
+                }
+                else
+                {
+                    systemPropertiesBuilder.put(entry.getKey(), resolve(oldSnapshot, entry.getKey(), entry.getValue(), true));
+                }
+            }
+        }
+        for ( Map.Entry<String, Object> entry : overrides.entrySet() )
+        {
+            builder.put(entry.getKey(), resolveEnumerated(oldSnapshot, entry.getKey(), entry.getValue(), true, addedKeys));
+        }
+        StandardAttributesSnapshot newSnapshot = new StandardAttributesSnapshot(builder.build(), systemPropertiesBuilder.build(), version, containerId, instanceScopes, readTracker, objectMapper, oldSnapshot, addedKeys);
+        snapshot = newSnapshot;
+
+        // resolved attributes are re-used when unchanged so an identity check finds the handles that need updating
+        for ( Map.Entry<String, List<StandardAttributeHandle<?>>> entry : handles.entrySet() )
+        {
+            ResolvedAttribute attribute = newSnapshot.get(entry.getKey());
+            if ( (oldSnapshot == null) || (attribute != oldSnapshot.get(entry.getKey())) )
+            {
+                for ( StandardAttributeHandle<?> handle : entry.getValue() )
+                {
+                    handle.update(attribute);
+                }
+            }
         }
-        try
+    }
+
+    private static ResolvedAttribute resolve(StandardAttributesSnapshot oldSnapshot, String key, Object value, boolean isOverride)
+    {
+        ResolvedAttribute attribute = (oldSnapshot != null) ? oldSnapshot.get(key) : null;
+        return ((attribute != null) && attribute.isSame(value, isOverride)) ? attribute : new ResolvedAttribute(value, isOverride);
+    }
+
+    // for attributes that are enumerated - the same lookup also finds the keys that are new to the sorted key index
+    private static ResolvedAttribute resolveEnumerated(StandardAttributesSnapshot oldSnapshot, String key, Object value, boolean isOverride, List<String> addedKeys)
+    {
+        ResolvedAttribute attribute = (oldSnapshot != null) ? oldSnapshot.resolved.get(key) : null;
+        if ( attribute == null )
         {
-            return Long.parseLong(String.valueOf(value));
+            addedKeys.add(key);
+            attribute = (oldSnapshot != null) ? oldSnapshot.systemProperties.get(key) : null;
         }
-        catch ( NumberFormatException e )
+        return ((attribute != null) && attribute.isSame(value, isOverride)) ? attribute : new ResolvedAttribute(value, isOverride);
+    }
+
+    private static Map<String, String> snapshotSystemProperties()
+    {
+        Properties properties = System.getProperties();
+        ImmutableMap.Builder<String, String> builder = ImmutableMap.builder();
+        for ( String name : properties.stringPropertyNames() )
         {
-            // ignore
+            String value = properties.getProperty(name);
+            if ( value != null )
+            {
+                builder.put(name, value);
+            }
         }
-        return defaultValue;
+        return builder.build();
     }
 }
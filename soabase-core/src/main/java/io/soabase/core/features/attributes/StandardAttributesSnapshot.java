@@ -0,0 +1,309 @@
+/**
+ * Copyright 2014 Jordan Zimmerman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.soabase.core.features.attributes;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.Lists;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+class StandardAttributesSnapshot implements AttributesSnapshot
+{
+    final Map<String, ResolvedAttribute> resolved;
+    final Map<String, ResolvedAttribute> systemProperties;  // only those that aren't in resolved - they're never enumerated
+    private final long version;
+    private final long generation;
+    private final String eTag;
+    private final String[] sortedKeys;
+    private final Set<String> instanceScopes;
+    private final AttributeReadTracker readTracker;
+    private final ObjectMapper objectMapper;
+
+    StandardAttributesSnapshot(Map<String, ResolvedAttribute> resolved, Map<String, ResolvedAttribute> systemProperties, long version, String containerId, Set<String> instanceScopes, AttributeReadTracker readTracker, ObjectMapper objectMapper, StandardAttributesSnapshot previous, List<String> addedKeys)
+    {
+        this.resolved = resolved;
+        this.systemProperties = systemProperties;
+        this.version = version;
+        generation = (previous != null) ? (previous.generation + 1) : 0;    // overrides publish a new snapshot without changing the version
+        eTag = containerId + "-" + version + "-" + generation;
+        this.instanceScopes = instanceScopes;
+        this.readTracker = readTracker;
+        this.objectMapper = objectMapper;
+
+        if ( previous == null )
+        {
+            sortedKeys = resolved.keySet().toArray(new String[resolved.size()]);
+            Arrays.sort(sortedKeys);
+        }
+        else
+        {
+            // every previous key that's still present plus the added keys
+            int removedCount = previous.sortedKeys.length + addedKeys.size() - resolved.size();
+            if ( addedKeys.isEmpty() && (removedCount == 0) )
+            {
+                sortedKeys = previous.sortedKeys;   // most changes are to values not keys
+            }
+            else
+            {
+                sortedKeys = mergeSortedKeys(previous.sortedKeys, addedKeys, (removedCount > 0) ? resolved : null);
+            }
+        }
+    }
+
+    @Override
+    public long getVersion()
+    {
+        return version;
+    }
+
+    @Override
+    public String getETag()
+    {
+        return eTag;
+    }
+
+    @Override
+    public String getAttribute(String key)
+    {
+        return getAttribute(key, null);
+    }
+
+    @Override
+    public String getAttribute(String key, String defaultValue)
+    {
+        ResolvedAttribute attribute = lookup(key);
+        return (attribute != null) ? attribute.stringValue : defaultValue;
+    }
+
+    @Override
+    public boolean getAttributeBoolean(String key)
+    {
+        return getAttributeBoolean(key, false);
+    }
+
+    @Override
+    public boolean getAttributeBoolean(String key, boolean defaultValue)
+    {
+        ResolvedAttribute attribute = lookup(key);
+        return (attribute != null) ? (attribute.asIntegral(defaultValue ? 1 : 0).intValue() != 0) : defaultValue;
+    }
+
+    @Override
+    public int getAttributeInt(String key)
+    {
+        return getAttributeInt(key, 0);
+    }
+
+    @Override
+    public int getAttributeInt(String key, int defaultValue)
+    {
+        ResolvedAttribute attribute = lookup(key);
+        return (attribute != null) ? attribute.asIntegral(defaultValue).intValue() : defaultValue;
+    }
+
+    @Override
+    public long getAttributeLong(String key)
+    {
+        return getAttributeLong(key, 0);
+    }
+
+    @Override
+    public long getAttributeLong(String key, long defaultValue)
+    {
+        ResolvedAttribute attribute = lookup(key);
+        return (attribute != null) ? attribute.asIntegral(defaultValue).longValue() : defaultValue;
+    }
+
+    @Override
+    public double getAttributeDouble(String key)
+    {
+        return getAttributeDouble(key, 0.0);
+    }
+
+    @Override
+    public double getAttributeDouble(String key, double defaultValue)
+    {
+        ResolvedAttribute attribute = lookup(key);
+        return (attribute != null) ? attribute.asNumber(defaultValue).doubleValue() : defaultValue;
+    }
+
+    @Override
+    public <T> T getAttributeObject(String key, Class<T> clazz)
+    {
+        return getAttributeObject(key, clazz, null);
+    }
+
+    @Override
+    public <T> T getAttributeObject(String key, Class<T> clazz, T defaultValue)
+    {
+        ResolvedAttribute attribute = lookup(key);
+        T object = (attribute != null) ? attribute.asObject(objectMapper, clazz) : null;
+        return (object != null) ? object : defaultValue;
+    }
+
+    @Override
+    public boolean isEnabled(String flag, String userKey)
+    {
+        ResolvedAttribute attribute = lookup(flag);
+        return (attribute != null) && attribute.featureFlag(instanceScopes).isEnabled(flag, userKey);
+    }
+
+    @Override
+    public Map<String, String> getAttributesWithPrefix(String prefix)
+    {
+        int from = -(Arrays.binarySearch(sortedKeys, prefix) + 1);
+        if ( from < 0 )
+        {
+            from = -(from + 1);    // exact match
+        }
+        int to = -(Arrays.binarySearch(sortedKeys, from, sortedKeys.length, prefix + Character.MAX_VALUE) + 1);
+        if ( to < 0 )
+        {
+            to = -(to + 1);
+        }
+        return new PrefixView(prefix, from, to);
+    }
+
+    /**
+     * Update the previous sorted keys with only the added/removed keys - no full re-sort
+     *
+     * @param previousKeys sorted keys of the previous snapshot
+     * @param addedKeys keys that weren't in the previous snapshot
+     * @param current if not null, previous keys that aren't in this map are dropped
+     * @return new sorted keys
+     */
+    private static String[] mergeSortedKeys(String[] previousKeys, List<String> addedKeys, Map<String, ?> current)
+    {
+        String[] added = addedKeys.toArray(new String[addedKeys.size()]);
+        Arrays.sort(added);
+
+        List<String> keys = Lists.newArrayListWithCapacity(previousKeys.length + added.length);
+        int addedIndex = 0;
+        for ( String key : previousKeys )
+        {
+            if ( (current != null) && !current.containsKey(key) )
+            {
+                continue;
+            }
+            while ( (addedIndex < added.length) && (added[addedIndex].compareTo(key) < 0) )
+            {
+                keys.add(added[addedIndex++]);
+            }
+            keys.add(key);
+        }
+        keys.addAll(Arrays.asList(added).subList(addedIndex, added.length));
+        return keys.toArray(new String[keys.size()]);
+    }
+
+    ResolvedAttribute get(String key)
+    {
+        ResolvedAttribute attribute = resolved.get(key);
+        return (attribute != null) ? attribute : systemProperties.get(key);
+    }
+
+    private ResolvedAttribute lookup(String key)
+    {
+        ResolvedAttribute attribute = get(key);
+        readTracker.record(key, attribute != null);
+        return attribute;
+    }
+
+    /**
+     * Read-only view of a range of the sorted keys. Nothing is copied.
+     */
+    private class PrefixView extends AbstractMap<String, String>
+    {
+        private final String prefix;
+        private final int from;
+        private final int to;
+
+        private PrefixView(String prefix, int from, int to)
+        {
+            this.prefix = prefix;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public int size()
+        {
+            return to - from;
+        }
+
+        @Override
+        public boolean containsKey(Object key)
+        {
+            return (key instanceof String) && ((String)key).startsWith(prefix) && resolved.containsKey(key);
+        }
+
+        @Override
+        public String get(Object key)
+        {
+            return containsKey(key) ? resolved.get(key).stringValue : null;
+        }
+
+        @Override
+        public Set<Entry<String, String>> entrySet()
+        {
+            return new AbstractSet<Entry<String, String>>()
+            {
+                @Override
+                public int size()
+                {
+                    return to - from;
+                }
+
+                @Override
+                public Iterator<Entry<String, String>> iterator()
+                {
+                    return new Iterator<Entry<String, String>>()
+                    {
+                        private int index = from;
+
+                        @Override
+                        public boolean hasNext()
+                        {
+                            return index < to;
+                        }
+
+                        @Override
+                        public Entry<String, String> next()
+                        {
+                            if ( index >= to )
+                            {
+                                throw new NoSuchElementException();
+                            }
+                            String key = sortedKeys[index++];
+                            return new SimpleImmutableEntry<>(key, resolved.get(key).stringValue);
+                        }
+
+                        @Override
+                        public void remove()
+                        {
+                            throw new UnsupportedOperationException();
+                        }
+                    };
+                }
+            };
+        }
+    }
+}
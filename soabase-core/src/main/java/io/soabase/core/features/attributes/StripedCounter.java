@@ -0,0 +1,47 @@
+/**
+ * Copyright 2014 Jordan Zimmerman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.soabase.core.features.attributes;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter that spreads increments over several cells so that threads don't contend
+ * on a single value. Cells are padded so that they are on different cache lines.
+ */
+class StripedCounter
+{
+    private static final int PADDING = 8;  // 8 longs = 64 bytes
+    private static final int STRIPES = Math.min(Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors()) * 2), 16);
+    private static final int MASK = STRIPES - 1;
+
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+    void add(long amount)
+    {
+        int stripe = (int)Thread.currentThread().getId() & MASK;
+        cells.addAndGet(stripe * PADDING, amount);
+    }
+
+    long get()
+    {
+        long sum = 0;
+        for ( int i = 0; i < STRIPES; ++i )
+        {
+            sum += cells.get(i * PADDING);
+        }
+        return sum;
+    }
+}
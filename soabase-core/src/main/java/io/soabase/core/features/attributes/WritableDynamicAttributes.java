@@ -15,6 +15,8 @@
  */
 package io.soabase.core.features.attributes;
 
+import com.google.common.util.concurrent.ListenableFuture;
+import java.util.Collection;
 import java.util.Map;
 
 public interface WritableDynamicAttributes extends DynamicAttributes
@@ -23,5 +25,46 @@ public interface WritableDynamicAttributes extends DynamicAttributes
 
     public void remove(AttributeKey key);
 
+    /**
+     * Add/update the given attribute without waiting for the write. Implementations may combine
+     * concurrent async writes into a single operation. Implementations without an asynchronous write
+     * path write synchronously and return a completed future.
+     *
+     * @param key key
+     * @param value value
+     * @return future that completes when the write is committed. Its value is always <code>null</code>
+     */
+    public ListenableFuture<Void> putAsync(AttributeKey key, Object value);
+
+    /**
+     * Remove the given attribute without waiting for the write. See {@link #putAsync(AttributeKey, Object)}
+     *
+     * @param key key
+     * @return future that completes when the write is committed. Its value is always <code>null</code>
+     */
+    public ListenableFuture<Void> removeAsync(AttributeKey key);
+
+    /**
+     * Add/update all of the given attributes as a single operation. Implementations should
+     * apply the change atomically where the backing store allows it and refresh only once.
+     *
+     * @param attributes attributes to add/update
+     */
+    public void putAll(Map<AttributeKey, Object> attributes);
+
+    /**
+     * Remove all of the given attributes as a single operation. Implementations should
+     * apply the change atomically where the backing store allows it and refresh only once.
+     *
+     * @param keys attributes to remove
+     */
+    public void removeAll(Collection<AttributeKey> keys);
+
+    /**
+     * Return every attribute in the backing store - including attributes in scopes
+     * that this instance doesn't use. This is meant for administration and may be expensive.
+     *
+     * @return all attributes
+     */
     public Map<AttributeKey, Object> getAll();
 }
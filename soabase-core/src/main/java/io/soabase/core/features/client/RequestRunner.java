@@ -58,6 +58,16 @@ public class RequestRunner<T>
         return retryContext.shouldBeRetried(retryCount++, 0, exception);
     }
 
+    /**
+     * Report that the current attempt has ended. {@link #isSuccessResponse(int)} and {@link #shouldBeRetried(Throwable)}
+     * do this too but they aren't called on every exit path (e.g. unexpected exceptions) - call this in a
+     * <code>finally</code> around each attempt. Extra calls are ignored.
+     */
+    public void attemptCompleted()
+    {
+        retryContext.requestCompleted();
+    }
+
     protected DiscoveryInstance getDiscoveryInstance()
     {
         return ClientUtils.hostToInstance(retryContext.getComponents().getDiscovery(), retryContext.getOriginalHost());
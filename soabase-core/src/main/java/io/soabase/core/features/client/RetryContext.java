@@ -22,21 +22,25 @@ import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.net.ConnectException;
 import java.net.URI;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 class RetryContext
 {
     private final Logger log = LoggerFactory.getLogger(getClass());
     private final URI originalUri;
     private final String originalHost;
+    private final String serviceName;
     private final String method;
     private final RetryComponents components;
     private volatile DiscoveryInstance instance;
+    private final AtomicBoolean inFlight = new AtomicBoolean(false);
 
     RetryContext(RetryComponents components, URI originalUri, String method)
     {
         this.components = Preconditions.checkNotNull(components, "components cannot be null");
         this.originalUri = Preconditions.checkNotNull(originalUri, "originalUri cannot be null");
         originalHost = Preconditions.checkNotNull(this.originalUri.getHost(), "request Host cannot be null");
+        serviceName = ClientUtils.hostToServiceName(originalHost);
         this.method = Preconditions.checkNotNull(method, "method cannot be null");
     }
 
@@ -47,7 +51,13 @@ class RetryContext
 
     void setInstance(DiscoveryInstance instance)
     {
+        requestCompleted();
         this.instance = instance;
+        if ( (serviceName != null) && (instance != null) )
+        {
+            inFlight.set(true);
+            components.getDiscovery().noteRequestStarted(serviceName, instance);
+        }
     }
 
     String getOriginalHost()
@@ -67,6 +77,8 @@ class RetryContext
 
     boolean shouldBeRetried(int retryCount, int statusCode, Throwable exception)
     {
+        requestCompleted();    // called once per attempt with its response or failure
+
         if ( retryCount >= components.getMaxRetries() )
         {
             log.warn(String.format("Retries exceeded. retryCount: %d - maxRetries: %d", retryCount, components.getMaxRetries()));
@@ -83,7 +95,6 @@ class RetryContext
         boolean shouldBeRetried = shouldBeRetried(exception);
         if ( shouldBeRetried )
         {
-            String serviceName = ClientUtils.hostToServiceName(originalHost);
             if ( (serviceName != null) && (instance != null) )
             {
                 components.getDiscovery().noteError(serviceName, instance);
@@ -92,6 +103,15 @@ class RetryContext
         return shouldBeRetried;
     }
 
+    void requestCompleted()
+    {
+        DiscoveryInstance localInstance = instance;
+        if ( inFlight.compareAndSet(true, false) && (localInstance != null) )
+        {
+            components.getDiscovery().noteRequestCompleted(serviceName, localInstance);
+        }
+    }
+
     @SuppressWarnings("SimplifiableIfStatement")
     private boolean shouldBeRetried(Throwable exception)
     {
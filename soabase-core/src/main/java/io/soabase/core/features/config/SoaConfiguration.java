@@ -56,6 +56,13 @@ public class SoaConfiguration
 
     private boolean addCorsFilter = true;
 
+    private boolean pinAttributesSnapshot = false;
+
+    @Min(0)
+    private int attributeReadSampleRate = 0;
+
+    private boolean queueAttributeListeners = true;
+
     private boolean registerInDiscovery = true;
 
     @Min(0)
@@ -149,6 +156,42 @@ public class SoaConfiguration
         this.addCorsFilter = addCorsFilter;
     }
 
+    @JsonProperty("pinAttributesSnapshot")
+    public boolean isPinAttributesSnapshot()
+    {
+        return pinAttributesSnapshot;
+    }
+
+    @JsonProperty("pinAttributesSnapshot")
+    public void setPinAttributesSnapshot(boolean pinAttributesSnapshot)
+    {
+        this.pinAttributesSnapshot = pinAttributesSnapshot;
+    }
+
+    @JsonProperty("attributeReadSampleRate")
+    public int getAttributeReadSampleRate()
+    {
+        return attributeReadSampleRate;
+    }
+
+    @JsonProperty("attributeReadSampleRate")
+    public void setAttributeReadSampleRate(int attributeReadSampleRate)
+    {
+        this.attributeReadSampleRate = attributeReadSampleRate;
+    }
+
+    @JsonProperty("queueAttributeListeners")
+    public boolean isQueueAttributeListeners()
+    {
+        return queueAttributeListeners;
+    }
+
+    @JsonProperty("queueAttributeListeners")
+    public void setQueueAttributeListeners(boolean queueAttributeListeners)
+    {
+        this.queueAttributeListeners = queueAttributeListeners;
+    }
+
     @JsonProperty("discoveryHealth")
     public DiscoveryHealthFactory getDiscoveryHealthFactory()
     {
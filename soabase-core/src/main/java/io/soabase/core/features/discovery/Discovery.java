@@ -28,6 +28,24 @@ public interface Discovery
 
     public void noteError(String serviceName, DiscoveryInstance errorInstance);
 
+    /**
+     * Called when a request is sent to the given instance. Together with {@link #noteRequestCompleted(String, DiscoveryInstance)}
+     * this lets the implementation know how many requests each instance is currently handling.
+     *
+     * @param serviceName service name
+     * @param instance instance the request is being sent to
+     */
+    public void noteRequestStarted(String serviceName, DiscoveryInstance instance);
+
+    /**
+     * Called when a request previously passed to {@link #noteRequestStarted(String, DiscoveryInstance)} has
+     * a response or has failed
+     *
+     * @param serviceName service name
+     * @param instance instance the request was sent to
+     */
+    public void noteRequestCompleted(String serviceName, DiscoveryInstance instance);
+
     public void setHealthyState(HealthyState healthyState);
 
     public void setMetaData(Map<String, String> newMetaData);
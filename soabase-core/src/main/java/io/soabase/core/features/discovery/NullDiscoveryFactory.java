@@ -54,6 +54,18 @@ public class NullDiscoveryFactory implements DiscoveryFactory
                 // NOP
             }
 
+            @Override
+            public void noteRequestStarted(String serviceName, DiscoveryInstance instance)
+            {
+                // NOP
+            }
+
+            @Override
+            public void noteRequestCompleted(String serviceName, DiscoveryInstance instance)
+            {
+                // NOP
+            }
+
             @Override
             public void setMetaData(Map<String, String> newMetaData)
             {
@@ -51,6 +51,18 @@ public class SafeDiscovery implements Discovery
         implementation.noteError(serviceName, errorInstance);
     }
 
+    @Override
+    public void noteRequestStarted(String serviceName, DiscoveryInstance instance)
+    {
+        implementation.noteRequestStarted(serviceName, instance);
+    }
+
+    @Override
+    public void noteRequestCompleted(String serviceName, DiscoveryInstance instance)
+    {
+        implementation.noteRequestCompleted(serviceName, instance);
+    }
+
     @Override
     public void setHealthyState(HealthyState healthyState)
     {
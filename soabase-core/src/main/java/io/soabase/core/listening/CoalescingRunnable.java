@@ -0,0 +1,35 @@
+/**
+ * Copyright 2014 Jordan Zimmerman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.soabase.core.listening;
+
+/**
+ * A callback that can be combined with an earlier callback for the same listener. See
+ * {@link ListenerQueue#execute(Runnable, Object)}.
+ */
+public interface CoalescingRunnable extends Runnable
+{
+    /**
+     * @param earlier a callback with an equal coalesce key that hasn't run yet
+     * @return a callback that has the same effect as running <code>earlier</code> and then this callback
+     */
+    public Runnable coalesce(Runnable earlier);
+
+    /**
+     * @return a callback that brings the listener up to date after queued callbacks were discarded
+     * because the listener fell too far behind
+     */
+    public Runnable resync();
+}
@@ -23,8 +23,9 @@ import java.util.concurrent.Executor;
 public interface Listenable<T>
 {
     /**
-     * Add the given listener. The listener will be executed in the containing
-     * instance's thread.
+     * Add the given listener. The listener is called asynchronously but in order. To
+     * have the listener called in the notifying thread, use {@link #addListener(Object, Executor)}
+     * with {@link com.google.common.util.concurrent.MoreExecutors#directExecutor()}.
      *
      * @param listener listener to add
      */
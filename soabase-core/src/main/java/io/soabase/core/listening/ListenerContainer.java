@@ -16,6 +16,7 @@
 package io.soabase.core.listening;
 
 import com.google.common.base.Function;
+import com.google.common.base.Preconditions;
 import com.google.common.collect.Maps;
 import com.google.common.util.concurrent.MoreExecutors;
 import org.slf4j.Logger;
@@ -24,23 +25,67 @@ import java.util.Map;
 import java.util.concurrent.Executor;
 
 /**
- * Abstracts an object that has listeners
+ * Abstracts an object that has listeners. Containers created with a {@link ListenerDispatcher} give each
+ * listener added without an executor its own {@link ListenerQueue} so that callbacks are run in order for the
+ * listener and a slow listener doesn't hold up the object notifying it. Containers created without one (or after
+ * {@link #setQueueListeners(boolean)} is called with false) call listeners directly from the notifying thread.
  */
 public class ListenerContainer<T> implements Listenable<T>
 {
     private final Logger                        log = LoggerFactory.getLogger(getClass());
     private final Map<T, ListenerEntry<T>>      listeners = Maps.newConcurrentMap();
+    private final ListenerDispatcher            dispatcher;     // null means call listeners directly
+    private final int                           queueCapacity;
+    private volatile boolean                    queueListeners;
+
+    public ListenerContainer()
+    {
+        dispatcher = null;
+        queueCapacity = 0;
+        queueListeners = false;
+    }
+
+    /**
+     * @param dispatcher dispatcher for listeners added without an executor
+     * @param queueCapacity capacity of each listener's queue
+     */
+    public ListenerContainer(ListenerDispatcher dispatcher, int queueCapacity)
+    {
+        this.dispatcher = Preconditions.checkNotNull(dispatcher, "dispatcher cannot be null");
+        this.queueCapacity = queueCapacity;
+        queueListeners = true;
+    }
+
+    /**
+     * Change whether listeners added without an executor get their own queue or are called directly.
+     * Only affects listeners added afterwards.
+     *
+     * @param queueListeners true to queue
+     */
+    public void setQueueListeners(boolean queueListeners)
+    {
+        Preconditions.checkState(!queueListeners || (dispatcher != null), "This container was created without a dispatcher");
+        this.queueListeners = queueListeners;
+    }
 
     @Override
     public void addListener(T listener)
     {
-        addListener(listener, MoreExecutors.directExecutor());
+        if ( !queueListeners )
+        {
+            addListener(listener, MoreExecutors.directExecutor());
+        }
+        else
+        {
+            addListener(listener, dispatcher.newQueue(String.valueOf(listener), queueCapacity));
+        }
     }
 
     @Override
     public void addListener(T listener, Executor executor)
     {
-        listeners.put(listener, new ListenerEntry<T>(listener, executor));
+        ListenerQueue queue = (executor instanceof ListenerQueue) ? (ListenerQueue)executor : null;
+        listeners.put(listener, new ListenerEntry<T>(listener, executor, queue));
     }
 
     @Override
@@ -55,28 +100,125 @@ public class ListenerContainer<T> implements Listenable<T>
      *
      * @param function function to call for each listener
      */
-    public void     forEach(final Function<T, Void> function)
+    public void     forEach(Function<T, Void> function)
+    {
+        forEach(function, null);
+    }
+
+    /**
+     * Utility - apply the given function to each listener. The function receives
+     * the listener as an argument. For listeners with a {@link ListenerQueue}, if a call with an equal
+     * <code>coalesceKey</code> is still waiting to run it is replaced by this one.
+     *
+     * @param function function to call for each listener
+     * @param coalesceKey key used to find superseded calls or null
+     */
+    public void     forEach(final Function<T, Void> function, Object coalesceKey)
     {
         for ( final ListenerEntry<T> entry : listeners.values() )
         {
-            entry.executor.execute
-            (
-                new Runnable()
+            Runnable runnable = new Runnable()
+            {
+                @Override
+                public void run()
                 {
-                    @Override
-                    public void run()
+                    try
+                    {
+                        function.apply(entry.listener);
+                    }
+                    catch ( Throwable e )
                     {
-                        try
-                        {
-                            function.apply(entry.listener);
-                        }
-                        catch ( Throwable e )
-                        {
-                            log.error(String.format("Listener (%s) threw an exception", entry.listener), e);
-                        }
+                        log.error(String.format("Listener (%s) threw an exception", entry.listener), e);
                     }
                 }
-            );
+            };
+            if ( entry.queue != null )
+            {
+                entry.queue.execute(runnable, coalesceKey);
+            }
+            else
+            {
+                entry.executor.execute(runnable);
+            }
+        }
+    }
+
+    /**
+     * Utility - deliver the given event to each listener via the handler. For listeners with a
+     * {@link ListenerQueue}, if an event with an equal <code>coalesceKey</code> is still waiting to be delivered
+     * the two events are combined via {@link ListenerEventHandler#coalesce(Object, Object)}.
+     *
+     * @param event the event
+     * @param coalesceKey key used to find events to combine or null
+     * @param handler delivers and combines events
+     */
+    public <E> void forEach(E event, Object coalesceKey, ListenerEventHandler<T, E> handler)
+    {
+        for ( ListenerEntry<T> entry : listeners.values() )
+        {
+            EventRunnable<T, E> runnable = new EventRunnable<>(entry.listener, event, false, handler);
+            if ( entry.queue != null )
+            {
+                entry.queue.execute(runnable, coalesceKey);
+            }
+            else
+            {
+                entry.executor.execute(runnable);
+            }
+        }
+    }
+
+    private static class EventRunnable<T, E> implements CoalescingRunnable
+    {
+        private static final Logger log = LoggerFactory.getLogger(EventRunnable.class);
+
+        private final T listener;
+        private final E event;
+        private final boolean isResync;
+        private final ListenerEventHandler<T, E> handler;
+
+        private EventRunnable(T listener, E event, boolean isResync, ListenerEventHandler<T, E> handler)
+        {
+            this.listener = listener;
+            this.event = event;
+            this.isResync = isResync;
+            this.handler = handler;
+        }
+
+        @Override
+        public void run()
+        {
+            try
+            {
+                // the resync state is read when it's delivered so that it's as current as possible
+                handler.deliver(listener, isResync ? handler.resync() : event);
+            }
+            catch ( Throwable e )
+            {
+                log.error(String.format("Listener (%s) threw an exception", listener), e);
+            }
+        }
+
+        @Override
+        public Runnable coalesce(Runnable earlier)
+        {
+            if ( earlier instanceof EventRunnable )
+            {
+                EventRunnable<?, ?> earlierRunnable = (EventRunnable<?, ?>)earlier;
+                if ( (earlierRunnable.handler == handler) && (earlierRunnable.listener == listener) && !earlierRunnable.isResync )
+                {
+                    @SuppressWarnings("unchecked")
+                    E earlierEvent = (E)earlierRunnable.event;
+                    return new EventRunnable<>(listener, handler.coalesce(earlierEvent, event), false, handler);
+                }
+            }
+            return this;
+        }
+
+        @Override
+        public Runnable resync()
+        {
+            return new EventRunnable<>(listener, null, true, handler);
         }
     }
 }
@@ -0,0 +1,147 @@
+/**
+ * Copyright 2014 Jordan Zimmerman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.soabase.core.listening;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.SlidingTimeWindowReservoir;
+import com.codahale.metrics.Timer;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A small shared thread pool that runs listener callbacks. Each listener gets its own
+ * {@link ListenerQueue} so that callbacks for a listener are run in order while a slow
+ * listener only delays itself.
+ */
+public class ListenerDispatcher
+{
+    public static final int DEFAULT_THREAD_QTY = 2;
+    public static final int DEFAULT_QUEUE_CAPACITY = 1000;
+
+    private static final ListenerDispatcher defaultInstance = new ListenerDispatcher("SoaListenerDispatcher", DEFAULT_THREAD_QTY);
+
+    private final ExecutorService executorService;
+    private final AtomicInteger queueDepth = new AtomicInteger(0);
+    private final Histogram dispatchLag = new Histogram(new SlidingTimeWindowReservoir(1, TimeUnit.MINUTES));
+    private final Timer execution = new Timer();
+    private final Meter dropped = new Meter();
+    private final Counter coalesced = new Counter();
+
+    /**
+     * @return the dispatcher used by {@link ListenerContainer} by default
+     */
+    public static ListenerDispatcher getDefault()
+    {
+        return defaultInstance;
+    }
+
+    /**
+     * @param name name used for the threads
+     * @param threadQty number of threads to use
+     */
+    public ListenerDispatcher(String name, int threadQty)
+    {
+        Preconditions.checkArgument(threadQty > 0, "threadQty must be greater than 0");
+        executorService = Executors.newFixedThreadPool(threadQty, new ThreadFactoryBuilder().setNameFormat(name + "-%d").setDaemon(true).build());
+    }
+
+    /**
+     * Register this dispatcher's metrics: total queue depth, dispatch lag (time from the event
+     * to the start of the callback), listener execution time, dropped events and coalesced events.
+     *
+     * @param metricRegistry registry
+     * @param name metric name prefix
+     */
+    public void registerMetrics(MetricRegistry metricRegistry, String name)
+    {
+        if ( metricRegistry.getNames().contains(MetricRegistry.name(name, "queue-depth")) )
+        {
+            return; // already registered
+        }
+
+        Gauge<Integer> queueDepthGauge = new Gauge<Integer>()
+        {
+            @Override
+            public Integer getValue()
+            {
+                return queueDepth.get();
+            }
+        };
+        metricRegistry.register(MetricRegistry.name(name, "queue-depth"), queueDepthGauge);
+        metricRegistry.register(MetricRegistry.name(name, "dispatch-lag-ms"), dispatchLag);
+        metricRegistry.register(MetricRegistry.name(name, "execution"), execution);
+        metricRegistry.register(MetricRegistry.name(name, "dropped"), dropped);
+        metricRegistry.register(MetricRegistry.name(name, "coalesced"), coalesced);
+    }
+
+    /**
+     * Return a new serial queue that runs on this dispatcher
+     *
+     * @param name name used when logging
+     * @param capacity max number of pending callbacks. When full, new callbacks are dropped.
+     * @return queue
+     */
+    public ListenerQueue newQueue(String name, int capacity)
+    {
+        return new ListenerQueue(this, name, capacity);
+    }
+
+    /**
+     * @return number of callbacks waiting to run in all queues
+     */
+    public int getQueueDepth()
+    {
+        return queueDepth.get();
+    }
+
+    ExecutorService getExecutorService()
+    {
+        return executorService;
+    }
+
+    AtomicInteger getQueueDepthCounter()
+    {
+        return queueDepth;
+    }
+
+    Histogram getDispatchLag()
+    {
+        return dispatchLag;
+    }
+
+    Timer getExecution()
+    {
+        return execution;
+    }
+
+    Meter getDropped()
+    {
+        return dropped;
+    }
+
+    Counter getCoalesced()
+    {
+        return coalesced;
+    }
+}
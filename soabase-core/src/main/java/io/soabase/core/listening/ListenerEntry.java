@@ -22,12 +22,14 @@ import java.util.concurrent.Executor;
  */
 class ListenerEntry<T>
 {
-    final T        listener;
-    final Executor executor;
+    final T             listener;
+    final Executor      executor;
+    final ListenerQueue queue;  // null if the listener was added with an executor
 
-    ListenerEntry(T listener, Executor executor)
+    ListenerEntry(T listener, Executor executor, ListenerQueue queue)
     {
         this.listener = listener;
         this.executor = executor;
+        this.queue = queue;
     }
 }
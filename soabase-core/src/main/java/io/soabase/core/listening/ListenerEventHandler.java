@@ -0,0 +1,43 @@
+/**
+ * Copyright 2014 Jordan Zimmerman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.soabase.core.listening;
+
+/**
+ * Delivers events to listeners for {@link ListenerContainer#forEach(Object, Object, ListenerEventHandler)}.
+ * Events that are still queued for a listener can be combined with newer ones.
+ */
+public interface ListenerEventHandler<T, E>
+{
+    /**
+     * @param listener the listener
+     * @param event the event
+     */
+    public void deliver(T listener, E event);
+
+    /**
+     * @param earlier an event that hasn't been delivered yet
+     * @param later a newer event with an equal coalesce key
+     * @return a single event with the same effect as delivering both events in order
+     */
+    public E coalesce(E earlier, E later);
+
+    /**
+     * Called when a listener fell too far behind and its queued events were discarded
+     *
+     * @return an event that describes the complete current state
+     */
+    public E resync();
+}
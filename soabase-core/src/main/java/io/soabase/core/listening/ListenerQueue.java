@@ -0,0 +1,193 @@
+/**
+ * Copyright 2014 Jordan Zimmerman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.soabase.core.listening;
+
+import com.codahale.metrics.Timer;
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import java.util.LinkedList;
+import java.util.ListIterator;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A bounded queue of callbacks for a single listener. Callbacks are run in order, one at a time,
+ * using the {@link ListenerDispatcher}'s threads.
+ */
+public class ListenerQueue implements Executor
+{
+    private static final int MAX_RUNS_PER_DRAIN = 100;
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+    private final ListenerDispatcher dispatcher;
+    private final String name;
+    private final int capacity;
+    private final LinkedList<Task> tasks = new LinkedList<>();  // guarded by this
+    private boolean isDraining = false; // guarded by this
+    private final Runnable drainer = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            drain();
+        }
+    };
+
+    private static class Task
+    {
+        private final Runnable runnable;
+        private final Object coalesceKey;
+        private final long queuedNanos;
+
+        private Task(Runnable runnable, Object coalesceKey)
+        {
+            this(runnable, coalesceKey, System.nanoTime());
+        }
+
+        private Task(Runnable runnable, Object coalesceKey, long queuedNanos)
+        {
+            this.runnable = runnable;
+            this.coalesceKey = coalesceKey;
+            this.queuedNanos = queuedNanos;
+        }
+    }
+
+    ListenerQueue(ListenerDispatcher dispatcher, String name, int capacity)
+    {
+        Preconditions.checkArgument(capacity > 0, "capacity must be greater than 0");
+        this.dispatcher = Preconditions.checkNotNull(dispatcher, "dispatcher cannot be null");
+        this.name = Preconditions.checkNotNull(name, "name cannot be null");
+        this.capacity = capacity;
+    }
+
+    @Override
+    public void execute(Runnable command)
+    {
+        execute(command, null);
+    }
+
+    /**
+     * Queue the given callback. If <code>coalesceKey</code> is not null and a queued callback with an equal
+     * key hasn't started yet, it is replaced in place so that the listener still sees callbacks in the order
+     * they were first queued. If the new callback is a {@link CoalescingRunnable} it is combined with the
+     * queued callback, otherwise the new callback simply supersedes it.
+     * <p>
+     * When the queue is full, a {@link CoalescingRunnable} replaces all queued callbacks with its
+     * {@link CoalescingRunnable#resync()} callback. Other callbacks are dropped.
+     *
+     * @param command callback
+     * @param coalesceKey key or null
+     */
+    public void execute(Runnable command, Object coalesceKey)
+    {
+        Preconditions.checkNotNull(command, "command cannot be null");
+        boolean startDrain = false;
+        synchronized(this)
+        {
+            if ( coalesceKey != null )
+            {
+                ListIterator<Task> iterator = tasks.listIterator();
+                while ( iterator.hasNext() )
+                {
+                    Task task = iterator.next();
+                    if ( Objects.equal(coalesceKey, task.coalesceKey) )
+                    {
+                        Runnable replacement = (command instanceof CoalescingRunnable) ? ((CoalescingRunnable)command).coalesce(task.runnable) : command;
+                        iterator.set(new Task(replacement, coalesceKey, task.queuedNanos));
+                        dispatcher.getCoalesced().inc();
+                        return; // there's never more than one queued callback per key and it's already scheduled to drain
+                    }
+                }
+            }
+
+            if ( tasks.size() >= capacity )
+            {
+                Runnable resync = (command instanceof CoalescingRunnable) ? ((CoalescingRunnable)command).resync() : null;
+                if ( resync == null )
+                {
+                    dispatcher.getDropped().mark();
+                    log.warn(String.format("Listener queue (%s) is full. Dropping event.", name));
+                    return;
+                }
+
+                dispatcher.getDropped().mark(tasks.size() + 1);
+                dispatcher.getQueueDepthCounter().addAndGet(-tasks.size());
+                log.warn(String.format("Listener queue (%s) is full. Replacing %d queued events with a resync.", name, tasks.size() + 1));
+                tasks.clear();
+                command = resync;
+                coalesceKey = null;
+            }
+
+            tasks.add(new Task(command, coalesceKey));
+            dispatcher.getQueueDepthCounter().incrementAndGet();
+            if ( !isDraining )
+            {
+                isDraining = true;
+                startDrain = true;
+            }
+        }
+
+        if ( startDrain )
+        {
+            dispatcher.getExecutorService().execute(drainer);
+        }
+    }
+
+    /**
+     * @return number of callbacks waiting to run
+     */
+    public synchronized int size()
+    {
+        return tasks.size();
+    }
+
+    private void drain()
+    {
+        // run a limited number of callbacks and then re-queue so that a busy listener doesn't monopolize a thread
+        for ( int i = 0; i < MAX_RUNS_PER_DRAIN; ++i )
+        {
+            Task task;
+            synchronized(this)
+            {
+                task = tasks.poll();
+                if ( task == null )
+                {
+                    isDraining = false;
+                    return;
+                }
+            }
+            dispatcher.getQueueDepthCounter().decrementAndGet();
+            dispatcher.getDispatchLag().update(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - task.queuedNanos));
+
+            Timer.Context context = dispatcher.getExecution().time();
+            try
+            {
+                task.runnable.run();
+            }
+            catch ( Throwable e )
+            {
+                log.error(String.format("Listener queue (%s) callback threw an exception", name), e);
+            }
+            finally
+            {
+                context.stop();
+            }
+        }
+        dispatcher.getExecutorService().execute(drainer);
+    }
+}
@@ -15,17 +15,26 @@
  */
 package io.soabase.core.rest;
 
+import com.google.common.collect.Maps;
 import io.soabase.core.SoaFeatures;
+import io.soabase.core.features.attributes.AttributesSnapshot;
 import javax.inject.Inject;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.DELETE;
 import javax.ws.rs.GET;
+import javax.ws.rs.POST;
 import javax.ws.rs.PUT;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
+import java.util.List;
+import java.util.Map;
 
 @Path("/soa/attributes")
 public class DynamicAttributeApis
@@ -38,6 +47,50 @@ public class DynamicAttributeApis
         this.features = features;
     }
 
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    @Path("prefix/{prefix}")
+    public Map<String, String> getAttributesWithPrefix(@PathParam("prefix") String prefix)
+    {
+        return features.getAttributes().getAttributesWithPrefix(prefix);
+    }
+
+    /**
+     * Return all attributes (or only the given keys) as the instance sees them. The ETag changes whenever
+     * any attribute changes so an <code>If-None-Match</code> request gets a 304 without building the response.
+     */
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getAttributes(@QueryParam("key") List<String> keys, @Context Request request)
+    {
+        AttributesSnapshot snapshot = features.getAttributes().snapshot();
+        EntityTag eTag = new EntityTag(snapshot.getETag());
+        Response.ResponseBuilder builder = request.evaluatePreconditions(eTag);
+        if ( builder != null )
+        {
+            return builder.tag(eTag).build();
+        }
+
+        Map<String, String> attributes;
+        if ( keys.isEmpty() )
+        {
+            attributes = snapshot.getAttributesWithPrefix("");
+        }
+        else
+        {
+            attributes = Maps.newTreeMap();
+            for ( String key : keys )
+            {
+                String value = snapshot.getAttribute(key);
+                if ( value != null )
+                {
+                    attributes.put(key, value);
+                }
+            }
+        }
+        return Response.ok(attributes).tag(eTag).build();
+    }
+
     @GET
     @Produces(MediaType.APPLICATION_JSON)
     @Path("{key}")
@@ -63,4 +116,12 @@ public class DynamicAttributeApis
         features.getAttributes().removeOverride(key);
         return Response.ok().build();
     }
+
+    @POST
+    @Path("refresh/system-properties")
+    public Response refreshSystemProperties()
+    {
+        features.getAttributes().refreshSystemProperties();
+        return Response.ok().build();
+    }
 }
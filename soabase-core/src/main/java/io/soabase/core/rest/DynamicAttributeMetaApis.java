@@ -0,0 +1,160 @@
+/**
+ * Copyright 2014 Jordan Zimmerman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.soabase.core.rest;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.soabase.core.SoaFeatures;
+import io.soabase.core.features.attributes.AttributeReadStats;
+import io.soabase.core.features.attributes.DynamicAttributes;
+import io.soabase.core.features.attributes.FeatureFlagStats;
+import javax.inject.Inject;
+import javax.ws.rs.DELETE;
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.container.TimeoutHandler;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * APIs about the attributes rather than attribute values. They live outside of <code>/soa/attributes</code>
+ * so that they can't shadow an attribute key (e.g. an attribute named "changes").
+ */
+@Path("/soa/attributes-meta")
+public class DynamicAttributeMetaApis
+{
+    private final SoaFeatures features;
+
+    private static final long MAX_CHANGES_TIMEOUT_MS = TimeUnit.MINUTES.toMillis(5);
+    private static final ExecutorService resumeExecutor = Executors.newCachedThreadPool(new ThreadFactoryBuilder().setNameFormat("AttributeChanges-%d").setDaemon(true).build());
+
+    @Inject
+    public DynamicAttributeMetaApis(SoaFeatures features)
+    {
+        this.features = features;
+    }
+
+    /**
+     * Long-poll for attribute changes. Returns as soon as the attributes version is different than
+     * <code>since</code> or when <code>timeoutMs</code> elapses (with no changes).
+     */
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    @Path("changes")
+    public void getChanges(@QueryParam("since") @DefaultValue("0") final long since, @QueryParam("timeoutMs") @DefaultValue("30000") long timeoutMs, @Suspended final AsyncResponse asyncResponse)
+    {
+        final DynamicAttributes attributes = features.getAttributes();
+        final ListenableFuture<Long> future = attributes.waitForChange(since);
+        if ( future.isDone() )
+        {
+            asyncResponse.resume(attributes.getChangesSince(since));
+            return;
+        }
+
+        TimeoutHandler timeoutHandler = new TimeoutHandler()
+        {
+            @Override
+            public void handleTimeout(AsyncResponse asyncResponse)
+            {
+                future.cancel(false);
+                asyncResponse.resume(attributes.getChangesSince(since));
+            }
+        };
+        asyncResponse.setTimeoutHandler(timeoutHandler);
+        asyncResponse.setTimeout(Math.max(1, Math.min(timeoutMs, MAX_CHANGES_TIMEOUT_MS)), TimeUnit.MILLISECONDS);
+
+        FutureCallback<Long> callback = new FutureCallback<Long>()
+        {
+            @Override
+            public void onSuccess(Long version)
+            {
+                asyncResponse.resume(attributes.getChangesSince(since));
+            }
+
+            @Override
+            public void onFailure(Throwable e)
+            {
+                if ( !(e instanceof CancellationException) )
+                {
+                    asyncResponse.resume(e);
+                }
+            }
+        };
+        Futures.addCallback(future, callback, resumeExecutor);  // don't serialize the response on the thread that publishes changes
+    }
+
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    @Path("reads")
+    public AttributeReadStats getReadStats(@QueryParam("top") @DefaultValue("25") int top)
+    {
+        return features.getAttributes().getReadTracker().getStats(top);
+    }
+
+    @POST
+    @Path("reads/enable")
+    public Response enableReadTracking(@QueryParam("sampleRate") @DefaultValue("1") int sampleRate)
+    {
+        features.getAttributes().getReadTracker().enable(sampleRate);
+        return Response.ok().build();
+    }
+
+    @POST
+    @Path("reads/disable")
+    public Response disableReadTracking()
+    {
+        features.getAttributes().getReadTracker().disable();
+        return Response.ok().build();
+    }
+
+    @DELETE
+    @Path("reads")
+    public Response resetReadTracking()
+    {
+        features.getAttributes().getReadTracker().reset();
+        return Response.ok().build();
+    }
+
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    @Path("flags")
+    public List<FeatureFlagStats> getFeatureFlagStats()
+    {
+        return features.getAttributes().getFeatureFlagStats();
+    }
+
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    @Path("flags/{flag}")
+    public boolean isEnabled(@PathParam("flag") String flag, @QueryParam("userKey") String userKey)
+    {
+        return features.getAttributes().isEnabled(flag, userKey);
+    }
+}
@@ -0,0 +1,248 @@
+/**
+ * Copyright 2014 Jordan Zimmerman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.soabase.core.features.attributes;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TestCachingDynamicAttributes
+{
+    @Test
+    public void testServeStale() throws Exception
+    {
+        final AtomicBoolean fail = new AtomicBoolean(false);
+        final AtomicInteger value = new AtomicInteger(1);
+        AttributesLoader loader = new AttributesLoader()
+        {
+            @Override
+            public Map<AttributeKey, Object> load() throws Exception
+            {
+                if ( fail.get() )
+                {
+                    throw new Exception("test");
+                }
+                Map<AttributeKey, Object> attributes = Maps.newHashMap();
+                attributes.put(new AttributeKey("one", "a"), value.get());
+                return attributes;
+            }
+        };
+
+        MetricRegistry metricRegistry = new MetricRegistry();
+        CachingDynamicAttributes attributes = new CachingDynamicAttributes("test", loader, Arrays.asList("a"), 100000, 1000, 100000, metricRegistry);
+        attributes.start();
+        try
+        {
+            Assert.assertEquals(attributes.getAttributeInt("one", 0), 1);
+
+            fail.set(true);
+            value.set(2);
+            Assert.assertFalse(attributes.refresh());
+            Assert.assertEquals(attributes.getAttributeInt("one", 0), 1);
+            Assert.assertEquals(metricRegistry.counter(MetricRegistry.name(AttributesRefresher.class, "test", "failures")).getCount(), 1);
+
+            fail.set(false);
+            Assert.assertTrue(attributes.refresh());
+            Assert.assertEquals(attributes.getAttributeInt("one", 0), 2);
+        }
+        finally
+        {
+            attributes.stop();
+        }
+    }
+
+    @Test
+    public void testSingleFlight() throws Exception
+    {
+        final AtomicInteger calls = new AtomicInteger(0);
+        final CountDownLatch blocker = new CountDownLatch(1);
+        Callable<Void> refresh = new Callable<Void>()
+        {
+            @Override
+            public Void call() throws Exception
+            {
+                calls.incrementAndGet();
+                blocker.await();
+                return null;
+            }
+        };
+        final AttributesRefresher refresher = new AttributesRefresher("test", refresh, 100000, 10000, 100000, new MetricRegistry());
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try
+        {
+            Callable<Boolean> caller = new Callable<Boolean>()
+            {
+                @Override
+                public Boolean call() throws Exception
+                {
+                    return refresher.refreshNow();
+                }
+            };
+            Future<Boolean> f1 = executor.submit(caller);
+            Future<Boolean> f2 = executor.submit(caller);
+            Future<Boolean> f3 = executor.submit(caller);
+            Thread.sleep(500);
+            blocker.countDown();
+
+            Assert.assertTrue(f1.get(10, TimeUnit.SECONDS));
+            Assert.assertTrue(f2.get(10, TimeUnit.SECONDS));
+            Assert.assertTrue(f3.get(10, TimeUnit.SECONDS));
+            Assert.assertEquals(calls.get(), 1);
+        }
+        finally
+        {
+            executor.shutdownNow();
+            refresher.stop();
+        }
+    }
+
+    @Test
+    public void testTimeoutAndBackoff() throws Exception
+    {
+        Callable<Void> refresh = new Callable<Void>()
+        {
+            @Override
+            public Void call() throws Exception
+            {
+                Thread.sleep(10000);
+                return null;
+            }
+        };
+        MetricRegistry metricRegistry = new MetricRegistry();
+        AttributesRefresher refresher = new AttributesRefresher("test", refresh, 1000, 100, 5000, metricRegistry);
+        try
+        {
+            Assert.assertFalse(refresher.refreshNow());
+            Assert.assertEquals(metricRegistry.counter(MetricRegistry.name(AttributesRefresher.class, "test", "timeouts")).getCount(), 1);
+
+            Assert.assertEquals(refresher.getNextDelayMs(0), 1000);
+            Assert.assertEquals(refresher.getNextDelayMs(1), 2000);
+            Assert.assertEquals(refresher.getNextDelayMs(2), 4000);
+            Assert.assertEquals(refresher.getNextDelayMs(3), 5000);
+            Assert.assertEquals(refresher.getNextDelayMs(100), 5000);
+        }
+        finally
+        {
+            refresher.stop();
+        }
+    }
+
+    @Test
+    public void testAbandonedRefresh() throws Exception
+    {
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger loads = new AtomicInteger(0);
+        final AtomicInteger value = new AtomicInteger(1);
+        AttributesLoader loader = new AttributesLoader()
+        {
+            @Override
+            public Map<AttributeKey, Object> load() throws Exception
+            {
+                if ( loads.incrementAndGet() == 2 )
+                {
+                    // ignores interrupts
+                    while ( release.getCount() > 0 )
+                    {
+                        try
+                        {
+                            release.await();
+                        }
+                        catch ( InterruptedException ignore )
+                        {
+                            // ignore
+                        }
+                    }
+                }
+                Map<AttributeKey, Object> attributes = Maps.newHashMap();
+                attributes.put(new AttributeKey("one", "a"), value.get());
+                return attributes;
+            }
+        };
+
+        CachingDynamicAttributes attributes = new CachingDynamicAttributes("test", loader, Arrays.asList("a"), 100000, 100, 100000, new MetricRegistry());
+        attributes.start();
+        try
+        {
+            Assert.assertEquals(attributes.getAttributeInt("one", 0), 1);
+
+            value.set(2);
+            Assert.assertFalse(attributes.refresh());   // times out
+            Assert.assertFalse(attributes.refresh());   // the timed out load is still running - no second load
+            Assert.assertEquals(loads.get(), 2);
+
+            release.countDown();
+            for ( int i = 0; (i < 100) && !attributes.refresh(); ++i )
+            {
+                Thread.sleep(10);
+            }
+            Assert.assertEquals(loads.get(), 3);
+            Assert.assertEquals(attributes.getAttributeInt("one", 0), 2);
+        }
+        finally
+        {
+            attributes.stop();
+        }
+    }
+
+    @Test
+    public void testPhaseAndJitter() throws Exception
+    {
+        Callable<Void> refresh = new Callable<Void>()
+        {
+            @Override
+            public Void call() throws Exception
+            {
+                return null;
+            }
+        };
+        AttributesRefresher refresher = new AttributesRefresher("test", refresh, 30000, 1000, 300000, "host-1", 0.1, 0, new MetricRegistry());
+        try
+        {
+            Assert.assertEquals(refresher.getPhaseOffsetMs(), AttributesRefresher.getPhaseOffsetMs("host-1", 30000));  // deterministic
+            Assert.assertTrue((refresher.getPhaseOffsetMs() >= 0) && (refresher.getPhaseOffsetMs() < 30000));
+
+            Set<Long> offsets = Sets.newHashSet();
+            for ( int i = 0; i < 10; ++i )
+            {
+                offsets.add(AttributesRefresher.getPhaseOffsetMs("host-" + i, 30000));
+            }
+            Assert.assertTrue(offsets.size() > 1);
+
+            for ( int i = 0; i < 100; ++i )
+            {
+                long delay = refresher.applyJitter(30000);
+                Assert.assertTrue((delay >= 27000) && (delay <= 33000), "delay: " + delay);
+            }
+        }
+        finally
+        {
+            refresher.stop();
+        }
+    }
+}
@@ -18,6 +18,7 @@ package io.soabase.core.features.attributes;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.MoreExecutors;
 import org.testng.Assert;
 import org.testng.annotations.Test;
 import java.util.List;
@@ -56,7 +57,7 @@ public class TestDynamicAttributeListener
                 attributeRemovedLatch.countDown();
             }
         };
-        container.getListenable().addListener(listener);
+        container.getListenable().addListener(listener, MoreExecutors.directExecutor());
 
         container.reset(container.getAll());    // first commit doesn't notify
         Assert.assertEquals(attributeChangedLatch.getCount(), 1);
@@ -102,7 +103,7 @@ public class TestDynamicAttributeListener
                 overrideRemovedLatch.countDown();
             }
         };
-        container.getListenable().addListener(listener);
+        container.getListenable().addListener(listener, MoreExecutors.directExecutor());
 
         container.temporaryOverride("a", "a");
         Assert.assertTrue(overrideAddedLatch.await(1, TimeUnit.MILLISECONDS));
@@ -117,7 +118,7 @@ public class TestDynamicAttributeListener
     {
         StandardAttributesContainer container = new StandardAttributesContainer();
         RecordingListener listener = new RecordingListener();
-        container.getListenable().addListener(listener);
+        container.getListenable().addListener(listener, MoreExecutors.directExecutor());
 
         Map<AttributeKey, Object> newAttributes = Maps.newHashMap();
         newAttributes.put(new AttributeKey("a", "a"), "a");
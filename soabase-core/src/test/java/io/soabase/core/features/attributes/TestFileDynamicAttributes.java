@@ -0,0 +1,156 @@
+/**
+ * Copyright 2014 Jordan Zimmerman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.soabase.core.features.attributes;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Maps;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class TestFileDynamicAttributes
+{
+    private Path directory;
+
+    @BeforeMethod
+    public void setup() throws IOException
+    {
+        directory = Files.createTempDirectory("soa");
+    }
+
+    @AfterMethod
+    public void tearDown() throws IOException
+    {
+        for ( Path path : Files.newDirectoryStream(directory) )
+        {
+            Files.delete(path);
+        }
+        Files.delete(directory);
+    }
+
+    @Test
+    public void testWatch() throws Exception
+    {
+        write("default.yml", "one: 1\nnested:\n  two: 2\n");
+        write("a.properties", "one=10\n");
+        write("other.json", "{\"one\": 100}");
+
+        FileDynamicAttributes attributes = new FileDynamicAttributes(directory, "default", Arrays.asList("a"));
+        attributes.start();
+        try
+        {
+            Assert.assertEquals(attributes.getAttributeInt("one"), 10);
+            Assert.assertEquals(attributes.getAttributeInt("nested.two"), 2);
+
+            final CountDownLatch latch = new CountDownLatch(1);
+            attributes.getListenable().addListener(new DynamicAttributeListenerAdapter()
+            {
+                @Override
+                public void attributeRemoved(String key, String scope)
+                {
+                    latch.countDown();
+                }
+            });
+
+            // replace the file the way a sidecar would - write elsewhere and rename
+            Path temp = directory.resolve(".a.tmp");
+            Files.write(temp, "two=20\n".getBytes(Charsets.UTF_8));
+            Files.move(temp, directory.resolve("a.properties"), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+            Assert.assertEquals(attributes.getAttributeInt("one"), 1);
+            Assert.assertEquals(attributes.getAttributeInt("two"), 20);
+        }
+        finally
+        {
+            attributes.stop();
+        }
+    }
+
+    @Test
+    public void testWrites() throws Exception
+    {
+        write("default.yml", "one: 1\n");
+
+        FileDynamicAttributes attributes = new FileDynamicAttributes(directory, "default", Arrays.asList("a"));
+        attributes.start();
+        try
+        {
+            Map<AttributeKey, Object> batch = Maps.newHashMap();
+            batch.put(new AttributeKey("one", ""), 2);
+            batch.put(new AttributeKey("two", "a"), 3);
+            batch.put(new AttributeKey("three", "b"), 4);
+            attributes.putAll(batch);
+            Assert.assertEquals(attributes.getAttributeInt("one"), 2);
+            Assert.assertEquals(attributes.getAttributeInt("two"), 3);
+            Assert.assertTrue(Files.exists(directory.resolve("a.properties")));
+            Assert.assertTrue(Files.exists(directory.resolve("default.properties")));
+            Assert.assertEquals(new String(Files.readAllBytes(directory.resolve("default.yml")), Charsets.UTF_8), "one: 1\n");  // YAML files aren't re-written
+            Assert.assertEquals(attributes.getAll().size(), 3);
+            Assert.assertEquals(attributes.getAll().get(new AttributeKey("one", "")), "2");
+
+            try
+            {
+                attributes.put(new AttributeKey("x", "../escape"), 1);
+                Assert.fail();
+            }
+            catch ( IllegalArgumentException expected )
+            {
+                // expected
+            }
+            Assert.assertFalse(Files.exists(directory.resolveSibling("escape.properties")));
+
+            attributes.remove(new AttributeKey("two", "a"));
+            Assert.assertNull(attributes.getAttribute("two"));
+
+            attributes.remove(new AttributeKey("one", ""));  // removes the written value - the YAML value is used again
+            Assert.assertEquals(attributes.getAttributeInt("one"), 1);
+            try
+            {
+                attributes.remove(new AttributeKey("one", ""));
+                Assert.fail();
+            }
+            catch ( IllegalArgumentException expected )
+            {
+                // only defined in default.yml
+            }
+            attributes.put(new AttributeKey("one", ""), 2);
+
+            FileDynamicAttributes restarted = new FileDynamicAttributes(directory, "default", Arrays.asList("b"));
+            restarted.start();
+            Assert.assertEquals(restarted.getAttributeInt("one"), 2);
+            Assert.assertEquals(restarted.getAttributeInt("three"), 4);
+            restarted.stop();
+        }
+        finally
+        {
+            attributes.stop();
+        }
+    }
+
+    private void write(String name, String contents) throws IOException
+    {
+        Files.write(directory.resolve(name), contents.getBytes(Charsets.UTF_8));
+    }
+}
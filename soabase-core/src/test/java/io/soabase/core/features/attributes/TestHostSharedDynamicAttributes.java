@@ -0,0 +1,288 @@
+/**
+ * Copyright 2014 Jordan Zimmerman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.soabase.core.features.attributes;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import java.io.RandomAccessFile;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TestHostSharedDynamicAttributes
+{
+    private Path directory;
+
+    @BeforeMethod
+    public void setup() throws Exception
+    {
+        directory = Files.createTempDirectory("host-shared");
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception
+    {
+        try ( DirectoryStream<Path> stream = Files.newDirectoryStream(directory) )
+        {
+            for ( Path path : stream )
+            {
+                Files.delete(path);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    @Test
+    public void testSharing() throws Exception
+    {
+        MapStore store = new MapStore();
+        store.put(new AttributeKey("one", "a"), "1");
+        store.put(new AttributeKey("one", "b"), "2");
+
+        Path mappedFile = directory.resolve("attributes");
+        final HostSharedDynamicAttributes first = new HostSharedDynamicAttributes(store, mappedFile, Arrays.asList("a"), 100000, 10000, 100000, 10, new MetricRegistry());
+        final HostSharedDynamicAttributes second = new HostSharedDynamicAttributes(store, mappedFile, Arrays.asList("b"), 100000, 10000, 100000, 10, new MetricRegistry());
+        first.start();
+        second.start();
+        try
+        {
+            Assert.assertTrue(first.isWriter());
+            Assert.assertFalse(second.isWriter());
+            waitForValue(first, "one", 1);
+            waitForValue(second, "one", 2);
+
+            int reads = store.getAllCount.get();
+            Assert.assertTrue(second.refresh());  // readers don't read the store
+            Assert.assertEquals(store.getAllCount.get(), reads);
+
+            long sequence = second.getAppliedSequence();
+            Assert.assertTrue(first.refresh());   // unchanged - nothing written
+            Assert.assertEquals(first.getAppliedSequence(), sequence);
+
+            store.put(new AttributeKey("one", "b"), "3");
+            Assert.assertTrue(first.refresh());
+            waitForValue(second, "one", 3);
+            Assert.assertTrue(second.getAppliedSequence() > sequence);
+            Assert.assertEquals((second.getAppliedSequence() % 2), 0);
+
+            // values larger than the initial file are handled by growing the file
+            StringBuilder big = new StringBuilder();
+            for ( int i = 0; i < 100000; ++i )
+            {
+                big.append('x');
+            }
+            store.put(new AttributeKey("big", ""), big.toString());
+            Assert.assertTrue(first.refresh());
+            waitFor(new Callable<Boolean>()
+            {
+                @Override
+                public Boolean call() throws Exception
+                {
+                    return second.getAttribute("big", "").length() == 100000;
+                }
+            });
+
+            first.stop();
+            waitFor(new Callable<Boolean>()
+            {
+                @Override
+                public Boolean call() throws Exception
+                {
+                    return second.isWriter();
+                }
+            });
+            store.put(new AttributeKey("one", "b"), "4");
+            waitFor(new Callable<Boolean>()
+            {
+                @Override
+                public Boolean call() throws Exception
+                {
+                    // the new writer's first refresh may have read the store before the put - refresh() waits for it rather than starting another
+                    return second.refresh() && (second.getAttributeInt("one", 0) == 4);
+                }
+            });
+        }
+        finally
+        {
+            first.stop();
+            second.stop();
+        }
+    }
+
+    @Test
+    public void testCorruptFile() throws Exception
+    {
+        MapStore store = new MapStore();
+        store.put(new AttributeKey("one", "b"), "1");
+
+        Path mappedFile = directory.resolve("attributes");
+        final HostSharedDynamicAttributes first = new HostSharedDynamicAttributes(store, mappedFile, Arrays.asList("a"), 100000, 10000, 100000, 10, new MetricRegistry());
+        final HostSharedDynamicAttributes second = new HostSharedDynamicAttributes(store, mappedFile, Arrays.asList("b"), 100000, 10000, 100000, 10, new MetricRegistry());
+        first.start();
+        second.start();
+        try
+        {
+            waitForValue(second, "one", 1);
+            long sequence = second.getAppliedSequence();
+
+            // a huge string length with a new, even sequence
+            try ( RandomAccessFile file = new RandomAccessFile(mappedFile.toFile(), "rw") )
+            {
+                file.seek(8);
+                file.writeLong(sequence + 2);
+                file.seek(24 + 4);
+                file.writeInt(Integer.MAX_VALUE);
+            }
+            Thread.sleep(100);
+            Assert.assertEquals(second.getAttributeInt("one", 0), 1);   // the previous attributes are kept
+            Assert.assertEquals(second.getAppliedSequence(), sequence);
+
+            // polling continues
+            store.put(new AttributeKey("one", "b"), "2");
+            Assert.assertTrue(first.refresh());
+            waitForValue(second, "one", 2);
+        }
+        finally
+        {
+            first.stop();
+            second.stop();
+        }
+    }
+
+    @Test
+    public void testRestartsDontGrowFile() throws Exception
+    {
+        MapStore store = new MapStore();
+        store.put(new AttributeKey("one", "a"), "1");
+
+        Path mappedFile = directory.resolve("attributes");
+        long length = 0;
+        for ( int i = 0; i < 3; ++i )
+        {
+            HostSharedDynamicAttributes attributes = new HostSharedDynamicAttributes(store, mappedFile, Arrays.asList("a"), 100000, 10000, 100000, 10, new MetricRegistry());
+            attributes.start();
+            try
+            {
+                store.put(new AttributeKey("one", "a"), String.valueOf(i));
+                Assert.assertTrue(attributes.refresh());
+                waitForValue(attributes, "one", i);
+            }
+            finally
+            {
+                attributes.stop();
+            }
+
+            if ( i == 0 )
+            {
+                length = mappedFile.toFile().length();
+            }
+            Assert.assertEquals(mappedFile.toFile().length(), length);  // each new writer re-uses the existing file
+        }
+    }
+
+    private static void waitForValue(final HostSharedDynamicAttributes attributes, final String key, final int value) throws Exception
+    {
+        waitFor(new Callable<Boolean>()
+        {
+            @Override
+            public Boolean call() throws Exception
+            {
+                return attributes.getAttributeInt(key, 0) == value;
+            }
+        });
+    }
+
+    private static void waitFor(Callable<Boolean> condition) throws Exception
+    {
+        long end = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+        while ( !condition.call() )
+        {
+            Assert.assertTrue(System.currentTimeMillis() < end, "Timed out");
+            Thread.sleep(10);
+        }
+    }
+
+    private static class MapStore extends ContainerDynamicAttributes implements WritableDynamicAttributes
+    {
+        private final Map<AttributeKey, Object> attributes = Maps.newConcurrentMap();
+        private final AtomicInteger getAllCount = new AtomicInteger(0);
+
+        MapStore()
+        {
+            super(new StandardAttributesContainer());
+        }
+
+        @Override
+        public void put(AttributeKey key, Object value)
+        {
+            attributes.put(key, value);
+        }
+
+        @Override
+        public void remove(AttributeKey key)
+        {
+            attributes.remove(key);
+        }
+
+        @Override
+        public ListenableFuture<Void> putAsync(AttributeKey key, Object value)
+        {
+            put(key, value);
+            return Futures.immediateFuture(null);
+        }
+
+        @Override
+        public ListenableFuture<Void> removeAsync(AttributeKey key)
+        {
+            remove(key);
+            return Futures.immediateFuture(null);
+        }
+
+        @Override
+        public void putAll(Map<AttributeKey, Object> attributes)
+        {
+            this.attributes.putAll(attributes);
+        }
+
+        @Override
+        public void removeAll(Collection<AttributeKey> keys)
+        {
+            for ( AttributeKey key : keys )
+            {
+                attributes.remove(key);
+            }
+        }
+
+        @Override
+        public Map<AttributeKey, Object> getAll()
+        {
+            getAllCount.incrementAndGet();
+            return Maps.newHashMap(attributes);
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/**
+ * Copyright 2014 Jordan Zimmerman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.soabase.core.features.attributes;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.Maps;
+import io.dropwizard.lifecycle.Managed;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class TestSnapshotDynamicAttributes
+{
+    private static class MockAttributes extends ContainerDynamicAttributes implements Managed
+    {
+        private final Map<AttributeKey, Object> attributes;
+        private final CountDownLatch startLatch;
+
+        MockAttributes(Map<AttributeKey, Object> attributes, CountDownLatch startLatch)
+        {
+            super(new StandardAttributesContainer(Arrays.asList("a")));
+            this.attributes = attributes;
+            this.startLatch = startLatch;
+        }
+
+        @Override
+        public void start() throws Exception
+        {
+            startLatch.await();
+            container.reset(attributes);
+        }
+
+        @Override
+        public void stop() throws Exception
+        {
+            // NOP
+        }
+    }
+
+    @Test
+    public void testSnapshot() throws Exception
+    {
+        Path directory = Files.createTempDirectory("soa");
+        Path snapshotFile = directory.resolve("snapshot.bin");
+        try
+        {
+            Map<AttributeKey, Object> attributes = Maps.newHashMap();
+            attributes.put(new AttributeKey("one", ""), "1");
+            attributes.put(new AttributeKey("two", "a"), "2");
+            SnapshotDynamicAttributes snapshot = new SnapshotDynamicAttributes(new MockAttributes(attributes, new CountDownLatch(0)), snapshotFile, 10, new MetricRegistry());
+            Assert.assertFalse(snapshot.isStale());
+            snapshot.start();
+            waitFor(snapshotFile);
+            snapshot.stop();
+
+            // backing store is "down" - values come from the snapshot
+            CountDownLatch startLatch = new CountDownLatch(1);
+            attributes = Maps.newHashMap();
+            attributes.put(new AttributeKey("one", ""), "10");
+            snapshot = new SnapshotDynamicAttributes(new MockAttributes(attributes, startLatch), snapshotFile, 10, new MetricRegistry());
+            snapshot.start();
+            Assert.assertTrue(snapshot.isStale());
+            Assert.assertEquals(snapshot.getAttributeInt("one"), 1);
+            Assert.assertEquals(snapshot.getAttributeInt("two"), 2);
+            Assert.assertTrue(snapshot.getLastSyncAgeMs() >= 0);
+
+            Files.delete(snapshotFile);
+            startLatch.countDown();
+            waitFor(snapshotFile);
+            Assert.assertFalse(snapshot.isStale());
+            Assert.assertEquals(snapshot.getAttributeInt("one"), 10);
+            Assert.assertNull(snapshot.getAttribute("two"));
+            snapshot.stop();
+        }
+        finally
+        {
+            Files.deleteIfExists(snapshotFile);
+            Files.delete(directory);
+        }
+    }
+
+    @Test
+    public void testCorruptSnapshot() throws Exception
+    {
+        Path directory = Files.createTempDirectory("soa");
+        Path snapshotFile = directory.resolve("snapshot.bin");
+        try
+        {
+            // valid header followed by a huge attribute count
+            ByteBuffer badCount = ByteBuffer.allocate(20);
+            badCount.putInt(0x534f4153).putInt(1).putLong(System.currentTimeMillis()).putInt(Integer.MAX_VALUE);
+            Files.write(snapshotFile, badCount.array());
+            SnapshotDynamicAttributes snapshot = new SnapshotDynamicAttributes(new MockAttributes(Maps.<AttributeKey, Object>newHashMap(), new CountDownLatch(0)), snapshotFile, 10, new MetricRegistry());
+            Assert.assertNull(snapshot.getAttribute("one"));
+
+            // one attribute whose key has a negative length
+            ByteBuffer badLength = ByteBuffer.allocate(36);
+            badLength.putInt(0x534f4153).putInt(1).putLong(System.currentTimeMillis()).putInt(1).putInt(-1).putInt(0).putInt(0);
+            Files.write(snapshotFile, badLength.array());
+            snapshot = new SnapshotDynamicAttributes(new MockAttributes(Maps.<AttributeKey, Object>newHashMap(), new CountDownLatch(0)), snapshotFile, 10, new MetricRegistry());
+            Assert.assertNull(snapshot.getAttribute("one"));
+
+            // truncated mid-header
+            Files.write(snapshotFile, new byte[]{0x53, 0x4f});
+            snapshot = new SnapshotDynamicAttributes(new MockAttributes(Maps.<AttributeKey, Object>newHashMap(), new CountDownLatch(0)), snapshotFile, 10, new MetricRegistry());
+            Assert.assertNull(snapshot.getAttribute("one"));
+        }
+        finally
+        {
+            Files.deleteIfExists(snapshotFile);
+            Files.delete(directory);
+        }
+    }
+
+    private void waitFor(Path path) throws InterruptedException
+    {
+        long startMs = System.currentTimeMillis();
+        while ( !Files.exists(path) )
+        {
+            Assert.assertTrue((System.currentTimeMillis() - startMs) < TimeUnit.SECONDS.toMillis(10));
+            Thread.sleep(10);
+        }
+    }
+}
@@ -15,14 +15,30 @@
  */
 package io.soabase.core.features.attributes;
 
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 import org.testng.Assert;
 import org.testng.annotations.Test;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
 
 public class TestStandardAttributesContainer
 {
+    public static class Route
+    {
+        public String a;
+        public String b;
+    }
+
     @Test
     public void testBasic()
     {
@@ -74,4 +90,538 @@ public class TestStandardAttributesContainer
         container.reset(newAttributes);
         Assert.assertEquals(container.getAttributeInt("two", 0), 1);    // other scopes don't match
     }
+
+    @Test
+    public void testOverridesSurviveReset()
+    {
+        StandardAttributesContainer container = new StandardAttributesContainer(Arrays.asList("a"));
+
+        Map<AttributeKey, Object> newAttributes = Maps.newHashMap();
+        newAttributes.put(new AttributeKey("one", ""), 1);
+        newAttributes.put(new AttributeKey("two", "a"), 2);
+        container.reset(newAttributes);
+
+        container.temporaryOverride("one", 10);
+        Assert.assertEquals(container.getAttributeInt("one", 0), 10);
+
+        newAttributes = Maps.newHashMap();
+        newAttributes.put(new AttributeKey("one", "a"), 100);
+        newAttributes.put(new AttributeKey("two", "a"), 200);
+        container.reset(newAttributes);
+        Assert.assertEquals(container.getAttributeInt("one", 0), 10);   // override still wins
+        Assert.assertEquals(container.getAttributeInt("two", 0), 200);
+
+        Assert.assertTrue(container.removeOverride("one"));
+        Assert.assertEquals(container.getAttributeInt("one", 0), 100);
+
+        container.reset(Maps.<AttributeKey, Object>newHashMap());
+        Assert.assertEquals(container.getAttributeInt("one", 0), 0);
+        Assert.assertNull(container.getAttribute("two", null));
+    }
+
+    @Test
+    public void testSystemProperties()
+    {
+        String key = "soabase.test." + System.nanoTime();
+        StandardAttributesContainer container = new StandardAttributesContainer();
+
+        Map<AttributeKey, Object> newAttributes = Maps.newHashMap();
+        newAttributes.put(new AttributeKey(key, ""), 1);
+        container.reset(newAttributes);
+
+        System.setProperty(key, "2");
+        try
+        {
+            Assert.assertEquals(container.getAttributeInt(key, 0), 1);  // captured at startup only
+            container.refreshSystemProperties();
+            Assert.assertEquals(container.getAttributeInt(key, 0), 2);
+            Assert.assertEquals(container.getAttributesWithPrefix(key).get(key), "2");   // overrides an attribute so it's listed
+
+            Assert.assertEquals(container.getAttribute("java.version", null), System.getProperty("java.version"));
+            Assert.assertFalse(container.getAttributesWithPrefix("").containsKey("java.version"));  // other system properties aren't listed
+
+            container.temporaryOverride(key, 3);
+            Assert.assertEquals(container.getAttributeInt(key, 0), 3);
+            container.removeOverride(key);
+        }
+        finally
+        {
+            System.clearProperty(key);
+        }
+        container.refreshSystemProperties();
+        Assert.assertEquals(container.getAttributeInt(key, 0), 1);
+    }
+
+    @Test
+    public void testHandles()
+    {
+        StandardAttributesContainer container = new StandardAttributesContainer(Arrays.asList("a"));
+        AttributeHandle<Long> longHandle = container.longHandle("one", -1);
+        AttributeHandle<Double> doubleHandle = container.doubleHandle("two", -1);
+        AttributeHandle<String> stringHandle = container.stringHandle("two", "def");
+        Assert.assertSame(container.longHandle("one", -1), longHandle);
+        Assert.assertEquals(longHandle.get().longValue(), -1L);
+
+        Map<AttributeKey, Object> newAttributes = Maps.newHashMap();
+        newAttributes.put(new AttributeKey("one", ""), "10");
+        newAttributes.put(new AttributeKey("two", "a"), "1.5");
+        container.reset(newAttributes);
+        Assert.assertEquals(longHandle.get().longValue(), 10L);
+        Assert.assertEquals(doubleHandle.get(), 1.5);   // doubles are no longer truncated
+        Assert.assertEquals(container.getAttributeDouble("two", 0), 1.5);
+        Assert.assertEquals(stringHandle.get(), "1.5");
+        Assert.assertEquals(container.getAttributeInt("two", -1), -1); // not a whole number - not truncated to 1
+        Assert.assertEquals(container.getAttributeLong("two", -1), -1L);
+        Assert.assertEquals(container.longHandle("two", -1).get().longValue(), -1L);
+
+        container.temporaryOverride("one", 20);
+        Assert.assertEquals(longHandle.get().longValue(), 20L);
+        container.removeOverride("one");
+        Assert.assertEquals(longHandle.get().longValue(), 10L);
+
+        container.temporaryOverride("one", "not a number");
+        Assert.assertEquals(longHandle.get().longValue(), 0L);  // non-numeric overrides are 0
+        container.removeOverride("one");
+
+        newAttributes = Maps.newHashMap();
+        newAttributes.put(new AttributeKey("one", ""), "bad");
+        container.reset(newAttributes);
+        Assert.assertEquals(longHandle.get().longValue(), -1L);
+        Assert.assertEquals(doubleHandle.get(), -1.0);
+        Assert.assertEquals(stringHandle.get(), "def");
+        Assert.assertEquals(container.longHandle("one", 5).get().longValue(), 5L);
+    }
+
+    @Test
+    public void testApplyChanges()
+    {
+        StandardAttributesContainer container = new StandardAttributesContainer();
+
+        Map<AttributeKey, Object> newAttributes = Maps.newHashMap();
+        newAttributes.put(new AttributeKey("one", ""), 1);
+        newAttributes.put(new AttributeKey("two", ""), 2);
+        container.reset(newAttributes);
+
+        Map<AttributeKey, Object> upserts = Maps.newHashMap();
+        upserts.put(new AttributeKey("three", ""), 3);
+        container.applyChanges(upserts, Arrays.asList(new AttributeKey("two", ""), new AttributeKey("missing", "")));
+        Assert.assertEquals(container.getAttributeInt("one", 0), 1);    // untouched
+        Assert.assertEquals(container.getAttributeInt("two", 0), 0);
+        Assert.assertEquals(container.getAttributeInt("three", 0), 3);
+        Assert.assertEquals(container.getAll().size(), 2);
+    }
+
+    @Test
+    public void testChanges() throws Exception
+    {
+        StandardAttributesContainer container = new StandardAttributesContainer(Arrays.<String>asList(), 3);
+        AttributeChanges changes = container.getChangesSince(0);
+        Assert.assertEquals(changes.getVersion(), 0);
+        Assert.assertFalse(changes.isFull());
+        Assert.assertEquals(changes.getChanges().size(), 0);
+
+        ListenableFuture<Long> future = container.waitForChange(0);
+        Assert.assertFalse(future.isDone());
+
+        Map<AttributeKey, Object> upserts = Maps.newHashMap();
+        upserts.put(new AttributeKey("one", ""), 1);
+        container.applyChanges(upserts, Arrays.<AttributeKey>asList());
+        Assert.assertEquals(future.get(1, TimeUnit.SECONDS).longValue(), 1L);
+        Assert.assertTrue(container.waitForChange(0).isDone());
+
+        upserts = Maps.newHashMap();
+        upserts.put(new AttributeKey("one", ""), 2);
+        container.applyChanges(upserts, Arrays.asList(new AttributeKey("missing", "")));
+        container.applyChanges(upserts, Arrays.<AttributeKey>asList());    // no change - no new version
+        changes = container.getChangesSince(1);
+        Assert.assertEquals(changes.getVersion(), 2);
+        Assert.assertFalse(changes.isFull());
+        Assert.assertEquals(changes.getChanges().size(), 1);
+        Assert.assertEquals(changes.getChanges().get(0).getValue(), "2");
+
+        container.applyChanges(Maps.<AttributeKey, Object>newHashMap(), Arrays.asList(new AttributeKey("one", "")));
+        changes = container.getChangesSince(2);
+        Assert.assertEquals(changes.getChanges().size(), 1);
+        Assert.assertTrue(changes.getChanges().get(0).isRemoved());
+        Assert.assertEquals(container.getChangesSince(0).getChanges().size(), 3);
+
+        upserts = Maps.newHashMap();
+        upserts.put(new AttributeKey("two", ""), 2);
+        upserts.put(new AttributeKey("three", ""), 3);
+        container.applyChanges(upserts, Arrays.<AttributeKey>asList());
+        changes = container.getChangesSince(1);  // fallen too far behind
+        Assert.assertEquals(changes.getVersion(), 4);
+        Assert.assertTrue(changes.isFull());
+        Assert.assertEquals(changes.getChanges().size(), 2);
+        Assert.assertFalse(container.getChangesSince(2).isFull());
+        Assert.assertTrue(container.getChangesSince(100).isFull());
+    }
+
+    @Test
+    public void testSnapshot() throws Exception
+    {
+        StandardAttributesContainer container = new StandardAttributesContainer();
+        Map<AttributeKey, Object> newAttributes = Maps.newHashMap();
+        newAttributes.put(new AttributeKey("pool.min", ""), 1);
+        newAttributes.put(new AttributeKey("pool.max", ""), 10);
+        container.reset(newAttributes);
+
+        AttributesSnapshot snapshot = container.snapshot();
+        Assert.assertEquals(snapshot.getVersion(), 1);
+
+        newAttributes = Maps.newHashMap();
+        newAttributes.put(new AttributeKey("pool.min", ""), 20);
+        newAttributes.put(new AttributeKey("pool.max", ""), 200);
+        container.reset(newAttributes);
+        Assert.assertEquals(snapshot.getAttributeInt("pool.min"), 1);
+        Assert.assertEquals(snapshot.getAttributeInt("pool.max"), 10);
+        Assert.assertEquals(container.getAttributeInt("pool.max", 0), 200);
+        Assert.assertEquals(container.snapshot().getVersion(), 2);
+
+        final DynamicAttributes attributes = new ContainerDynamicAttributes(container)
+        {
+        };
+        final AttributesSnapshot[] pinned = new AttributesSnapshot[1];
+        FilterChain chain = new FilterChain()
+        {
+            @Override
+            public void doFilter(ServletRequest request, ServletResponse response)
+            {
+                pinned[0] = AttributesSnapshotFilter.snapshot(attributes);
+                Assert.assertSame(AttributesSnapshotFilter.snapshot(attributes), pinned[0]);
+            }
+        };
+        new AttributesSnapshotFilter(attributes).doFilter(null, null, chain);
+        Assert.assertEquals(pinned[0].getAttributeInt("pool.min"), 20);
+
+        container.temporaryOverride("pool.min", 30);
+        Assert.assertEquals(AttributesSnapshotFilter.snapshot(attributes).getAttributeInt("pool.min"), 30);  // not pinned outside of the filter
+        Assert.assertEquals(pinned[0].getAttributeInt("pool.min"), 20);
+    }
+
+    @Test
+    public void testETag()
+    {
+        StandardAttributesContainer container = new StandardAttributesContainer();
+        Map<AttributeKey, Object> newAttributes = Maps.newHashMap();
+        newAttributes.put(new AttributeKey("one", ""), 1);
+        container.reset(newAttributes);
+        String eTag = container.snapshot().getETag();
+
+        container.reset(newAttributes);   // no changes
+        Assert.assertEquals(container.snapshot().getETag(), eTag);
+
+        container.temporaryOverride("one", 2);  // overrides don't change the version but do change the tag
+        Assert.assertEquals(container.snapshot().getVersion(), 1);
+        Assert.assertNotEquals(container.snapshot().getETag(), eTag);
+        eTag = container.snapshot().getETag();
+
+        newAttributes.put(new AttributeKey("two", ""), 2);
+        container.reset(newAttributes);
+        Assert.assertNotEquals(container.snapshot().getETag(), eTag);
+
+        Assert.assertNotEquals(new StandardAttributesContainer().snapshot().getETag(), new StandardAttributesContainer().snapshot().getETag());
+    }
+
+    @Test
+    public void testPrefix()
+    {
+        StandardAttributesContainer container = new StandardAttributesContainer(Arrays.asList("a"));
+        Map<AttributeKey, Object> newAttributes = Maps.newHashMap();
+        newAttributes.put(new AttributeKey("service.db.pool.min", ""), 1);
+        newAttributes.put(new AttributeKey("service.db.pool.max", "a"), 10);
+        newAttributes.put(new AttributeKey("service.db.pool.max", ""), 5);
+        newAttributes.put(new AttributeKey("service.db.pool.idle", "other"), 3);   // not in this instance's scopes
+        newAttributes.put(new AttributeKey("service.db.url", ""), "jdbc");
+        newAttributes.put(new AttributeKey("feature.checkout", ""), 1);
+        container.reset(newAttributes);
+
+        Map<String, String> pool = container.getAttributesWithPrefix("service.db.pool.");
+        Assert.assertEquals(Lists.newArrayList(pool.keySet()), Arrays.asList("service.db.pool.max", "service.db.pool.min"));
+        Assert.assertEquals(pool.get("service.db.pool.max"), "10");
+        Assert.assertNull(pool.get("service.db.url"));
+
+        container.temporaryOverride("service.db.pool.min", 2);
+        Assert.assertEquals(pool.get("service.db.pool.min"), "1");    // views are from a snapshot
+        Assert.assertEquals(container.getAttributesWithPrefix("service.db.pool.").get("service.db.pool.min"), "2");
+
+        Assert.assertEquals(container.getAttributesWithPrefix("service.db.pool.min").size(), 1);
+        Assert.assertEquals(container.getAttributesWithPrefix("service").size(), 3);
+        Assert.assertEquals(container.getAttributesWithPrefix("zzz").size(), 0);
+        Assert.assertTrue(container.getAttributesWithPrefix("").containsKey("feature.checkout"));    // an empty prefix matches every attribute
+        Assert.assertFalse(container.getAttributesWithPrefix("").containsKey("java.version"));  // but not system properties that don't override one
+    }
+
+    @Test
+    public void testPrefixAfterKeyChanges()
+    {
+        StandardAttributesContainer container = new StandardAttributesContainer(Arrays.asList("a"));
+        Random random = new Random(1);
+        Map<AttributeKey, Object> newAttributes = Maps.newHashMap();
+        for ( int i = 0; i < 50; ++i )
+        {
+            // add some keys, remove some keys and change some values
+            for ( int j = 0; j < 5; ++j )
+            {
+                newAttributes.put(new AttributeKey("key" + random.nextInt(100), ""), i);
+                newAttributes.remove(new AttributeKey("key" + random.nextInt(100), ""));
+            }
+            container.reset(newAttributes);
+            if ( (i % 10) == 0 )
+            {
+                container.temporaryOverride("key" + random.nextInt(200), i);
+            }
+
+            Map<String, String> all = container.getAttributesWithPrefix("key");
+            List<String> expected = Lists.newArrayList(Sets.newTreeSet(all.keySet()));
+            Assert.assertEquals(Lists.newArrayList(all.keySet()), expected);
+            for ( AttributeKey key : newAttributes.keySet() )
+            {
+                Assert.assertTrue(all.containsKey(key.getKey()), key.getKey());
+            }
+            for ( Map.Entry<String, String> entry : all.entrySet() )
+            {
+                Assert.assertNotNull(entry.getValue(), entry.getKey());  // no removed keys left in the index
+            }
+        }
+    }
+
+    @Test
+    public void testFeatureFlags()
+    {
+        StandardAttributesContainer container = new StandardAttributesContainer(Arrays.asList("instance", "canary"));
+        Map<AttributeKey, Object> newAttributes = Maps.newHashMap();
+        newAttributes.put(new AttributeKey("on", ""), "true");
+        newAttributes.put(new AttributeKey("off", ""), 0);
+        newAttributes.put(new AttributeKey("literal-off", ""), " False ");
+        newAttributes.put(new AttributeKey("half", ""), "percent:50; allow:alice; deny:bob");
+        newAttributes.put(new AttributeKey("canary-only", ""), "percent:100;scope:canary");
+        newAttributes.put(new AttributeKey("prod-only", ""), "percent:100;scope:prod");
+        newAttributes.put(new AttributeKey("bad", ""), "percent:lots");
+        container.reset(newAttributes);
+
+        Assert.assertTrue(container.isEnabled("on", "x"));
+        Assert.assertTrue(container.isEnabled("on", null));
+        Assert.assertFalse(container.isEnabled("off", "x"));
+        Assert.assertFalse(container.isEnabled("literal-off", "x"));
+        Assert.assertFalse(container.isEnabled("missing", "x"));
+        Assert.assertFalse(container.isEnabled("bad", "x"));
+        Assert.assertTrue(container.isEnabled("canary-only", "x"));
+        Assert.assertFalse(container.isEnabled("prod-only", "x"));
+        Assert.assertTrue(container.isEnabled("half", "alice"));
+        Assert.assertFalse(container.isEnabled("half", "bob"));
+        Assert.assertFalse(container.isEnabled("half", null));
+
+        int enabledCount = 0;
+        for ( int i = 0; i < 10000; ++i )
+        {
+            String userKey = "user" + i;
+            boolean enabled = container.isEnabled("half", userKey);
+            Assert.assertEquals(container.isEnabled("half", userKey), enabled);  // consistent
+            if ( enabled )
+            {
+                ++enabledCount;
+            }
+        }
+        Assert.assertTrue((enabledCount > 4500) && (enabledCount < 5500), "enabled: " + enabledCount);
+
+        List<FeatureFlagStats> stats = container.getFeatureFlagStats();
+        Assert.assertEquals(stats.size(), 7);
+        FeatureFlagStats halfStats = stats.get(2);
+        Assert.assertEquals(halfStats.getFlag(), "half");
+        Assert.assertEquals(halfStats.getEvaluations(), 20003);
+        Assert.assertEquals(halfStats.getEnabled(), (2 * enabledCount) + 1);
+
+        container.temporaryOverride("half", "percent:0;allow:carol");
+        Assert.assertFalse(container.isEnabled("half", "alice"));
+        Assert.assertTrue(container.isEnabled("half", "carol"));
+    }
+
+    @Test
+    public void testReadTracking()
+    {
+        StandardAttributesContainer container = new StandardAttributesContainer();
+        Map<AttributeKey, Object> newAttributes = Maps.newHashMap();
+        newAttributes.put(new AttributeKey("hot", ""), 1);
+        newAttributes.put(new AttributeKey("warm", ""), 2);
+        newAttributes.put(new AttributeKey("dead", ""), 3);
+        container.reset(newAttributes);
+
+        container.getAttributeInt("hot", 0);    // not tracked yet
+        AttributeReadTracker tracker = container.getReadTracker();
+        Assert.assertFalse(tracker.isEnabled());
+        Assert.assertEquals(tracker.getStats(10).getTotalReads(), 0);
+
+        tracker.enable(1);
+        for ( int i = 0; i < 10; ++i )
+        {
+            container.getAttributeInt("hot", 0);
+        }
+        container.getAttribute("warm", "");
+        container.snapshot().getAttributeInt("missing", 5);
+
+        AttributeReadStats stats = tracker.getStats(2);
+        Assert.assertEquals(stats.getTotalReads(), 12);
+        Assert.assertEquals(stats.getHotKeys().size(), 2);
+        Assert.assertEquals(stats.getHotKeys().get(0).getKey(), "hot");
+        Assert.assertEquals(stats.getHotKeys().get(0).getReads(), 10);
+        Assert.assertEquals(stats.getMissedKeys().size(), 1);
+        Assert.assertEquals(stats.getMissedKeys().get(0).getKey(), "missing");
+        Assert.assertEquals(stats.getUnreadKeys(), Arrays.asList("dead"));
+
+        tracker.disable();
+        container.getAttributeInt("dead", 0);
+        Assert.assertEquals(tracker.getStats(10).getUnreadKeys(), Arrays.asList("dead"));
+
+        tracker.reset();
+        Assert.assertEquals(tracker.getStats(10).getTotalReads(), 0);
+    }
+
+    @Test
+    public void testBatchListener()
+    {
+        StandardAttributesContainer container = new StandardAttributesContainer();
+        Map<AttributeKey, Object> newAttributes = Maps.newHashMap();
+        newAttributes.put(new AttributeKey("one", ""), "1");
+        newAttributes.put(new AttributeKey("two", ""), "2");
+        container.reset(newAttributes);
+
+        final List<AttributeChangeSet> batches = Lists.newArrayList();
+        container.getBatchListenable().addListener(new DynamicAttributeBatchListener()
+        {
+            @Override
+            public void attributesChanged(AttributeChangeSet changes)
+            {
+                batches.add(changes);
+            }
+        }, MoreExecutors.directExecutor());
+        final List<String> perKey = Lists.newArrayList();
+        container.getListenable().addListener(new DynamicAttributeListenerAdapter()
+        {
+            @Override
+            public void attributeChanged(String key, String scope)
+            {
+                perKey.add("changed:" + key);
+            }
+
+            @Override
+            public void attributeAdded(String key, String scope)
+            {
+                perKey.add("added:" + key);
+            }
+
+            @Override
+            public void attributeRemoved(String key, String scope)
+            {
+                perKey.add("removed:" + key);
+            }
+
+            @Override
+            public void overrideAdded(String key)
+            {
+                perKey.add("overrideAdded:" + key);
+            }
+        }, MoreExecutors.directExecutor());
+
+        newAttributes = Maps.newHashMap();
+        newAttributes.put(new AttributeKey("one", ""), "1");
+        newAttributes.put(new AttributeKey("two", ""), "two");
+        newAttributes.put(new AttributeKey("three", ""), "3");
+        container.reset(newAttributes);
+        container.reset(newAttributes);    // no changes - no notification
+        newAttributes.remove(new AttributeKey("one", ""));
+        container.reset(newAttributes);
+
+        Assert.assertEquals(batches.size(), 2);
+        AttributeChangeSet changes = batches.get(0);
+        Assert.assertFalse(changes.isOverrides());
+        Assert.assertEquals(changes.size(), 2);
+        Assert.assertEquals(changes.getAdded().get(0).getKey(), "three");
+        Assert.assertEquals(changes.getAdded().get(0).getNewValue(), "3");
+        Assert.assertEquals(changes.getChanged().get(0).getKey(), "two");
+        Assert.assertEquals(changes.getChanged().get(0).getOldValue(), "2");
+        Assert.assertEquals(changes.getChanged().get(0).getNewValue(), "two");
+        Assert.assertEquals(batches.get(1).getRemoved().get(0).getKey(), "one");
+        Assert.assertEquals(batches.get(1).getRemoved().get(0).getOldValue(), "1");
+        Assert.assertEquals(perKey, Arrays.asList("added:three", "changed:two", "removed:one"));
+
+        container.temporaryOverride("two", "x");
+        Assert.assertEquals(batches.size(), 3);
+        Assert.assertTrue(batches.get(2).isOverrides());
+        Assert.assertEquals(batches.get(2).getChanged().size(), 0);
+        Assert.assertEquals(batches.get(2).getAdded().get(0).getNewValue(), "x");
+        Assert.assertEquals(perKey.get(perKey.size() - 1), "overrideAdded:two");
+    }
+
+    @Test
+    public void testCoalesceChanges()
+    {
+        List<AttributeValueChange> none = Lists.newArrayList();
+        AttributeChangeSet first = new AttributeChangeSet
+        (
+            Arrays.asList(new AttributeValueChange("one", "", null, "1"), new AttributeValueChange("two", "", null, "2")),
+            Arrays.asList(new AttributeValueChange("three", "", "3", "30")),
+            none
+        );
+        AttributeChangeSet second = new AttributeChangeSet
+        (
+            none,
+            Arrays.asList(new AttributeValueChange("one", "", "1", "10"), new AttributeValueChange("three", "", "30", "3")),
+            Arrays.asList(new AttributeValueChange("two", "", "2", null), new AttributeValueChange("four", "", "4", null))
+        );
+
+        AttributeChangeSet combined = AttributeChangeSet.coalesce(first, second);
+        Assert.assertEquals(combined.getAdded().size(), 1);    // added then changed is still an add
+        Assert.assertEquals(combined.getAdded().get(0).getKey(), "one");
+        Assert.assertEquals(combined.getAdded().get(0).getNewValue(), "10");
+        Assert.assertEquals(combined.getChanged().size(), 0);  // "three" was changed back and "two" was added then removed
+        Assert.assertEquals(combined.getRemoved().size(), 1);
+        Assert.assertEquals(combined.getRemoved().get(0).getKey(), "four");
+        Assert.assertFalse(combined.isResync());
+    }
+
+    @Test
+    public void testObjectValues()
+    {
+        StandardAttributesContainer container = new StandardAttributesContainer();
+        Map<AttributeKey, Object> newAttributes = Maps.newHashMap();
+        newAttributes.put(new AttributeKey("routes", ""), "{\"a\":\"host-a\",\"b\":\"host-b\"}");
+        newAttributes.put(new AttributeKey("bad", ""), "{not json");
+        newAttributes.put(new AttributeKey("other", ""), "1");
+        container.reset(newAttributes);
+
+        Map<?, ?> routes = container.getAttributeObject("routes", Map.class, null);
+        Assert.assertNotNull(routes);
+        Assert.assertEquals(routes.get("b"), "host-b");
+        Assert.assertSame(container.getAttributeObject("routes", Map.class, null), routes);   // deserialized once
+        try
+        {
+            routes.clear();
+            Assert.fail();
+        }
+        catch ( UnsupportedOperationException expected )
+        {
+            // shared instances are immutable
+        }
+
+        Route route = container.getAttributeObject("routes", Route.class, null);
+        Assert.assertEquals(route.b, "host-b");
+        route.b = "changed";
+        Route other = container.getAttributeObject("routes", Route.class, null);
+        Assert.assertNotSame(other, route);    // mutable types are a new instance per call
+        Assert.assertEquals(other.b, "host-b");
+        Assert.assertNull(container.getAttributeObject("bad", Map.class, null));
+        Assert.assertNull(container.getAttributeObject("missing", Map.class, null));
+        Assert.assertEquals(container.getAttributeObject("missing", String.class, "default"), "default");
+
+        newAttributes.put(new AttributeKey("other", ""), "2");
+        container.reset(newAttributes);
+        Assert.assertSame(container.getAttributeObject("routes", Map.class, null), routes);   // unchanged keys keep their instance
+
+        newAttributes.put(new AttributeKey("routes", ""), "{\"a\":\"host-c\"}");
+        container.reset(newAttributes);
+        Map<?, ?> newRoutes = container.getAttributeObject("routes", Map.class, null);
+        Assert.assertNotSame(newRoutes, routes);
+        Assert.assertEquals(newRoutes.get("a"), "host-c");
+    }
 }
@@ -0,0 +1,269 @@
+/**
+ * Copyright 2014 Jordan Zimmerman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.soabase.core.listening;
+
+import com.google.common.base.Function;
+import com.google.common.collect.Lists;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class TestListenerContainer
+{
+    private static class Recorder
+    {
+        final List<Integer> values = Collections.synchronizedList(Lists.<Integer>newArrayList());
+    }
+
+    @Test
+    public void testOrderAndSlowListener() throws Exception
+    {
+        ListenerDispatcher dispatcher = new ListenerDispatcher("test", 2);
+        ListenerContainer<Recorder> container = new ListenerContainer<>(dispatcher, 100);
+
+        final CountDownLatch blockLatch = new CountDownLatch(1);
+        final Recorder slow = new Recorder();
+        final Recorder fast = new Recorder();
+        container.addListener(slow);
+        container.addListener(fast);
+
+        for ( int i = 0; i < 50; ++i )
+        {
+            final int value = i;
+            Function<Recorder, Void> function = new Function<Recorder, Void>()
+            {
+                @Override
+                public Void apply(Recorder recorder)
+                {
+                    if ( recorder == slow )
+                    {
+                        try
+                        {
+                            blockLatch.await();
+                        }
+                        catch ( InterruptedException e )
+                        {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                    recorder.values.add(value);
+                    return null;
+                }
+            };
+            container.forEach(function);    // must not block even though the slow listener is blocked
+        }
+
+        waitForSize(fast.values, 50);
+        Assert.assertEquals(slow.values.size(), 0);
+        blockLatch.countDown();
+        waitForSize(slow.values, 50);
+
+        for ( int i = 0; i < 50; ++i )
+        {
+            Assert.assertEquals(fast.values.get(i).intValue(), i);
+            Assert.assertEquals(slow.values.get(i).intValue(), i);
+        }
+    }
+
+    @Test
+    public void testCoalesceAndCapacity() throws Exception
+    {
+        ListenerDispatcher dispatcher = new ListenerDispatcher("test", 1);
+        ListenerQueue queue = dispatcher.newQueue("test", 3);
+
+        final CountDownLatch blockLatch = new CountDownLatch(1);
+        final List<String> values = Collections.synchronizedList(Lists.<String>newArrayList());
+        queue.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    blockLatch.await();
+                }
+                catch ( InterruptedException e )
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        waitForSize(queue, 0);  // the blocker is running
+
+        queue.execute(adder(values, "a1"), "a");
+        queue.execute(adder(values, "b"), "b");
+        queue.execute(adder(values, "a2"), "a");    // supersedes a1 in its place
+        queue.execute(adder(values, "c"), null);
+        queue.execute(adder(values, "d"), null);    // queue is full - dropped
+        Assert.assertEquals(queue.size(), 3);
+        Assert.assertEquals(dispatcher.getQueueDepth(), 3);
+
+        blockLatch.countDown();
+        waitForSize(values, 3);
+        Assert.assertEquals(values, Lists.newArrayList("a2", "b", "c"));
+        Assert.assertEquals(dispatcher.getCoalesced().getCount(), 1);
+        Assert.assertEquals(dispatcher.getDropped().getCount(), 1);
+        Assert.assertEquals(dispatcher.getQueueDepth(), 0);
+    }
+
+    @Test
+    public void testCoalesceEventsAndResync() throws Exception
+    {
+        ListenerDispatcher dispatcher = new ListenerDispatcher("test", 1);
+        ListenerContainer<Recorder> container = new ListenerContainer<>();
+        final Recorder recorder = new Recorder();
+        container.addListener(recorder, dispatcher.newQueue("test", 2));
+
+        final CountDownLatch blockLatch = new CountDownLatch(1);
+        ListenerEventHandler<Recorder, Integer> handler = new ListenerEventHandler<Recorder, Integer>()
+        {
+            @Override
+            public void deliver(Recorder listener, Integer event)
+            {
+                if ( event == 0 )
+                {
+                    try
+                    {
+                        blockLatch.await();
+                    }
+                    catch ( InterruptedException e )
+                    {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                listener.values.add(event);
+            }
+
+            @Override
+            public Integer coalesce(Integer earlier, Integer later)
+            {
+                return earlier + later;
+            }
+
+            @Override
+            public Integer resync()
+            {
+                return -1;
+            }
+        };
+
+        container.forEach(0, null, handler);
+        Thread.sleep(100);  // let the blocking event start
+        container.forEach(1, "a", handler);
+        container.forEach(10, "b", handler);
+        container.forEach(2, "a", handler);   // combined with 1 - still delivered before 10
+        Assert.assertEquals(dispatcher.getCoalesced().getCount(), 1);
+        blockLatch.countDown();
+        waitForSize(recorder.values, 3);
+        Assert.assertEquals(recorder.values, Lists.newArrayList(0, 3, 10));
+
+        final CountDownLatch blockLatch2 = new CountDownLatch(1);
+        container.forEach(0, null, new ListenerEventHandler<Recorder, Integer>()
+        {
+            @Override
+            public void deliver(Recorder listener, Integer event)
+            {
+                try
+                {
+                    blockLatch2.await();
+                }
+                catch ( InterruptedException e )
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            @Override
+            public Integer coalesce(Integer earlier, Integer later)
+            {
+                return later;
+            }
+
+            @Override
+            public Integer resync()
+            {
+                return null;
+            }
+        });
+        Thread.sleep(100);
+        recorder.values.clear();
+        container.forEach(1, null, handler);
+        container.forEach(2, null, handler);
+        container.forEach(3, null, handler);    // queue is full - the queued events are replaced with a resync
+        Assert.assertEquals(dispatcher.getDropped().getCount(), 3);
+        blockLatch2.countDown();
+        waitForSize(recorder.values, 1);
+        Assert.assertEquals(recorder.values, Lists.newArrayList(-1));
+        Assert.assertEquals(dispatcher.getQueueDepth(), 0);
+    }
+
+    @Test
+    public void testQueueListenersOptOut() throws Exception
+    {
+        ListenerDispatcher dispatcher = new ListenerDispatcher("test", 1);
+        ListenerContainer<Recorder> container = new ListenerContainer<>(dispatcher, 10);
+        container.setQueueListeners(false);
+        Recorder recorder = new Recorder();
+        container.addListener(recorder);
+
+        final Thread callingThread = Thread.currentThread();
+        container.forEach(new Function<Recorder, Void>()
+        {
+            @Override
+            public Void apply(Recorder recorder)
+            {
+                recorder.values.add((Thread.currentThread() == callingThread) ? 1 : 0);
+                return null;
+            }
+        });
+        Assert.assertEquals(recorder.values, Lists.newArrayList(1));  // called directly
+    }
+
+    private static Runnable adder(final List<String> values, final String value)
+    {
+        return new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                values.add(value);
+            }
+        };
+    }
+
+    private static void waitForSize(List<?> list, int size) throws InterruptedException
+    {
+        long start = System.currentTimeMillis();
+        while ( (list.size() != size) && ((System.currentTimeMillis() - start) < TimeUnit.SECONDS.toMillis(10)) )
+        {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(list.size(), size);
+    }
+
+    private static void waitForSize(ListenerQueue queue, int size) throws InterruptedException
+    {
+        long start = System.currentTimeMillis();
+        while ( (queue.size() != size) && ((System.currentTimeMillis() - start) < TimeUnit.SECONDS.toMillis(10)) )
+        {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(queue.size(), size);
+    }
+}
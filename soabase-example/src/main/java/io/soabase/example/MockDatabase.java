@@ -58,6 +58,9 @@ public class MockDatabase
 
         AttributeEntityMapper mapper = session.getMapper(AttributeEntityMapper.class);
         mapper.createTable();
+        mapper.createTimestampIndex();
+        mapper.createScopeIndex();
+        mapper.createDeletionsTable();
 
         mapper.insert(new AttributeEntity("test", "global"));
         mapper.insert(new AttributeEntity("test2", "hello", "one"));
@@ -18,6 +18,8 @@ package io.soabase.sql.attributes;
 import org.apache.ibatis.annotations.CacheNamespace;
 import org.apache.ibatis.annotations.Delete;
 import org.apache.ibatis.annotations.Insert;
+import org.apache.ibatis.annotations.Options;
+import org.apache.ibatis.annotations.Param;
 import org.apache.ibatis.annotations.Select;
 import org.apache.ibatis.annotations.Update;
 import java.util.List;
@@ -26,17 +28,62 @@ import java.util.List;
 public interface AttributeEntityMapper
 {
     @Select("SELECT * FROM SoaAttributes")
+    @Options(useCache = false, flushCache = true)
     public List<AttributeEntity> selectAll();
 
+    @Select({
+        "<script>",
+        "SELECT * FROM SoaAttributes WHERE fSCOPE IN",
+        "<foreach item='scope' collection='scopes' open='(' separator=',' close=')'>#{scope}</foreach>",
+        "</script>"
+    })
+    @Options(useCache = false, flushCache = true)
+    public List<AttributeEntity> selectForScopes(@Param("scopes") List<String> scopes);
+
+    @Select({
+        "<script>",
+        "SELECT * FROM SoaAttributes WHERE fTIMESTAMP >= #{since} AND fSCOPE IN",
+        "<foreach item='scope' collection='scopes' open='(' separator=',' close=')'>#{scope}</foreach>",
+        "</script>"
+    })
+    @Options(useCache = false, flushCache = true)
+    public List<AttributeEntity> selectSinceForScopes(@Param("since") String since, @Param("scopes") List<String> scopes);
+
+    @Select("SELECT * FROM SoaAttributesDeletions WHERE fTIMESTAMP >= #{since}")
+    @Options(useCache = false, flushCache = true)
+    public List<AttributeEntity> selectDeletionsSince(String since);
+
+    @Select("SELECT COUNT(*) FROM SoaAttributesDeletions")
+    @Options(useCache = false, flushCache = true)
+    public int countDeletions();
+
     @Update("CREATE TABLE SoaAttributes (fKEY VARCHAR(255) NOT NULL, fSCOPE VARCHAR(255) NOT NULL, fVALUE VARCHAR(65535), fTIMESTAMP VARCHAR(255) NOT NULL, PRIMARY KEY (fKEY, fSCOPE))")
     public int createTable();
 
+    @Update("CREATE INDEX SoaAttributesTimestamp ON SoaAttributes (fTIMESTAMP)")
+    public int createTimestampIndex();
+
+    @Update("CREATE INDEX SoaAttributesScope ON SoaAttributes (fSCOPE)")
+    public int createScopeIndex();
+
+    @Update("CREATE TABLE SoaAttributesDeletions (fKEY VARCHAR(255) NOT NULL, fSCOPE VARCHAR(255) NOT NULL, fTIMESTAMP VARCHAR(255) NOT NULL, PRIMARY KEY (fKEY, fSCOPE))")
+    public int createDeletionsTable();
+
     @Insert("INSERT INTO SoaAttributes (fKEY, fSCOPE, fVALUE, fTIMESTAMP) VALUES (#{fKEY}, #{fSCOPE}, #{fVALUE}, #{fTIMESTAMP})")
     public int insert(AttributeEntity attribute);
 
-    @Update("UPDATE SoaAttributes SET fVALUE = #{fVALUE} WHERE fKEY = #{fKEY} AND fSCOPE = #{fSCOPE}")
+    @Update("UPDATE SoaAttributes SET fVALUE = #{fVALUE}, fTIMESTAMP = #{fTIMESTAMP} WHERE fKEY = #{fKEY} AND fSCOPE = #{fSCOPE}")
     public int update(AttributeEntity attribute);
 
     @Delete("DELETE FROM SoaAttributes WHERE fKEY = #{fKEY} AND fSCOPE = #{fSCOPE}")
     public int delete(AttributeEntity attribute);
+
+    @Insert("INSERT INTO SoaAttributesDeletions (fKEY, fSCOPE, fTIMESTAMP) VALUES (#{fKEY}, #{fSCOPE}, #{fTIMESTAMP})")
+    public int insertDeletion(AttributeEntity attribute);
+
+    @Delete("DELETE FROM SoaAttributesDeletions WHERE fKEY = #{fKEY} AND fSCOPE = #{fSCOPE}")
+    public int deleteDeletion(AttributeEntity attribute);
+
+    @Delete("DELETE FROM SoaAttributesDeletions WHERE fTIMESTAMP < #{before}")
+    public int pruneDeletions(String before);
 }
@@ -0,0 +1,193 @@
+/**
+ * Copyright 2014 Jordan Zimmerman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.soabase.sql.attributes;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.soabase.core.features.attributes.AttributeKey;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Group commit for async writes. Writes are queued and, after a short window (or when enough writes are queued),
+ * committed together in a single transaction.
+ */
+class SqlAttributesWriter
+{
+    private final Logger log = LoggerFactory.getLogger(getClass());
+    private final SqlDynamicAttributes attributes;
+    private final long windowMs;
+    private final int maxBatchSize;
+    private final ScheduledThreadPoolExecutor executorService = new ScheduledThreadPoolExecutor(1, new ThreadFactoryBuilder().setNameFormat("SqlAttributesWriter-%d").setDaemon(true).build());
+    private List<PendingWrite> pending = Lists.newArrayList();  // guarded by this
+    private boolean flushScheduled = false; // guarded by this
+    private boolean isOpen = true;  // guarded by this
+    private static final long CLOSE_TIMEOUT_MS = TimeUnit.SECONDS.toMillis(10);
+
+    private final Runnable flusher = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            flush();
+        }
+    };
+
+    private static class PendingWrite
+    {
+        private final AttributeKey key;
+        private final Object value;    // null means remove
+        private final SettableFuture<Void> future = SettableFuture.create();
+
+        private PendingWrite(AttributeKey key, Object value)
+        {
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    SqlAttributesWriter(SqlDynamicAttributes attributes, long windowMs, int maxBatchSize)
+    {
+        Preconditions.checkArgument(maxBatchSize > 0, "maxBatchSize must be greater than 0");
+        this.attributes = Preconditions.checkNotNull(attributes, "attributes cannot be null");
+        this.windowMs = windowMs;
+        this.maxBatchSize = maxBatchSize;
+        executorService.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);   // close() flushes immediately - don't wait for the window
+    }
+
+    /**
+     * Queue a write
+     *
+     * @param key key
+     * @param value new value or null to remove
+     * @return future that completes when the write is committed
+     */
+    ListenableFuture<Void> write(AttributeKey key, Object value)
+    {
+        PendingWrite write = new PendingWrite(Preconditions.checkNotNull(key, "key cannot be null"), value);
+        synchronized(this)
+        {
+            if ( !isOpen )
+            {
+                write.future.setException(new IllegalStateException("Writer is closed"));
+                return write.future;
+            }
+
+            pending.add(write);
+            if ( pending.size() >= maxBatchSize )
+            {
+                executorService.execute(flusher);
+            }
+            else if ( !flushScheduled )
+            {
+                flushScheduled = true;
+                executorService.schedule(flusher, windowMs, TimeUnit.MILLISECONDS);
+            }
+        }
+        return write.future;
+    }
+
+    /**
+     * Commit any queued writes and stop accepting new writes. Waits up to {@link #CLOSE_TIMEOUT_MS}
+     * for the queued writes to be committed - the writer thread is a daemon so they'd otherwise be lost
+     * if the JVM exits (or the connection pool is closed) first.
+     */
+    void close()
+    {
+        synchronized(this)
+        {
+            if ( !isOpen )
+            {
+                return;
+            }
+            isOpen = false;
+        }
+        executorService.execute(flusher);
+        executorService.shutdown();
+        try
+        {
+            if ( !executorService.awaitTermination(CLOSE_TIMEOUT_MS, TimeUnit.MILLISECONDS) )
+            {
+                log.warn(String.format("Queued attribute writes were not committed within %d ms", CLOSE_TIMEOUT_MS));
+            }
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void flush()
+    {
+        List<PendingWrite> batch;
+        synchronized(this)
+        {
+            batch = pending;
+            pending = Lists.newArrayList();
+            flushScheduled = false;
+        }
+        if ( batch.isEmpty() )
+        {
+            return;
+        }
+
+        // later writes to the same key win
+        Map<AttributeKey, Object> upserts = Maps.newLinkedHashMap();
+        Map<AttributeKey, Object> latest = Maps.newLinkedHashMap();
+        for ( PendingWrite write : batch )
+        {
+            latest.put(write.key, write.value);
+        }
+        List<AttributeKey> deletes = Lists.newArrayList();
+        for ( Map.Entry<AttributeKey, Object> entry : latest.entrySet() )
+        {
+            if ( entry.getValue() != null )
+            {
+                upserts.put(entry.getKey(), entry.getValue());
+            }
+            else
+            {
+                deletes.add(entry.getKey());
+            }
+        }
+
+        try
+        {
+            attributes.commitBatch(upserts, deletes);
+            attributes.applyCommitted(upserts, deletes);
+        }
+        catch ( Throwable e )
+        {
+            for ( PendingWrite write : batch )
+            {
+                write.future.setException(e);
+            }
+            return;
+        }
+        for ( PendingWrite write : batch )
+        {
+            write.future.set(null);
+        }
+    }
+}
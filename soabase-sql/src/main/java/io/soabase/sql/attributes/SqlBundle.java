@@ -15,19 +15,27 @@
  */
 package io.soabase.sql.attributes;
 
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
 import com.google.common.io.Resources;
 import io.dropwizard.ConfiguredBundle;
 import io.dropwizard.lifecycle.Managed;
 import io.dropwizard.setup.Bootstrap;
 import io.dropwizard.setup.Environment;
 import io.soabase.core.SoaBundle;
+import io.soabase.core.SoaFeatures;
 import io.soabase.core.features.config.ComposedConfigurationAccessor;
+import org.apache.ibatis.datasource.pooled.PoolState;
+import org.apache.ibatis.datasource.pooled.PooledDataSource;
 import org.apache.ibatis.session.Configuration;
 import org.apache.ibatis.session.SqlSession;
 import org.apache.ibatis.session.SqlSessionFactory;
 import org.apache.ibatis.session.SqlSessionFactoryBuilder;
+import org.apache.ibatis.session.SqlSessionManager;
+import org.apache.ibatis.transaction.jdbc.JdbcTransactionFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import javax.sql.DataSource;
 import java.io.InputStream;
 
 public class SqlBundle<T extends io.dropwizard.Configuration> implements ConfiguredBundle<T>
@@ -45,9 +53,24 @@ public class SqlBundle<T extends io.dropwizard.Configuration> implements Configu
                 SqlSessionFactory sqlSessionFactory = new SqlSessionFactoryBuilder().build(stream);
                 Configuration mybatisConfiguration = sqlSessionFactory.getConfiguration();
                 mybatisConfiguration.addMapper(AttributeEntityMapper.class);
-                final SqlSession session = sqlSessionFactory.openSession(true);
+                if ( sqlConfiguration.getDatabase() != null )
+                {
+                    PooledDataSource pooledDataSource = sqlConfiguration.getDatabase().build();
+                    mybatisConfiguration.setEnvironment(new org.apache.ibatis.mapping.Environment(sqlConfiguration.getName(), new JdbcTransactionFactory(), pooledDataSource));
+                }
+
+                final DataSource dataSource = mybatisConfiguration.getEnvironment().getDataSource();
+                if ( dataSource instanceof PooledDataSource )
+                {
+                    registerPoolMetrics(environment.metrics(), sqlConfiguration.getName(), (PooledDataSource)dataSource);
+                }
+
+                // each call made through the session manager uses its own session/connection so it can be shared between threads
+                SqlSessionManager sessionManager = SqlSessionManager.newInstance(sqlSessionFactory);
 
-                SoaBundle.getFeatures(environment).putNamed(session, SqlSession.class, sqlConfiguration.getName());
+                SoaFeatures features = SoaBundle.getFeatures(environment);
+                features.putNamed(sessionManager, SqlSession.class, sqlConfiguration.getName());
+                features.putNamed(sqlSessionFactory, SqlSessionFactory.class, sqlConfiguration.getName());
                 Managed managed = new Managed()
                 {
                     @Override
@@ -59,7 +82,10 @@ public class SqlBundle<T extends io.dropwizard.Configuration> implements Configu
                     @Override
                     public void stop() throws Exception
                     {
-                        session.close();
+                        if ( dataSource instanceof PooledDataSource )
+                        {
+                            ((PooledDataSource)dataSource).forceCloseAll();
+                        }
                     }
                 };
                 environment.lifecycle().manage(managed);
@@ -77,4 +103,81 @@ public class SqlBundle<T extends io.dropwizard.Configuration> implements Configu
     {
         // NOP
     }
+
+    static void registerPoolMetrics(MetricRegistry metricRegistry, String name, PooledDataSource dataSource)
+    {
+        final PoolState state = dataSource.getPoolState();
+        Gauge<Integer> activeGauge = new Gauge<Integer>()
+        {
+            @Override
+            public Integer getValue()
+            {
+                return state.getActiveConnectionCount();
+            }
+        };
+        Gauge<Integer> idleGauge = new Gauge<Integer>()
+        {
+            @Override
+            public Integer getValue()
+            {
+                return state.getIdleConnectionCount();
+            }
+        };
+        Gauge<Long> requestsGauge = new Gauge<Long>()
+        {
+            @Override
+            public Long getValue()
+            {
+                return state.getRequestCount();
+            }
+        };
+        Gauge<Long> acquireGauge = new Gauge<Long>()
+        {
+            @Override
+            public Long getValue()
+            {
+                return state.getAverageRequestTime();
+            }
+        };
+        Gauge<Long> waitsGauge = new Gauge<Long>()
+        {
+            @Override
+            public Long getValue()
+            {
+                return state.getHadToWaitCount();
+            }
+        };
+        Gauge<Long> waitGauge = new Gauge<Long>()
+        {
+            @Override
+            public Long getValue()
+            {
+                return state.getAverageWaitTime();
+            }
+        };
+        Gauge<Long> overdueGauge = new Gauge<Long>()
+        {
+            @Override
+            public Long getValue()
+            {
+                return state.getClaimedOverdueConnectionCount();
+            }
+        };
+        Gauge<Long> badGauge = new Gauge<Long>()
+        {
+            @Override
+            public Long getValue()
+            {
+                return state.getBadConnectionCount();
+            }
+        };
+        metricRegistry.register(MetricRegistry.name(SqlBundle.class, name, "active"), activeGauge);
+        metricRegistry.register(MetricRegistry.name(SqlBundle.class, name, "idle"), idleGauge);
+        metricRegistry.register(MetricRegistry.name(SqlBundle.class, name, "requests"), requestsGauge);
+        metricRegistry.register(MetricRegistry.name(SqlBundle.class, name, "average-acquire-ms"), acquireGauge);
+        metricRegistry.register(MetricRegistry.name(SqlBundle.class, name, "waits"), waitsGauge);
+        metricRegistry.register(MetricRegistry.name(SqlBundle.class, name, "average-wait-ms"), waitGauge);
+        metricRegistry.register(MetricRegistry.name(SqlBundle.class, name, "reclaimed-overdue"), overdueGauge);
+        metricRegistry.register(MetricRegistry.name(SqlBundle.class, name, "bad"), badGauge);
+    }
 }
@@ -30,6 +30,9 @@ public class SqlConfiguration
     @NotEmpty
     private String name = SoaFeatures.DEFAULT_NAME;
 
+    @Valid
+    private SqlDataSourceConfiguration database = null;
+
     @JsonProperty("mybatisConfigUrl")
     public String getMybatisConfigUrl()
     {
@@ -53,4 +56,16 @@ public class SqlConfiguration
     {
         this.name = name;
     }
+
+    @JsonProperty("database")
+    public SqlDataSourceConfiguration getDatabase()
+    {
+        return database;
+    }
+
+    @JsonProperty("database")
+    public void setDatabase(SqlDataSourceConfiguration database)
+    {
+        this.database = database;
+    }
 }
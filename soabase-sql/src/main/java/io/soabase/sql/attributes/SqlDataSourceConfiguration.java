@@ -0,0 +1,191 @@
+/**
+ * Copyright 2014 Jordan Zimmerman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.soabase.sql.attributes;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import org.apache.ibatis.datasource.pooled.PooledDataSource;
+import org.hibernate.validator.constraints.NotEmpty;
+import javax.validation.constraints.Min;
+
+/**
+ * Connection pool for {@link SqlBundle}. When set, it replaces the data source in the Mybatis configuration file.
+ */
+public class SqlDataSourceConfiguration
+{
+    @NotEmpty
+    private String driverClass;
+
+    @NotEmpty
+    private String url;
+
+    private String user = "";
+
+    private String password = "";
+
+    @Min(1)
+    private int maxSize = 10;
+
+    @Min(0)
+    private int maxIdleSize = 5;
+
+    private String validationQuery = null;
+
+    @Min(0)
+    private int validationIdleMs = 0;
+
+    @Min(1)
+    private int maximumCheckoutTimeMs = 20000;
+
+    @Min(1)
+    private int waitRetryMs = 20000;
+
+    @JsonProperty("driverClass")
+    public String getDriverClass()
+    {
+        return driverClass;
+    }
+
+    @JsonProperty("driverClass")
+    public void setDriverClass(String driverClass)
+    {
+        this.driverClass = driverClass;
+    }
+
+    @JsonProperty("url")
+    public String getUrl()
+    {
+        return url;
+    }
+
+    @JsonProperty("url")
+    public void setUrl(String url)
+    {
+        this.url = url;
+    }
+
+    @JsonProperty("user")
+    public String getUser()
+    {
+        return user;
+    }
+
+    @JsonProperty("user")
+    public void setUser(String user)
+    {
+        this.user = user;
+    }
+
+    @JsonProperty("password")
+    public String getPassword()
+    {
+        return password;
+    }
+
+    @JsonProperty("password")
+    public void setPassword(String password)
+    {
+        this.password = password;
+    }
+
+    @JsonProperty("maxSize")
+    public int getMaxSize()
+    {
+        return maxSize;
+    }
+
+    @JsonProperty("maxSize")
+    public void setMaxSize(int maxSize)
+    {
+        this.maxSize = maxSize;
+    }
+
+    @JsonProperty("maxIdleSize")
+    public int getMaxIdleSize()
+    {
+        return maxIdleSize;
+    }
+
+    @JsonProperty("maxIdleSize")
+    public void setMaxIdleSize(int maxIdleSize)
+    {
+        this.maxIdleSize = maxIdleSize;
+    }
+
+    @JsonProperty("validationQuery")
+    public String getValidationQuery()
+    {
+        return validationQuery;
+    }
+
+    @JsonProperty("validationQuery")
+    public void setValidationQuery(String validationQuery)
+    {
+        this.validationQuery = validationQuery;
+    }
+
+    @JsonProperty("validationIdleMs")
+    public int getValidationIdleMs()
+    {
+        return validationIdleMs;
+    }
+
+    @JsonProperty("validationIdleMs")
+    public void setValidationIdleMs(int validationIdleMs)
+    {
+        this.validationIdleMs = validationIdleMs;
+    }
+
+    @JsonProperty("maximumCheckoutTimeMs")
+    public int getMaximumCheckoutTimeMs()
+    {
+        return maximumCheckoutTimeMs;
+    }
+
+    @JsonProperty("maximumCheckoutTimeMs")
+    public void setMaximumCheckoutTimeMs(int maximumCheckoutTimeMs)
+    {
+        this.maximumCheckoutTimeMs = maximumCheckoutTimeMs;
+    }
+
+    @JsonProperty("waitRetryMs")
+    public int getWaitRetryMs()
+    {
+        return waitRetryMs;
+    }
+
+    @JsonProperty("waitRetryMs")
+    public void setWaitRetryMs(int waitRetryMs)
+    {
+        this.waitRetryMs = waitRetryMs;
+    }
+
+    public PooledDataSource build()
+    {
+        PooledDataSource dataSource = new PooledDataSource(driverClass, url, user, password);
+        dataSource.setPoolMaximumActiveConnections(maxSize);
+        dataSource.setPoolMaximumIdleConnections(maxIdleSize);
+        // not leak detection - when the pool is exhausted, connections checked out longer than this are forcibly reclaimed
+        dataSource.setPoolMaximumCheckoutTime(maximumCheckoutTimeMs);
+        dataSource.setPoolTimeToWait(waitRetryMs);
+        if ( validationQuery != null )
+        {
+            dataSource.setPoolPingQuery(validationQuery);
+            dataSource.setPoolPingEnabled(true);
+            dataSource.setPoolPingConnectionsNotUsedFor(validationIdleMs);
+        }
+        return dataSource;
+    }
+}
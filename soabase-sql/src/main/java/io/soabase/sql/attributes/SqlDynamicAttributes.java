@@ -15,198 +15,444 @@
  */
 package io.soabase.sql.attributes;
 
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ListenableFuture;
 import io.dropwizard.lifecycle.Managed;
+import io.soabase.core.SoaInfo;
 import io.soabase.core.features.attributes.AttributeKey;
-import io.soabase.core.features.attributes.DynamicAttributeListener;
+import io.soabase.core.features.attributes.AttributesRefresher;
+import io.soabase.core.features.attributes.ContainerDynamicAttributes;
 import io.soabase.core.features.attributes.WritableDynamicAttributes;
 import io.soabase.core.features.attributes.StandardAttributesContainer;
-import io.soabase.core.listening.Listenable;
+import org.apache.ibatis.exceptions.PersistenceException;
+import org.apache.ibatis.session.ExecutorType;
 import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.apache.ibatis.session.defaults.DefaultSqlSessionFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import java.text.DateFormat;
+import java.text.ParseException;
 import java.util.Collection;
+import java.util.Date;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
-public class SqlDynamicAttributes implements WritableDynamicAttributes, Managed
+public class SqlDynamicAttributes extends ContainerDynamicAttributes implements WritableDynamicAttributes, Managed
 {
-    private final StandardAttributesContainer container;
     private final SqlSession session;
+    private final SqlSessionFactory sessionFactory;
+    private final List<String> queryScopes;
+    private final long fullRefreshPeriodMs;
+    private final long timestampLookbackMs;
     private final Logger log = LoggerFactory.getLogger(getClass());
+    private final DateFormat formatter = SoaInfo.newUtcFormatter();  // guarded by this
+    private long highWaterMark = 0;     // guarded by this
+    private long lastFullRefresh = 0;   // guarded by this
+    private boolean needsFullRefresh = true;    // guarded by this
+    private volatile AttributesRefresher refresher = null;
+    private volatile boolean hasDeletionsTable = true;
+    private final SqlAttributesWriter writer;
+
+    public static final int DEFAULT_FULL_REFRESH_PERIOD_SECONDS = (int)TimeUnit.MINUTES.toSeconds(10);
+    public static final int DEFAULT_TIMESTAMP_LOOKBACK_SECONDS = 60;
+    public static final int DEFAULT_WRITE_WINDOW_MS = 10;
+    public static final int DEFAULT_MAX_WRITE_BATCH_SIZE = 500;
 
     public SqlDynamicAttributes(SqlSession session, List<String> scopes)
     {
-        this.session = session;
-        container = new StandardAttributesContainer(scopes);
+        this(session, scopes, DEFAULT_FULL_REFRESH_PERIOD_SECONDS, DEFAULT_TIMESTAMP_LOOKBACK_SECONDS);
     }
 
-    @Override
-    public Map<AttributeKey, Object> getAll()
+    /**
+     * @param session Mybatis session. It is used from the refresh thread and from request threads so it must be thread-safe
+     *                (e.g. the {@link org.apache.ibatis.session.SqlSessionManager} that {@link SqlBundle} registers)
+     * @param scopes scopes to resolve
+     * @param fullRefreshPeriodSeconds how often to re-read the entire table. In between, only rows changed since
+     *                                 the last refresh are read. 0 means always read the entire table.
+     * @param timestampLookbackSeconds changed rows are read starting this many seconds before the newest
+     *                                 timestamp already seen. This allows for clock differences between writers.
+     */
+    public SqlDynamicAttributes(SqlSession session, List<String> scopes, int fullRefreshPeriodSeconds, int timestampLookbackSeconds)
     {
-        return container.getAll();
+        this(session, scopes, fullRefreshPeriodSeconds, timestampLookbackSeconds, DEFAULT_WRITE_WINDOW_MS, DEFAULT_MAX_WRITE_BATCH_SIZE);
     }
 
-    @Override
-    public void remove(AttributeKey key)
+    /**
+     * @param session Mybatis session. It is used from the refresh thread and from request threads so it must be thread-safe
+     *                (e.g. the {@link org.apache.ibatis.session.SqlSessionManager} that {@link SqlBundle} registers)
+     * @param scopes scopes to resolve
+     * @param fullRefreshPeriodSeconds how often to re-read the entire table. In between, only rows changed since
+     *                                 the last refresh are read. 0 means always read the entire table.
+     * @param timestampLookbackSeconds changed rows are read starting this many seconds before the newest
+     *                                 timestamp already seen. This allows for clock differences between writers.
+     * @param writeWindowMs async writes are collected for this long and then committed in a single transaction
+     * @param maxWriteBatchSize async writes are committed as soon as this many are collected
+     */
+    public SqlDynamicAttributes(SqlSession session, List<String> scopes, int fullRefreshPeriodSeconds, int timestampLookbackSeconds, int writeWindowMs, int maxWriteBatchSize)
     {
-        AttributeEntityMapper mapper = session.getMapper(AttributeEntityMapper.class);
-        AttributeEntity attribute = new AttributeEntity(key.getKey(), key.getScope(), "");  // value isn't used
-        mapper.delete(attribute);
-        update();
+        this(session, toSessionFactory(session), scopes, fullRefreshPeriodSeconds, timestampLookbackSeconds, writeWindowMs, maxWriteBatchSize);
+    }
+
+    /**
+     * @param session Mybatis session. It is used from the refresh thread and from request threads so it must be thread-safe
+     *                (e.g. the {@link org.apache.ibatis.session.SqlSessionManager} that {@link SqlBundle} registers)
+     * @param sessionFactory factory used to open the batch sessions for writes (e.g. the factory that {@link SqlBundle} registers)
+     * @param scopes scopes to resolve
+     * @param fullRefreshPeriodSeconds how often to re-read the entire table. In between, only rows changed since
+     *                                 the last refresh are read. 0 means always read the entire table.
+     * @param timestampLookbackSeconds changed rows are read starting this many seconds before the newest
+     *                                 timestamp already seen. This allows for clock differences between writers.
+     * @param writeWindowMs async writes are collected for this long and then committed in a single transaction
+     * @param maxWriteBatchSize async writes are committed as soon as this many are collected
+     */
+    public SqlDynamicAttributes(SqlSession session, SqlSessionFactory sessionFactory, List<String> scopes, int fullRefreshPeriodSeconds, int timestampLookbackSeconds, int writeWindowMs, int maxWriteBatchSize)
+    {
+        super(new StandardAttributesContainer(scopes));
+        this.session = session;
+        this.sessionFactory = sessionFactory;
+        writer = new SqlAttributesWriter(this, writeWindowMs, maxWriteBatchSize);
+        this.fullRefreshPeriodMs = TimeUnit.SECONDS.toMillis(fullRefreshPeriodSeconds);
+        this.timestampLookbackMs = TimeUnit.SECONDS.toMillis(timestampLookbackSeconds);
+
+        Set<String> uniqueScopes = Sets.newLinkedHashSet(scopes);
+        uniqueScopes.add(StandardAttributesContainer.DEFAULT_SCOPE);
+        queryScopes = ImmutableList.copyOf(uniqueScopes);
     }
 
     @Override
-    public void put(AttributeKey key, Object value)
+    public Map<AttributeKey, Object> getAll()
     {
+        // only this instance's scopes are loaded into the container - read the whole table for the full view
+        Map<AttributeKey, Object> all = Maps.newHashMap();
         AttributeEntityMapper mapper = session.getMapper(AttributeEntityMapper.class);
-        AttributeEntity attribute = new AttributeEntity(key.getKey(), key.getScope(), String.valueOf(value));
-        if ( container.hasKey(key) )
-        {
-            mapper.update(attribute);
-        }
-        else
+        for ( AttributeEntity entity : mapper.selectAll() )
         {
-            mapper.insert(attribute);
+            all.put(new AttributeKey(entity.getfKEY(), entity.getfSCOPE()), entity.getfVALUE());
         }
-        update();
+        return all;
     }
 
     @Override
-    public String getAttribute(String key)
+    public void remove(AttributeKey key)
     {
-        return container.getAttribute(key, null);
+        commitBatch(Maps.<AttributeKey, Object>newHashMap(), ImmutableList.of(key));
+        update();
     }
 
     @Override
-    public String getAttribute(String key, String defaultValue)
+    public void putAll(Map<AttributeKey, Object> attributes)
     {
-        return container.getAttribute(key, defaultValue);
+        commitBatch(attributes, ImmutableList.<AttributeKey>of());
+        update();
     }
 
     @Override
-    public boolean getAttributeBoolean(String key)
+    public void removeAll(Collection<AttributeKey> keys)
     {
-        return container.getAttributeBoolean(key, false);
+        commitBatch(Maps.<AttributeKey, Object>newHashMap(), keys);
+        update();
     }
 
     @Override
-    public boolean getAttributeBoolean(String key, boolean defaultValue)
+    public ListenableFuture<Void> putAsync(AttributeKey key, Object value)
     {
-        return container.getAttributeBoolean(key, defaultValue);
+        return writer.write(key, Preconditions.checkNotNull(value, "value cannot be null"));
     }
 
     @Override
-    public int getAttributeInt(String key)
+    public ListenableFuture<Void> removeAsync(AttributeKey key)
     {
-        return container.getAttributeInt(key, 0);
+        return writer.write(key, null);
     }
 
     @Override
-    public int getAttributeInt(String key, int defaultValue)
+    public void put(AttributeKey key, Object value)
     {
-        return container.getAttributeInt(key, defaultValue);
+        commitBatch(ImmutableMap.of(key, value), ImmutableList.<AttributeKey>of());
+        update();
     }
 
     @Override
-    public long getAttributeLong(String key)
+    public void start() throws Exception
     {
-        return container.getAttributeLong(key, 0);
+        checkDeletionsTable();
+        update();
+        if ( refresher != null )
+        {
+            refresher.start();
+        }
     }
 
     @Override
-    public long getAttributeLong(String key, long defaultValue)
+    public void stop() throws Exception
     {
-        return container.getAttributeLong(key, defaultValue);
+        writer.close();
+        if ( refresher != null )
+        {
+            refresher.stop();
+        }
     }
 
-    @Override
-    public double getAttributeDouble(String key, double defaultValue)
+    /**
+     * The refresher is started/stopped with this instance so that wrappers that don't start this
+     * instance also don't cause it to poll
+     *
+     * @param refresher periodic refresher
+     */
+    void setRefresher(AttributesRefresher refresher)
     {
-        return container.getAttributeDouble(key, defaultValue);
+        this.refresher = refresher;
     }
 
-    @Override
-    public double getAttributeDouble(String key)
+    /**
+     * @return false if the SoaAttributesDeletions table doesn't exist. Removals then can't be seen incrementally and
+     * every refresh reads all attributes.
+     */
+    public boolean hasDeletionsTable()
     {
-        return container.getAttributeDouble(key, 0.0);
+        return hasDeletionsTable;
     }
 
-    @Override
-    public void temporaryOverride(String key, boolean value)
+    /**
+     * Write the given upserts and deletes in a single transaction. If the transaction fails it is retried
+     * once - a concurrent writer may have inserted one of the rows first.
+     *
+     * @param upserts attributes to add/update
+     * @param deletes attributes to remove
+     */
+    void commitBatch(Map<AttributeKey, Object> upserts, Collection<AttributeKey> deletes)
     {
-        container.temporaryOverride(key, value);
+        try
+        {
+            internalCommitBatch(upserts, deletes);
+        }
+        catch ( PersistenceException e )
+        {
+            log.debug("Retrying attributes write", e);
+            internalCommitBatch(upserts, deletes);
+        }
     }
 
-    @Override
-    public void temporaryOverride(String key, int value)
+    private void internalCommitBatch(Map<AttributeKey, Object> upserts, Collection<AttributeKey> deletes)
     {
-        container.temporaryOverride(key, value);
+        List<AttributeEntity> upsertEntities = Lists.newArrayList();
+        for ( Map.Entry<AttributeKey, Object> entry : upserts.entrySet() )
+        {
+            upsertEntities.add(new AttributeEntity(entry.getKey().getKey(), entry.getKey().getScope(), String.valueOf(entry.getValue())));
+        }
+        List<AttributeEntity> deleteEntities = Lists.newArrayList();
+        for ( AttributeKey key : deletes )
+        {
+            deleteEntities.add(new AttributeEntity(key.getKey(), key.getScope(), ""));  // value isn't used
+        }
+        Iterable<AttributeEntity> allEntities = Iterables.concat(upsertEntities, deleteEntities);
+
+        // row counts aren't available until a batch is flushed so replace the rows instead of update-else-insert
+        try ( SqlSession batchSession = openBatchSession() )
+        {
+            AttributeEntityMapper mapper = batchSession.getMapper(AttributeEntityMapper.class);
+            for ( AttributeEntity entity : allEntities )
+            {
+                mapper.delete(entity);
+            }
+            for ( AttributeEntity entity : upsertEntities )
+            {
+                mapper.insert(entity);
+            }
+            if ( hasDeletionsTable )
+            {
+                for ( AttributeEntity entity : allEntities )
+                {
+                    mapper.deleteDeletion(entity);
+                }
+                for ( AttributeEntity entity : deleteEntities )
+                {
+                    mapper.insertDeletion(entity);   // so that other instances see the removal in their incremental refresh
+                }
+            }
+            batchSession.commit();
+        }
     }
 
-    @Override
-    public void temporaryOverride(String key, long value)
+    /**
+     * Apply committed writes to the local attributes without waiting for the next refresh. Synchronized
+     * with refreshes so that a refresh that started before the commit can't hide the writes.
+     *
+     * @param upserts attributes that were added/updated
+     * @param deletes attributes that were removed
+     */
+    synchronized void applyCommitted(Map<AttributeKey, Object> upserts, Collection<AttributeKey> deletes)
     {
-        container.temporaryOverride(key, value);
+        Map<AttributeKey, Object> localUpserts = Maps.newHashMap();
+        for ( Map.Entry<AttributeKey, Object> entry : upserts.entrySet() )
+        {
+            if ( queryScopes.contains(entry.getKey().getScope()) )
+            {
+                localUpserts.put(entry.getKey(), String.valueOf(entry.getValue()));
+            }
+        }
+        List<AttributeKey> localDeletes = Lists.newArrayList();
+        for ( AttributeKey key : deletes )
+        {
+            if ( queryScopes.contains(key.getScope()) )
+            {
+                localDeletes.add(key);
+            }
+        }
+        container.applyChanges(localUpserts, localDeletes);
     }
 
-    @Override
-    public void temporaryOverride(String key, String value)
+    private SqlSession openBatchSession()
     {
-        container.temporaryOverride(key, value);
+        // a separate session so that the batch runs in its own transaction
+        return sessionFactory.openSession(ExecutorType.BATCH, false);
     }
 
-    @Override
-    public void temporaryOverride(String key, double value)
+    private static SqlSessionFactory toSessionFactory(SqlSession session)
     {
-        container.temporaryOverride(key, value);
+        // SqlSessionManager is also a factory - otherwise create one factory for the session's configuration
+        return (session instanceof SqlSessionFactory) ? (SqlSessionFactory)session : new DefaultSqlSessionFactory(session.getConfiguration());
     }
 
-    @Override
-    public boolean removeOverride(String key)
+    synchronized void update()
     {
-        return container.removeOverride(key);
+        try
+        {
+            refresh();
+        }
+        catch ( Exception e )
+        {
+            log.error("Could not set new attributes", e);
+        }
     }
 
-    @Override
-    public Collection<String> getKeys()
+    /**
+     * Read the changed attributes - or all attributes if a full refresh is due
+     *
+     * @throws Exception if the attributes could not be read
+     */
+    synchronized void refresh() throws Exception
     {
-        return container.getKeys();
+        AttributeEntityMapper mapper = session.getMapper(AttributeEntityMapper.class);
+        long now = System.currentTimeMillis();
+        if ( needsFullRefresh || !hasDeletionsTable || ((now - lastFullRefresh) >= fullRefreshPeriodMs) )
+        {
+            fullRefresh(mapper, now);
+        }
+        else
+        {
+            try
+            {
+                incrementalRefresh(mapper);
+            }
+            catch ( Exception e )
+            {
+                log.error("Could not read changed attributes. Reading all attributes instead.", e);
+                fullRefresh(mapper, now);
+            }
+        }
     }
 
-    @Override
-    public Listenable<DynamicAttributeListener> getListenable()
+    private void fullRefresh(AttributeEntityMapper mapper, long now)
     {
-        return container.getListenable();
+        needsFullRefresh = true;    // until this succeeds
+
+        Map<AttributeKey, Object> newAttributes = Maps.newHashMap();
+        long newHighWaterMark = 0;
+        for ( AttributeEntity entity : mapper.selectForScopes(queryScopes) )
+        {
+            newAttributes.put(new AttributeKey(entity.getfKEY(), entity.getfSCOPE()), entity.getfVALUE());
+            newHighWaterMark = Math.max(newHighWaterMark, parseTimestamp(entity));
+        }
+        container.reset(newAttributes);
+
+        highWaterMark = newHighWaterMark;
+        lastFullRefresh = now;
+        needsFullRefresh = false;
+
+        if ( (fullRefreshPeriodMs > 0) && hasDeletionsTable )
+        {
+            try
+            {
+                // deletion records only need to live long enough for every instance to have done an incremental refresh past them
+                mapper.pruneDeletions(formatter.format(new Date(now - Math.max(fullRefreshPeriodMs, timestampLookbackMs))));
+            }
+            catch ( Exception e )
+            {
+                log.debug("Could not prune attribute deletions", e);
+            }
+        }
     }
 
-    @Override
-    public void start() throws Exception
+    private void incrementalRefresh(AttributeEntityMapper mapper)
     {
-        update();
+        String since = formatter.format(new Date(Math.max(highWaterMark - timestampLookbackMs, 0)));
+        long newHighWaterMark = highWaterMark;
+
+        Map<AttributeKey, AttributeEntity> changed = Maps.newHashMap();
+        for ( AttributeEntity entity : mapper.selectSinceForScopes(since, queryScopes) )
+        {
+            changed.put(new AttributeKey(entity.getfKEY(), entity.getfSCOPE()), entity);
+            newHighWaterMark = Math.max(newHighWaterMark, parseTimestamp(entity));
+        }
+
+        List<AttributeKey> deletes = Lists.newArrayList();
+        for ( AttributeEntity deletion : mapper.selectDeletionsSince(since) )
+        {
+            AttributeKey key = new AttributeKey(deletion.getfKEY(), deletion.getfSCOPE());
+            long deletionTimestamp = parseTimestamp(deletion);
+            AttributeEntity entity = changed.get(key);
+            if ( (entity == null) || (parseTimestamp(entity) <= deletionTimestamp) )
+            {
+                changed.remove(key);
+                deletes.add(key);
+            }
+            newHighWaterMark = Math.max(newHighWaterMark, deletionTimestamp);
+        }
+
+        Map<AttributeKey, Object> upserts = Maps.newHashMap();
+        for ( Map.Entry<AttributeKey, AttributeEntity> entry : changed.entrySet() )
+        {
+            upserts.put(entry.getKey(), entry.getValue().getfVALUE());
+        }
+        container.applyChanges(upserts, deletes);
+        highWaterMark = newHighWaterMark;
     }
 
-    @Override
-    public void stop() throws Exception
+    private void checkDeletionsTable()
     {
-        // NOP
+        try
+        {
+            session.getMapper(AttributeEntityMapper.class).countDeletions();
+            hasDeletionsTable = true;
+        }
+        catch ( PersistenceException e )
+        {
+            log.warn("The SoaAttributesDeletions table doesn't exist. All attributes will be read on every refresh. Create the table (see AttributeEntityMapper.createDeletionsTable()) to enable incremental refreshes.");
+            log.debug("Deletions table check failed", e);
+            hasDeletionsTable = false;
+        }
     }
 
-    synchronized void update()
+    private long parseTimestamp(AttributeEntity entity)
     {
-        Map<AttributeKey, Object> newAttributes = Maps.newHashMap();
-        AttributeEntityMapper mapper = session.getMapper(AttributeEntityMapper.class);
         try
         {
-            for ( AttributeEntity entity : mapper.selectAll() )
-            {
-                newAttributes.put(new AttributeKey(entity.getfKEY(), entity.getfSCOPE()), entity.getfVALUE());
-            }
-            container.reset(newAttributes);
+            return formatter.parse(entity.getfTIMESTAMP()).getTime();
         }
-        catch ( Exception e )
+        catch ( ParseException e )
         {
-            log.error("Could not set new attributes", e);
+            log.debug("Ignoring attribute timestamp that is not in ISO-8601 format: " + entity);
         }
+        return 0;
     }
 }
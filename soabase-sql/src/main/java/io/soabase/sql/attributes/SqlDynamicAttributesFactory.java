@@ -20,23 +20,51 @@ import com.fasterxml.jackson.annotation.JsonTypeName;
 import io.dropwizard.setup.Environment;
 import io.soabase.core.SoaBundle;
 import io.soabase.core.SoaFeatures;
+import io.soabase.core.features.attributes.AttributesRefresher;
 import io.soabase.core.features.attributes.DynamicAttributes;
 import io.soabase.core.features.attributes.DynamicAttributesFactory;
 import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
 import org.hibernate.validator.constraints.NotEmpty;
 import javax.validation.Valid;
+import javax.validation.constraints.Max;
 import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
 import java.util.List;
-import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Callable;
 import java.util.concurrent.TimeUnit;
 
 @JsonTypeName("sql")
 public class SqlDynamicAttributesFactory implements DynamicAttributesFactory
 {
-    @Min(0)
+    @Min(1)
     private int refreshPeriodSeconds = 30;
 
+    @Min(1)
+    private int refreshTimeoutSeconds = 30;
+
+    @Min(1)
+    private int maxBackoffSeconds = 300;
+
+    @Min(0)
+    @Max(99)
+    private int jitterPercent = 10;
+
+    @Min(0)
+    private int slowRefreshSeconds = 10;
+
+    @Min(0)
+    private int fullRefreshPeriodSeconds = SqlDynamicAttributes.DEFAULT_FULL_REFRESH_PERIOD_SECONDS;
+
+    @Min(0)
+    private int timestampLookbackSeconds = SqlDynamicAttributes.DEFAULT_TIMESTAMP_LOOKBACK_SECONDS;
+
+    @Min(0)
+    private int writeWindowMs = SqlDynamicAttributes.DEFAULT_WRITE_WINDOW_MS;
+
+    @Min(1)
+    private int maxWriteBatchSize = SqlDynamicAttributes.DEFAULT_MAX_WRITE_BATCH_SIZE;
+
     @NotEmpty
     private String sessionName = SoaFeatures.DEFAULT_NAME;
 
@@ -52,6 +80,102 @@ public class SqlDynamicAttributesFactory implements DynamicAttributesFactory
         this.refreshPeriodSeconds = refreshPeriodSeconds;
     }
 
+    @JsonProperty("refreshTimeoutSeconds")
+    public int getRefreshTimeoutSeconds()
+    {
+        return refreshTimeoutSeconds;
+    }
+
+    @JsonProperty("refreshTimeoutSeconds")
+    public void setRefreshTimeoutSeconds(int refreshTimeoutSeconds)
+    {
+        this.refreshTimeoutSeconds = refreshTimeoutSeconds;
+    }
+
+    @JsonProperty("maxBackoffSeconds")
+    public int getMaxBackoffSeconds()
+    {
+        return maxBackoffSeconds;
+    }
+
+    @JsonProperty("maxBackoffSeconds")
+    public void setMaxBackoffSeconds(int maxBackoffSeconds)
+    {
+        this.maxBackoffSeconds = maxBackoffSeconds;
+    }
+
+    @JsonProperty("jitterPercent")
+    public int getJitterPercent()
+    {
+        return jitterPercent;
+    }
+
+    @JsonProperty("jitterPercent")
+    public void setJitterPercent(int jitterPercent)
+    {
+        this.jitterPercent = jitterPercent;
+    }
+
+    @JsonProperty("slowRefreshSeconds")
+    public int getSlowRefreshSeconds()
+    {
+        return slowRefreshSeconds;
+    }
+
+    @JsonProperty("slowRefreshSeconds")
+    public void setSlowRefreshSeconds(int slowRefreshSeconds)
+    {
+        this.slowRefreshSeconds = slowRefreshSeconds;
+    }
+
+    @JsonProperty("fullRefreshPeriodSeconds")
+    public int getFullRefreshPeriodSeconds()
+    {
+        return fullRefreshPeriodSeconds;
+    }
+
+    @JsonProperty("fullRefreshPeriodSeconds")
+    public void setFullRefreshPeriodSeconds(int fullRefreshPeriodSeconds)
+    {
+        this.fullRefreshPeriodSeconds = fullRefreshPeriodSeconds;
+    }
+
+    @JsonProperty("timestampLookbackSeconds")
+    public int getTimestampLookbackSeconds()
+    {
+        return timestampLookbackSeconds;
+    }
+
+    @JsonProperty("timestampLookbackSeconds")
+    public void setTimestampLookbackSeconds(int timestampLookbackSeconds)
+    {
+        this.timestampLookbackSeconds = timestampLookbackSeconds;
+    }
+
+    @JsonProperty("writeWindowMs")
+    public int getWriteWindowMs()
+    {
+        return writeWindowMs;
+    }
+
+    @JsonProperty("writeWindowMs")
+    public void setWriteWindowMs(int writeWindowMs)
+    {
+        this.writeWindowMs = writeWindowMs;
+    }
+
+    @JsonProperty("maxWriteBatchSize")
+    public int getMaxWriteBatchSize()
+    {
+        return maxWriteBatchSize;
+    }
+
+    @JsonProperty("maxWriteBatchSize")
+    public void setMaxWriteBatchSize(int maxWriteBatchSize)
+    {
+        this.maxWriteBatchSize = maxWriteBatchSize;
+    }
+
     @JsonProperty("name")
     public String getSessionName()
     {
@@ -68,18 +192,21 @@ public class SqlDynamicAttributesFactory implements DynamicAttributesFactory
     public DynamicAttributes build(Environment environment, List<String> scopes)
     {
         SqlSession sqlSession = SoaBundle.getFeatures(environment).getNamedRequired(SqlSession.class, sessionName);
+        SqlSessionFactory sqlSessionFactory = SoaBundle.getFeatures(environment).getNamedRequired(SqlSessionFactory.class, sessionName);
 
-        final SqlDynamicAttributes dynamicAttributes = new SqlDynamicAttributes(sqlSession, scopes);
-        ScheduledExecutorService service = environment.lifecycle().scheduledExecutorService("DynamicAttributes-%d", true).build();
-        Runnable command = new Runnable()
+        final SqlDynamicAttributes dynamicAttributes = new SqlDynamicAttributes(sqlSession, sqlSessionFactory, scopes, fullRefreshPeriodSeconds, timestampLookbackSeconds, writeWindowMs, maxWriteBatchSize);
+        Callable<Void> refresh = new Callable<Void>()
         {
             @Override
-            public void run()
+            public Void call() throws Exception
             {
-                dynamicAttributes.update();
+                dynamicAttributes.refresh();
+                return null;
             }
         };
-        service.scheduleAtFixedRate(command, refreshPeriodSeconds, refreshPeriodSeconds, TimeUnit.SECONDS);
+        String instanceName = scopes.get(0);    // the first scope is the instance name
+        AttributesRefresher refresher = new AttributesRefresher("sql", refresh, TimeUnit.SECONDS.toMillis(refreshPeriodSeconds), TimeUnit.SECONDS.toMillis(refreshTimeoutSeconds), TimeUnit.SECONDS.toMillis(maxBackoffSeconds), instanceName, jitterPercent / 100.0, TimeUnit.SECONDS.toMillis(slowRefreshSeconds), environment.metrics());
+        dynamicAttributes.setRefresher(refresher);
         return dynamicAttributes;
     }
 }
@@ -0,0 +1,290 @@
+/**
+ * Copyright 2014 Jordan Zimmerman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.soabase.sql.attributes;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.Resources;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import io.soabase.core.features.attributes.AttributeKey;
+import org.apache.ibatis.datasource.pooled.PooledDataSource;
+import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.apache.ibatis.session.SqlSessionFactoryBuilder;
+import org.apache.ibatis.session.SqlSessionManager;
+import org.apache.ibatis.transaction.jdbc.JdbcTransactionFactory;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import java.io.InputStream;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class TestSqlDynamicAttributes
+{
+    private SqlSession session;
+
+    @BeforeMethod
+    public void setup() throws Exception
+    {
+        try ( InputStream stream = Resources.getResource("test-mybatis.xml").openStream() )
+        {
+            SqlSessionFactory sqlSessionFactory = new SqlSessionFactoryBuilder().build(stream);
+            sqlSessionFactory.getConfiguration().addMapper(AttributeEntityMapper.class);
+            session = sqlSessionFactory.openSession(true);
+        }
+
+        AttributeEntityMapper mapper = session.getMapper(AttributeEntityMapper.class);
+        mapper.createTable();
+        mapper.createTimestampIndex();
+        mapper.createScopeIndex();
+        mapper.createDeletionsTable();
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception
+    {
+        try ( Statement statement = session.getConnection().createStatement() )
+        {
+            statement.execute("DROP SCHEMA PUBLIC CASCADE");
+        }
+        session.close();
+    }
+
+    @Test
+    public void testIncrementalRefresh() throws Exception
+    {
+        SqlDynamicAttributes writer = new SqlDynamicAttributes(session, Arrays.asList("a"), 1000, 60);
+        SqlDynamicAttributes reader = new SqlDynamicAttributes(session, Arrays.asList("a"), 1000, 60);
+        writer.start();
+        reader.start();
+
+        writer.put(new AttributeKey("one", ""), "1");
+        writer.put(new AttributeKey("two", "a"), "2");
+        reader.update();
+        Assert.assertEquals(reader.getAttributeInt("one"), 1);
+        Assert.assertEquals(reader.getAttributeInt("two"), 2);
+
+        writer.put(new AttributeKey("one", ""), "10");
+        writer.remove(new AttributeKey("two", "a"));
+        reader.update();
+        Assert.assertEquals(reader.getAttributeInt("one"), 10);
+        Assert.assertNull(reader.getAttribute("two"));
+
+        writer.put(new AttributeKey("two", "a"), "20");  // re-adding clears the deletion record
+        reader.update();
+        Assert.assertEquals(reader.getAttributeInt("two"), 20);
+
+        // rows with timestamps older than the lookback aren't seen until the next full refresh
+        AttributeEntity old = new AttributeEntity("three", "", "3");
+        old.setfTIMESTAMP("2000-01-01T00:00:00Z");
+        session.getMapper(AttributeEntityMapper.class).insert(old);
+        reader.update();
+        Assert.assertNull(reader.getAttribute("three"));
+
+        SqlDynamicAttributes fullReader = new SqlDynamicAttributes(session, Arrays.asList("a"), 0, 60);
+        fullReader.start();
+        Assert.assertEquals(fullReader.getAttributeInt("three"), 3);
+        Assert.assertEquals(fullReader.getAttributeInt("two"), 20);
+    }
+
+    @Test
+    public void testWithoutDeletionsTable() throws Exception
+    {
+        try ( Statement statement = session.getConnection().createStatement() )
+        {
+            statement.execute("DROP TABLE SoaAttributesDeletions");    // a database created before the table was added
+        }
+
+        SqlDynamicAttributes writer = new SqlDynamicAttributes(session, Arrays.asList("a"), 1000, 60);
+        SqlDynamicAttributes reader = new SqlDynamicAttributes(session, Arrays.asList("a"), 1000, 60);
+        writer.start();
+        reader.start();
+        Assert.assertFalse(reader.hasDeletionsTable());
+
+        writer.put(new AttributeKey("one", ""), "1");
+        writer.put(new AttributeKey("two", "a"), "2");
+        writer.put(new AttributeKey("two", "a"), "3");
+        reader.refresh();
+        Assert.assertEquals(reader.getAttributeInt("one"), 1);
+        Assert.assertEquals(reader.getAttributeInt("two"), 3);
+
+        writer.remove(new AttributeKey("two", "a"));
+        reader.refresh();   // every refresh is a full refresh so the removal is seen
+        Assert.assertNull(reader.getAttribute("two"));
+    }
+
+    @Test
+    public void testOnlyOwnScopesLoaded() throws Exception
+    {
+        SqlDynamicAttributes attributes = new SqlDynamicAttributes(session, Arrays.asList("instance", "service"));
+        attributes.start();
+
+        attributes.put(new AttributeKey("one", ""), "1");
+        attributes.put(new AttributeKey("one", "service"), "2");
+        attributes.put(new AttributeKey("two", "other-service"), "3");
+        attributes.put(new AttributeKey("two", "other-service"), "4");  // updates a row that isn't loaded locally
+        Assert.assertEquals(attributes.getAttributeInt("one"), 2);
+        Assert.assertNull(attributes.getAttribute("two"));
+
+        Map<AttributeKey, Object> all = attributes.getAll();   // the admin view still sees every scope
+        Assert.assertEquals(all.size(), 3);
+        Assert.assertEquals(all.get(new AttributeKey("two", "other-service")), "4");
+    }
+
+    @Test
+    public void testBatches() throws Exception
+    {
+        SqlDynamicAttributes writer = new SqlDynamicAttributes(session, Arrays.asList("a"));
+        SqlDynamicAttributes reader = new SqlDynamicAttributes(session, Arrays.asList("a"));
+        writer.start();
+        reader.start();
+
+        writer.put(new AttributeKey("one", ""), "1");
+
+        Map<AttributeKey, Object> batch = Maps.newHashMap();
+        batch.put(new AttributeKey("one", ""), "10");
+        batch.put(new AttributeKey("two", ""), "20");
+        batch.put(new AttributeKey("three", "a"), "30");
+        writer.putAll(batch);
+        Assert.assertEquals(writer.getAttributeInt("one"), 10);
+        Assert.assertEquals(writer.getAttributeInt("three"), 30);
+
+        reader.update();
+        Assert.assertEquals(reader.getAttributeInt("one"), 10);
+        Assert.assertEquals(reader.getAttributeInt("two"), 20);
+        Assert.assertEquals(reader.getAttributeInt("three"), 30);
+
+        writer.removeAll(Arrays.asList(new AttributeKey("one", ""), new AttributeKey("three", "a")));
+        reader.update();
+        Assert.assertNull(reader.getAttribute("one"));
+        Assert.assertEquals(reader.getAttributeInt("two"), 20);
+        Assert.assertNull(reader.getAttribute("three"));
+        Assert.assertEquals(writer.getAll().size(), 1);
+    }
+
+    @Test
+    public void testAsyncWrites() throws Exception
+    {
+        SqlDynamicAttributes writer = new SqlDynamicAttributes(session, Arrays.asList("a"), 1000, 60, 100000, 50);
+        SqlDynamicAttributes reader = new SqlDynamicAttributes(session, Arrays.asList("a"));
+        writer.start();
+        reader.start();
+
+        List<ListenableFuture<Void>> futures = Lists.newArrayList();
+        for ( int i = 0; i < 49; ++i )
+        {
+            futures.add(writer.putAsync(new AttributeKey("key" + i, ""), i));
+        }
+        futures.add(writer.putAsync(new AttributeKey("other", "other-scope"), "x"));
+        Futures.allAsList(futures).get(10, TimeUnit.SECONDS);   // the 50th write fills the batch - the window isn't waited for
+
+        Assert.assertEquals(writer.getAttributeInt("key10"), 10);   // visible locally without a refresh
+        Assert.assertNull(writer.getAttribute("other"));
+        reader.update();
+        Assert.assertEquals(reader.getAttributeInt("key48"), 48);
+        Assert.assertEquals(writer.getAll().size(), 50);
+
+        ListenableFuture<Void> put = writer.putAsync(new AttributeKey("key1", ""), "new");
+        ListenableFuture<Void> remove = writer.removeAsync(new AttributeKey("key2", ""));
+        writer.stop();  // commits the pending writes before returning
+        Assert.assertTrue(put.isDone());
+        Assert.assertTrue(remove.isDone());
+        put.get();
+        remove.get();
+        Assert.assertEquals(writer.getAttribute("key1"), "new");
+        Assert.assertNull(writer.getAttribute("key2"));
+
+        try
+        {
+            writer.putAsync(new AttributeKey("closed", ""), "x").get();
+            Assert.fail();
+        }
+        catch ( ExecutionException e )
+        {
+            Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    @Test
+    public void testPooledSessionManager() throws Exception
+    {
+        SqlDataSourceConfiguration database = new SqlDataSourceConfiguration();
+        database.setDriverClass("org.hsqldb.jdbc.JDBCDriver");
+        database.setUrl("jdbc:hsqldb:mem:soa");
+        database.setUser("SA");
+        database.setMaxSize(2);
+        database.setValidationQuery("SELECT 1 FROM INFORMATION_SCHEMA.SYSTEM_USERS");
+        PooledDataSource dataSource = database.build();
+        Configuration configuration = new Configuration(new Environment("test", new JdbcTransactionFactory(), dataSource));
+        configuration.addMapper(AttributeEntityMapper.class);
+        SqlSessionManager sessionManager = SqlSessionManager.newInstance(new SqlSessionFactoryBuilder().build(configuration));
+        MetricRegistry metricRegistry = new MetricRegistry();
+        SqlBundle.registerPoolMetrics(metricRegistry, "test", dataSource);
+
+        final SqlDynamicAttributes attributes = new SqlDynamicAttributes(sessionManager, Arrays.asList("a"));
+        attributes.start();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try
+        {
+            List<Future<Void>> futures = Lists.newArrayList();
+            for ( int i = 0; i < 40; ++i )
+            {
+                final int index = i;
+                Callable<Void> put = new Callable<Void>()
+                {
+                    @Override
+                    public Void call() throws Exception
+                    {
+                        attributes.put(new AttributeKey("key" + index, ""), index);
+                        return null;
+                    }
+                };
+                futures.add(executor.submit(put));
+            }
+            for ( Future<Void> future : futures )
+            {
+                future.get(10, TimeUnit.SECONDS);
+            }
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+        Assert.assertEquals(attributes.getAll().size(), 40);
+        Assert.assertEquals(attributes.getAttributeInt("key39"), 39);
+
+        Map<String, Gauge> gauges = metricRegistry.getGauges();
+        Assert.assertEquals(gauges.get(MetricRegistry.name(SqlBundle.class, "test", "active")).getValue(), 0);   // every connection was returned
+        Assert.assertTrue((Long)gauges.get(MetricRegistry.name(SqlBundle.class, "test", "requests")).getValue() > 0);
+        Assert.assertEquals(gauges.get(MetricRegistry.name(SqlBundle.class, "test", "reclaimed-overdue")).getValue(), 0L);
+        dataSource.forceCloseAll();
+    }
+}
@@ -0,0 +1,595 @@
+/**
+ * Copyright 2014 Jordan Zimmerman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.soabase.zookeeper.attributes;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Charsets;
+import com.google.common.base.Function;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import io.dropwizard.lifecycle.Managed;
+import io.soabase.core.features.attributes.AttributeKey;
+import io.soabase.core.features.attributes.AttributesRefresher;
+import io.soabase.core.features.attributes.ContainerDynamicAttributes;
+import io.soabase.core.features.attributes.StandardAttributesContainer;
+import io.soabase.core.features.attributes.WritableDynamicAttributes;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.recipes.cache.ChildData;
+import org.apache.curator.framework.recipes.cache.NodeCache;
+import org.apache.curator.framework.recipes.cache.NodeCacheListener;
+import org.apache.curator.framework.recipes.leader.LeaderLatch;
+import org.apache.curator.framework.recipes.leader.LeaderLatchListener;
+import org.apache.curator.utils.CloseableUtils;
+import org.apache.curator.utils.ZKPaths;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.data.Stat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+/**
+ * Only one instance in the cluster reads the backing store. Instances elect a leader via
+ * a {@link LeaderLatch}. The leader periodically reads all attributes from the store and, when they have
+ * changed, publishes them as a versioned snapshot. Every instance (including the leader) watches the snapshot
+ * via a {@link NodeCache} and applies new snapshots as they arrive.
+ * Load on the store is therefore independent of the number of instances. If the leader fails another instance
+ * takes over and, in the meantime, instances continue to use the last snapshot they received.
+ * <p>
+ * The snapshot znode is a small manifest that lists, for each scope, the part znodes that hold the scope's
+ * attributes. Parts are compressed, kept under a maximum size (ZooKeeper limits znodes to 1MB by default) and named by
+ * a hash of their contents so unchanged parts are re-used. Instances only read the parts for their own scopes.
+ * <p>
+ * The store is started and stopped with this instance so that its writes are set up and flushed, but its values are never
+ * read directly. It's only used to read all attributes and for writes. Writes are applied locally
+ * immediately and reach other instances with the next snapshot.
+ */
+public class LeaderDynamicAttributes extends ContainerDynamicAttributes implements WritableDynamicAttributes, Managed
+{
+    private final Logger log = LoggerFactory.getLogger(getClass());
+    private final WritableDynamicAttributes store;
+    private final CuratorFramework curator;
+    private final String snapshotPath;
+    private final String partsPath;
+    private final Set<String> queryScopes;
+    private final int maxPartBytes;
+    private final LeaderLatch leaderLatch;
+    private final NodeCache nodeCache;
+    private final AttributesRefresher refresher;
+    private long appliedZxid = -1;  // guarded by this
+    private Map<String, Map<String, String>> appliedParts = Maps.newHashMap();   // guarded by this - part name to key/values
+    private volatile int snapshotVersion = -1;
+
+    private static final int MAGIC = 0x534f414c;  // "SOAL"
+    private static final int FORMAT_VERSION = 2;
+
+    public static final int DEFAULT_MAX_PART_BYTES = 512 * 1024;
+
+    /**
+     * @param store the backing store
+     * @param curator Curator instance
+     * @param basePath ZooKeeper path for the leader latch and the snapshot
+     * @param scopes scopes to resolve. The first scope is the instance name.
+     * @param refreshPeriodMs how often the leader reads the store
+     * @param refreshTimeoutMs max time for the leader to read the store and publish
+     * @param maxBackoffMs max time between reads when reads are failing
+     * @param metricRegistry registry for metrics
+     */
+    public LeaderDynamicAttributes(WritableDynamicAttributes store, CuratorFramework curator, String basePath, List<String> scopes, long refreshPeriodMs, long refreshTimeoutMs, long maxBackoffMs, MetricRegistry metricRegistry)
+    {
+        this(store, curator, basePath, scopes, refreshPeriodMs, refreshTimeoutMs, maxBackoffMs, DEFAULT_MAX_PART_BYTES, metricRegistry);
+    }
+
+    /**
+     * @param store the backing store
+     * @param curator Curator instance
+     * @param basePath ZooKeeper path for the leader latch and the snapshot
+     * @param scopes scopes to resolve. The first scope is the instance name.
+     * @param refreshPeriodMs how often the leader reads the store
+     * @param refreshTimeoutMs max time for the leader to read the store and publish
+     * @param maxBackoffMs max time between reads when reads are failing
+     * @param maxPartBytes max uncompressed size of each snapshot part
+     * @param metricRegistry registry for metrics
+     */
+    public LeaderDynamicAttributes(WritableDynamicAttributes store, CuratorFramework curator, String basePath, List<String> scopes, long refreshPeriodMs, long refreshTimeoutMs, long maxBackoffMs, int maxPartBytes, MetricRegistry metricRegistry)
+    {
+        super(new StandardAttributesContainer(scopes));
+        Preconditions.checkArgument(maxPartBytes > 0, "maxPartBytes must be greater than 0");
+        this.store = store;
+        this.curator = curator;
+        this.maxPartBytes = maxPartBytes;
+        snapshotPath = ZKPaths.makePath(basePath, "snapshot");
+        partsPath = ZKPaths.makePath(basePath, "snapshot-parts");
+
+        Set<String> uniqueScopes = Sets.newLinkedHashSet(scopes);
+        uniqueScopes.add(StandardAttributesContainer.DEFAULT_SCOPE);
+        queryScopes = ImmutableSet.copyOf(uniqueScopes);
+
+        String instanceName = scopes.get(0);
+        leaderLatch = new LeaderLatch(curator, ZKPaths.makePath(basePath, "leader"), instanceName);
+        nodeCache = new NodeCache(curator, snapshotPath, true);
+
+        Callable<Void> publish = new Callable<Void>()
+        {
+            @Override
+            public Void call() throws Exception
+            {
+                publish();
+                return null;
+            }
+        };
+        refresher = new AttributesRefresher("zookeeper-leader", publish, refreshPeriodMs, refreshTimeoutMs, maxBackoffMs, instanceName, AttributesRefresher.DEFAULT_JITTER_RATIO, 0, metricRegistry);
+
+        NodeCacheListener nodeCacheListener = new NodeCacheListener()
+        {
+            @Override
+            public void nodeChanged() throws Exception
+            {
+                applySnapshot(nodeCache.getCurrentData());
+            }
+        };
+        nodeCache.getListenable().addListener(nodeCacheListener);
+
+        LeaderLatchListener leaderLatchListener = new LeaderLatchListener()
+        {
+            @Override
+            public void isLeader()
+            {
+                log.info("Now the attributes leader");
+                refresher.refreshAsync();   // don't block the latch's event thread on the store
+            }
+
+            @Override
+            public void notLeader()
+            {
+                log.info("No longer the attributes leader");
+            }
+        };
+        leaderLatch.addListener(leaderLatchListener);
+
+        Gauge<Boolean> leaderGauge = new Gauge<Boolean>()
+        {
+            @Override
+            public Boolean getValue()
+            {
+                return isLeader();
+            }
+        };
+        Gauge<Integer> versionGauge = new Gauge<Integer>()
+        {
+            @Override
+            public Integer getValue()
+            {
+                return snapshotVersion;
+            }
+        };
+        metricRegistry.register(MetricRegistry.name(LeaderDynamicAttributes.class, "leader"), leaderGauge);
+        metricRegistry.register(MetricRegistry.name(LeaderDynamicAttributes.class, "snapshot-version"), versionGauge);
+    }
+
+    @Override
+    public void start() throws Exception
+    {
+        if ( store instanceof Managed )
+        {
+            ((Managed)store).start();
+        }
+        nodeCache.start(true);
+        applySnapshot(nodeCache.getCurrentData());
+        leaderLatch.start();
+        refresher.start();
+    }
+
+    @Override
+    public void stop() throws Exception
+    {
+        refresher.stop();
+        if ( leaderLatch.getState() == LeaderLatch.State.STARTED )
+        {
+            CloseableUtils.closeQuietly(leaderLatch);
+        }
+        CloseableUtils.closeQuietly(nodeCache);
+        if ( store instanceof Managed )
+        {
+            ((Managed)store).stop();    // flushes any queued async writes
+        }
+    }
+
+    /**
+     * @return true if this instance is currently the leader
+     */
+    public boolean isLeader()
+    {
+        return leaderLatch.hasLeadership();
+    }
+
+    /**
+     * @return version of the last applied snapshot or -1
+     */
+    public int getSnapshotVersion()
+    {
+        return snapshotVersion;
+    }
+
+    /**
+     * If this instance is the leader, read the store now and publish a new snapshot if needed
+     *
+     * @return true if successful
+     */
+    public boolean refresh()
+    {
+        return refresher.refreshNow();
+    }
+
+    @Override
+    public void put(AttributeKey key, Object value)
+    {
+        store.put(key, value);
+        container.applyChanges(ImmutableMap.of(key, value), ImmutableList.<AttributeKey>of());
+    }
+
+    @Override
+    public void remove(AttributeKey key)
+    {
+        store.remove(key);
+        container.applyChanges(Maps.<AttributeKey, Object>newHashMap(), ImmutableList.of(key));
+    }
+
+    @Override
+    public ListenableFuture<Void> putAsync(final AttributeKey key, final Object value)
+    {
+        Function<Void, Void> apply = new Function<Void, Void>()
+        {
+            @Override
+            public Void apply(Void input)
+            {
+                container.applyChanges(ImmutableMap.of(key, value), ImmutableList.<AttributeKey>of());
+                return null;
+            }
+        };
+        return Futures.transform(store.putAsync(key, value), apply);
+    }
+
+    @Override
+    public ListenableFuture<Void> removeAsync(final AttributeKey key)
+    {
+        Function<Void, Void> apply = new Function<Void, Void>()
+        {
+            @Override
+            public Void apply(Void input)
+            {
+                container.applyChanges(Maps.<AttributeKey, Object>newHashMap(), ImmutableList.of(key));
+                return null;
+            }
+        };
+        return Futures.transform(store.removeAsync(key), apply);
+    }
+
+    @Override
+    public void putAll(Map<AttributeKey, Object> attributes)
+    {
+        store.putAll(attributes);
+        container.applyChanges(attributes, ImmutableList.<AttributeKey>of());
+    }
+
+    @Override
+    public void removeAll(Collection<AttributeKey> keys)
+    {
+        store.removeAll(keys);
+        container.applyChanges(Maps.<AttributeKey, Object>newHashMap(), keys);
+    }
+
+    @Override
+    public Map<AttributeKey, Object> getAll()
+    {
+        return store.getAll();
+    }
+
+    private synchronized void publish() throws Exception
+    {
+        if ( !isLeader() )
+        {
+            return;
+        }
+
+        Map<String, Map<String, String>> scopes = Maps.newTreeMap();   // sorted so that unchanged attributes always encode to the same bytes
+        for ( Map.Entry<AttributeKey, Object> entry : store.getAll().entrySet() )
+        {
+            Map<String, String> scopeAttributes = scopes.get(entry.getKey().getScope());
+            if ( scopeAttributes == null )
+            {
+                scopeAttributes = Maps.newTreeMap();
+                scopes.put(entry.getKey().getScope(), scopeAttributes);
+            }
+            scopeAttributes.put(entry.getKey().getKey(), String.valueOf(entry.getValue()));
+        }
+
+        Map<String, byte[]> parts = Maps.newHashMap();
+        Map<String, List<String>> manifest = Maps.newLinkedHashMap();
+        for ( Map.Entry<String, Map<String, String>> entry : scopes.entrySet() )
+        {
+            List<String> partNames = Lists.newArrayList();
+            for ( byte[] part : encodeParts(entry.getValue(), maxPartBytes) )
+            {
+                String partName = Hashing.sha1().hashBytes(part).toString();
+                parts.put(partName, part);
+                partNames.add(partName);
+            }
+            manifest.put(entry.getKey(), partNames);
+        }
+        byte[] manifestBytes = encodeManifest(manifest);
+
+        // compare with what's actually published rather than what this instance last published - another
+        // leader may have published in between
+        Stat stat = new Stat();
+        Map<String, List<String>> currentManifest = null;
+        try
+        {
+            byte[] currentData = curator.getData().decompressed().storingStatIn(stat).forPath(snapshotPath);
+            currentManifest = decodeManifest(currentData);
+            if ( (currentManifest != null) && Arrays.equals(encodeManifest(currentManifest), manifestBytes) )
+            {
+                return;
+            }
+        }
+        catch ( KeeperException.NoNodeException e )
+        {
+            stat = null;
+        }
+
+        for ( Map.Entry<String, byte[]> entry : parts.entrySet() )
+        {
+            try
+            {
+                curator.create().compressed().creatingParentsIfNeeded().forPath(ZKPaths.makePath(partsPath, entry.getKey()), entry.getValue());
+            }
+            catch ( KeeperException.NodeExistsException ignore )
+            {
+                // same name means same contents
+            }
+        }
+
+        // the znode's data version is the snapshot version. The conditional create/set fails if another leader
+        // changed the snapshot after it was read above. It does not stop a deposed leader that doesn't yet know it's
+        // been replaced from publishing what it read from the store - the current leader's next refresh corrects that.
+        if ( stat == null )
+        {
+            curator.create().compressed().creatingParentsIfNeeded().forPath(snapshotPath, encodeSnapshot(0, manifestBytes));
+        }
+        else
+        {
+            curator.setData().compressed().withVersion(stat.getVersion()).forPath(snapshotPath, encodeSnapshot(stat.getVersion() + 1, manifestBytes));
+        }
+
+        // parts of the previous snapshot are kept so that instances that are still reading it can finish
+        Set<String> usedParts = Sets.newHashSet(parts.keySet());
+        if ( currentManifest != null )
+        {
+            for ( List<String> partNames : currentManifest.values() )
+            {
+                usedParts.addAll(partNames);
+            }
+        }
+        for ( String child : curator.getChildren().forPath(partsPath) )
+        {
+            if ( !usedParts.contains(child) )
+            {
+                try
+                {
+                    curator.delete().forPath(ZKPaths.makePath(partsPath, child));
+                }
+                catch ( KeeperException.NoNodeException ignore )
+                {
+                    // already deleted
+                }
+            }
+        }
+    }
+
+    private synchronized void applySnapshot(ChildData data)
+    {
+        if ( (data == null) || (data.getData() == null) || (data.getStat().getMzxid() <= appliedZxid) )
+        {
+            return;
+        }
+
+        try
+        {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(data.getData()));
+            if ( (in.readInt() != MAGIC) || (in.readInt() != FORMAT_VERSION) )
+            {
+                log.error("Ignoring attributes snapshot with unknown format at: " + snapshotPath);
+                return;
+            }
+            int version = in.readInt();
+            Map<String, List<String>> manifest = readManifest(in);
+
+            // only this instance's scopes are read. Parts that haven't changed are re-used.
+            Map<AttributeKey, Object> attributes = Maps.newHashMap();
+            Map<String, Map<String, String>> newParts = Maps.newHashMap();
+            for ( String scope : queryScopes )
+            {
+                List<String> partNames = manifest.get(scope);
+                if ( partNames == null )
+                {
+                    continue;
+                }
+                for ( String partName : partNames )
+                {
+                    Map<String, String> part = appliedParts.get(partName);
+                    if ( part == null )
+                    {
+                        part = decodePart(curator.getData().decompressed().forPath(ZKPaths.makePath(partsPath, partName)));
+                    }
+                    newParts.put(partName, part);
+                    for ( Map.Entry<String, String> entry : part.entrySet() )
+                    {
+                        attributes.put(new AttributeKey(entry.getKey(), scope), entry.getValue());
+                    }
+                }
+            }
+
+            container.reset(attributes);
+            appliedParts = newParts;
+            appliedZxid = data.getStat().getMzxid();
+            snapshotVersion = version;
+        }
+        catch ( KeeperException.NoNodeException e )
+        {
+            log.warn("Attributes snapshot part was removed while reading. Waiting for the next snapshot: " + e.getPath());
+        }
+        catch ( Exception e )
+        {
+            log.error("Could not read attributes snapshot at: " + snapshotPath, e);
+        }
+    }
+
+    private static byte[] encodeSnapshot(int version, byte[] manifestBytes) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.writeInt(version);
+        out.write(manifestBytes);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static byte[] encodeManifest(Map<String, List<String>> manifest) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(manifest.size());
+        for ( Map.Entry<String, List<String>> entry : manifest.entrySet() )
+        {
+            writeString(out, entry.getKey());
+            out.writeInt(entry.getValue().size());
+            for ( String partName : entry.getValue() )
+            {
+                writeString(out, partName);
+            }
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static Map<String, List<String>> decodeManifest(byte[] snapshotBytes) throws IOException
+    {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(snapshotBytes));
+        if ( (in.readInt() != MAGIC) || (in.readInt() != FORMAT_VERSION) )
+        {
+            return null;
+        }
+        in.readInt();   // version
+        return readManifest(in);
+    }
+
+    private static Map<String, List<String>> readManifest(DataInputStream in) throws IOException
+    {
+        Map<String, List<String>> manifest = Maps.newLinkedHashMap();
+        int scopeCount = in.readInt();
+        for ( int i = 0; i < scopeCount; ++i )
+        {
+            String scope = readString(in);
+            int partCount = in.readInt();
+            List<String> partNames = Lists.newArrayList();
+            for ( int j = 0; j < partCount; ++j )
+            {
+                partNames.add(readString(in));
+            }
+            manifest.put(scope, partNames);
+        }
+        return manifest;
+    }
+
+    private static List<byte[]> encodeParts(Map<String, String> attributes, int maxPartBytes) throws IOException
+    {
+        List<byte[]> parts = Lists.newArrayList();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for ( Map.Entry<String, String> entry : attributes.entrySet() )
+        {
+            ByteArrayOutputStream entryBytes = new ByteArrayOutputStream();
+            DataOutputStream entryOut = new DataOutputStream(entryBytes);
+            writeString(entryOut, entry.getKey());
+            writeString(entryOut, entry.getValue());
+            entryOut.flush();
+            if ( (bytes.size() > 0) && ((bytes.size() + entryBytes.size()) > maxPartBytes) )
+            {
+                out.flush();
+                parts.add(bytes.toByteArray());
+                bytes.reset();
+            }
+            entryBytes.writeTo(out);
+        }
+        out.flush();
+        if ( (bytes.size() > 0) || parts.isEmpty() )
+        {
+            parts.add(bytes.toByteArray());
+        }
+        return parts;
+    }
+
+    private static Map<String, String> decodePart(byte[] partBytes) throws IOException
+    {
+        Map<String, String> part = Maps.newHashMap();
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(partBytes));
+        while ( in.available() > 0 )
+        {
+            String key = readString(in);
+            part.put(key, readString(in));
+        }
+        return part;
+    }
+
+    private static void writeString(DataOutputStream out, String str) throws IOException
+    {
+        byte[] bytes = str.getBytes(Charsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException
+    {
+        int length = in.readInt();
+        if ( (length < 0) || (length > in.available()) )
+        {
+            throw new IOException("Bad string length: " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, Charsets.UTF_8);
+    }
+}
@@ -0,0 +1,157 @@
+/**
+ * Copyright 2014 Jordan Zimmerman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.soabase.zookeeper.attributes;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonTypeName;
+import com.google.common.base.Preconditions;
+import io.dropwizard.setup.Environment;
+import io.soabase.core.SoaBundle;
+import io.soabase.core.SoaFeatures;
+import io.soabase.core.features.attributes.DynamicAttributes;
+import io.soabase.core.features.attributes.DynamicAttributesFactory;
+import io.soabase.core.features.attributes.WritableDynamicAttributes;
+import org.apache.curator.framework.CuratorFramework;
+import org.hibernate.validator.constraints.NotEmpty;
+import javax.validation.Valid;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Pattern;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Wraps another attributes factory. See {@link LeaderDynamicAttributes}
+ */
+@JsonTypeName("zookeeper-leader")
+public class LeaderDynamicAttributesFactory implements DynamicAttributesFactory
+{
+    @Valid
+    @NotNull
+    private DynamicAttributesFactory attributesFactory;
+
+    @NotEmpty
+    @Pattern(regexp = "/..*")
+    private String zookeeperPath = "/attributes-leader";
+
+    @NotEmpty
+    private String curatorName = SoaFeatures.DEFAULT_NAME;
+
+    @Min(1)
+    private int refreshPeriodSeconds = 30;
+
+    @Min(1)
+    private int refreshTimeoutSeconds = 30;
+
+    @Min(1)
+    private int maxBackoffSeconds = 300;
+
+    @Min(1)
+    private int maxSnapshotPartBytes = LeaderDynamicAttributes.DEFAULT_MAX_PART_BYTES;
+
+    @JsonProperty("attributes")
+    public DynamicAttributesFactory getAttributesFactory()
+    {
+        return attributesFactory;
+    }
+
+    @JsonProperty("attributes")
+    public void setAttributesFactory(DynamicAttributesFactory attributesFactory)
+    {
+        this.attributesFactory = attributesFactory;
+    }
+
+    @JsonProperty("zookeeperPath")
+    public String getZookeeperPath()
+    {
+        return zookeeperPath;
+    }
+
+    @JsonProperty("zookeeperPath")
+    public void setZookeeperPath(String zookeeperPath)
+    {
+        this.zookeeperPath = zookeeperPath;
+    }
+
+    @JsonProperty("name")
+    public String getCuratorName()
+    {
+        return curatorName;
+    }
+
+    @JsonProperty("name")
+    public void setCuratorName(String curatorName)
+    {
+        this.curatorName = curatorName;
+    }
+
+    @JsonProperty("refreshPeriodSeconds")
+    public int getRefreshPeriodSeconds()
+    {
+        return refreshPeriodSeconds;
+    }
+
+    @JsonProperty("refreshPeriodSeconds")
+    public void setRefreshPeriodSeconds(int refreshPeriodSeconds)
+    {
+        this.refreshPeriodSeconds = refreshPeriodSeconds;
+    }
+
+    @JsonProperty("refreshTimeoutSeconds")
+    public int getRefreshTimeoutSeconds()
+    {
+        return refreshTimeoutSeconds;
+    }
+
+    @JsonProperty("refreshTimeoutSeconds")
+    public void setRefreshTimeoutSeconds(int refreshTimeoutSeconds)
+    {
+        this.refreshTimeoutSeconds = refreshTimeoutSeconds;
+    }
+
+    @JsonProperty("maxBackoffSeconds")
+    public int getMaxBackoffSeconds()
+    {
+        return maxBackoffSeconds;
+    }
+
+    @JsonProperty("maxBackoffSeconds")
+    public void setMaxBackoffSeconds(int maxBackoffSeconds)
+    {
+        this.maxBackoffSeconds = maxBackoffSeconds;
+    }
+
+    @JsonProperty("maxSnapshotPartBytes")
+    public int getMaxSnapshotPartBytes()
+    {
+        return maxSnapshotPartBytes;
+    }
+
+    @JsonProperty("maxSnapshotPartBytes")
+    public void setMaxSnapshotPartBytes(int maxSnapshotPartBytes)
+    {
+        this.maxSnapshotPartBytes = maxSnapshotPartBytes;
+    }
+
+    @Override
+    public DynamicAttributes build(Environment environment, List<String> scopes)
+    {
+        CuratorFramework curator = SoaBundle.getFeatures(environment).getNamedRequired(CuratorFramework.class, curatorName);
+        DynamicAttributes store = attributesFactory.build(environment, scopes);
+        Preconditions.checkArgument(store instanceof WritableDynamicAttributes, "The leader attributes store must implement WritableDynamicAttributes. Got: " + store.getClass().getName());
+        return new LeaderDynamicAttributes((WritableDynamicAttributes)store, curator, zookeeperPath, scopes, TimeUnit.SECONDS.toMillis(refreshPeriodSeconds), TimeUnit.SECONDS.toMillis(refreshTimeoutSeconds), TimeUnit.SECONDS.toMillis(maxBackoffSeconds), maxSnapshotPartBytes, environment.metrics());
+    }
+}
@@ -0,0 +1,650 @@
+/**
+ * Copyright 2014 Jordan Zimmerman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.soabase.zookeeper.attributes;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.dropwizard.lifecycle.Managed;
+import io.soabase.core.features.attributes.AttributeKey;
+import io.soabase.core.features.attributes.ContainerDynamicAttributes;
+import io.soabase.core.features.attributes.StandardAttributesContainer;
+import io.soabase.core.features.attributes.WritableDynamicAttributes;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.api.transaction.CuratorTransaction;
+import org.apache.curator.framework.api.transaction.CuratorTransactionFinal;
+import org.apache.curator.framework.recipes.cache.ChildData;
+import org.apache.curator.framework.recipes.cache.PathChildrenCache;
+import org.apache.curator.framework.recipes.cache.PathChildrenCacheEvent;
+import org.apache.curator.framework.recipes.cache.PathChildrenCacheListener;
+import org.apache.curator.utils.CloseableUtils;
+import org.apache.curator.utils.ZKPaths;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.data.Stat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Attributes are stored as znodes: <code>basePath/scope/key</code> with the value as the node's data.
+ * Scope and key names are URL encoded. The default scope is stored as {@link #DEFAULT_SCOPE_NODE}.
+ * Each scope this instance uses is watched via a {@link PathChildrenCache} so that changes
+ * are applied as soon as they are made. Watch events that arrive within <code>eventBatchMs</code> of each other
+ * are applied as a single batch so that bulk changes don't re-publish the attributes once per node.
+ */
+public class ZooKeeperDynamicAttributes extends ContainerDynamicAttributes implements WritableDynamicAttributes, Managed
+{
+    private final Logger log = LoggerFactory.getLogger(getClass());
+    private final CuratorFramework curator;
+    private final String basePath;
+    private final Set<String> scopes;
+    private final Map<String, PathChildrenCache> caches;
+    private final long eventBatchMs;
+    private final ScheduledExecutorService executorService = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("ZooKeeperDynamicAttributes-%d").setDaemon(true).build());
+    private final Map<AttributeKey, Object> pendingUpserts = Maps.newHashMap();  // guarded by this
+    private final Set<AttributeKey> pendingDeletes = Sets.newHashSet(); // guarded by this
+    private boolean flushScheduled = false; // guarded by this
+    private long eventCount = 0;    // guarded by this
+    private final Map<AttributeKey, Long> lastEventCounts = Maps.newHashMap();   // guarded by this - eventCount when each key's latest watch event arrived
+    private final Map<AttributeKey, Long> lastEventZxids = Maps.newHashMap();    // guarded by this - mzxid of each key's latest watch event
+    private boolean started = false;    // guarded by this
+
+    /**
+     * Node name used for the default scope. A URL encoded name can never end with "%"
+     */
+    public static final String DEFAULT_SCOPE_NODE = "%default%";
+
+    public static final long DEFAULT_EVENT_BATCH_MS = 10;
+
+    private static final int MAX_TRANSACTION_ATTEMPTS = 3;
+
+    public ZooKeeperDynamicAttributes(CuratorFramework curator, String basePath, List<String> scopes)
+    {
+        this(curator, basePath, scopes, DEFAULT_EVENT_BATCH_MS);
+    }
+
+    /**
+     * @param curator the client
+     * @param basePath base path for the attributes
+     * @param scopes scopes to watch
+     * @param eventBatchMs how long to gather watch events before applying them
+     */
+    public ZooKeeperDynamicAttributes(CuratorFramework curator, String basePath, List<String> scopes, long eventBatchMs)
+    {
+        super(new StandardAttributesContainer(scopes));
+        this.curator = curator;
+        this.basePath = basePath;
+        this.eventBatchMs = eventBatchMs;
+
+        Set<String> uniqueScopes = Sets.newLinkedHashSet(scopes);
+        uniqueScopes.add(StandardAttributesContainer.DEFAULT_SCOPE);
+        this.scopes = uniqueScopes;
+
+        ImmutableMap.Builder<String, PathChildrenCache> builder = ImmutableMap.builder();
+        for ( final String scope : uniqueScopes )
+        {
+            PathChildrenCache cache = new PathChildrenCache(curator, scopePath(scope), true);
+            PathChildrenCacheListener listener = new PathChildrenCacheListener()
+            {
+                @Override
+                public void childEvent(CuratorFramework client, PathChildrenCacheEvent event) throws Exception
+                {
+                    handleEvent(scope, event);
+                }
+            };
+            cache.getListenable().addListener(listener);
+            builder.put(scope, cache);
+        }
+        caches = builder.build();
+    }
+
+    @Override
+    public void start() throws Exception
+    {
+        for ( PathChildrenCache cache : caches.values() )
+        {
+            cache.start(PathChildrenCache.StartMode.BUILD_INITIAL_CACHE);
+        }
+
+        synchronized(this)
+        {
+            Map<AttributeKey, Object> newAttributes = Maps.newHashMap();
+            for ( Map.Entry<String, PathChildrenCache> entry : caches.entrySet() )
+            {
+                for ( ChildData childData : entry.getValue().getCurrentData() )
+                {
+                    newAttributes.put(toKey(entry.getKey(), childData), toValue(childData));
+                }
+            }
+            container.reset(newAttributes);
+            started = true;
+        }
+    }
+
+    @Override
+    public void stop() throws Exception
+    {
+        for ( PathChildrenCache cache : caches.values() )
+        {
+            CloseableUtils.closeQuietly(cache);
+        }
+        executorService.shutdownNow();
+    }
+
+    @Override
+    public void put(AttributeKey key, Object value)
+    {
+        long startEventCount = getEventCount();
+        byte[] data = toBytes(value);
+        String path = attributePath(key);
+        try
+        {
+            try
+            {
+                curator.setData().forPath(path, data);
+            }
+            catch ( KeeperException.NoNodeException e )
+            {
+                curator.create().creatingParentsIfNeeded().forPath(path, data);
+            }
+        }
+        catch ( KeeperException.NodeExistsException e )
+        {
+            // created by another writer between the two calls
+            try
+            {
+                curator.setData().forPath(path, data);
+            }
+            catch ( Exception e1 )
+            {
+                log.error("Could not set attribute: " + key, e1);
+                throw new RuntimeException(e1);
+            }
+        }
+        catch ( Exception e )
+        {
+            log.error("Could not set attribute: " + key, e);
+            throw new RuntimeException(e);
+        }
+
+        Map<AttributeKey, Object> upserts = Maps.newHashMap();
+        upserts.put(key, String.valueOf(value));
+        applyLocally(upserts, ImmutableList.<AttributeKey>of(), startEventCount);
+    }
+
+    @Override
+    public void remove(AttributeKey key)
+    {
+        long startEventCount = getEventCount();
+        try
+        {
+            curator.delete().forPath(attributePath(key));
+        }
+        catch ( KeeperException.NoNodeException ignore )
+        {
+            // already gone
+        }
+        catch ( Exception e )
+        {
+            log.error("Could not remove attribute: " + key, e);
+            throw new RuntimeException(e);
+        }
+
+        applyLocally(Maps.<AttributeKey, Object>newHashMap(), ImmutableList.of(key), startEventCount);
+    }
+
+    @Override
+    public ListenableFuture<Void> putAsync(AttributeKey key, Object value)
+    {
+        try
+        {
+            put(key, value);
+        }
+        catch ( Exception e )
+        {
+            return Futures.immediateFailedFuture(e);
+        }
+        return Futures.immediateFuture(null);
+    }
+
+    @Override
+    public ListenableFuture<Void> removeAsync(AttributeKey key)
+    {
+        try
+        {
+            remove(key);
+        }
+        catch ( Exception e )
+        {
+            return Futures.immediateFailedFuture(e);
+        }
+        return Futures.immediateFuture(null);
+    }
+
+    @Override
+    public void putAll(Map<AttributeKey, Object> attributes)
+    {
+        long startEventCount = getEventCount();
+        try
+        {
+            for ( AttributeKey key : attributes.keySet() )
+            {
+                curator.newNamespaceAwareEnsurePath(scopePath(key.getScope())).ensure(curator.getZookeeperClient());
+            }
+
+            for ( int attempt = 1; ; ++attempt )
+            {
+                CuratorTransaction transaction = curator.inTransaction();
+                CuratorTransactionFinal transactionFinal = null;
+                for ( Map.Entry<AttributeKey, Object> entry : attributes.entrySet() )
+                {
+                    String path = attributePath(entry.getKey());
+                    byte[] data = toBytes(entry.getValue());
+                    if ( curator.checkExists().forPath(path) != null )
+                    {
+                        transactionFinal = transaction.setData().forPath(path, data).and();
+                    }
+                    else
+                    {
+                        transactionFinal = transaction.create().forPath(path, data).and();
+                    }
+                    transaction = transactionFinal;
+                }
+
+                if ( commit(transactionFinal, attempt) )
+                {
+                    break;
+                }
+            }
+        }
+        catch ( Exception e )
+        {
+            log.error("Could not set attributes: " + attributes.keySet(), e);
+            throw new RuntimeException(e);
+        }
+
+        Map<AttributeKey, Object> upserts = Maps.newHashMap();
+        for ( Map.Entry<AttributeKey, Object> entry : attributes.entrySet() )
+        {
+            upserts.put(entry.getKey(), String.valueOf(entry.getValue()));
+        }
+        applyLocally(upserts, ImmutableList.<AttributeKey>of(), startEventCount);
+    }
+
+    @Override
+    public void removeAll(Collection<AttributeKey> keys)
+    {
+        long startEventCount = getEventCount();
+        try
+        {
+            for ( int attempt = 1; ; ++attempt )
+            {
+                CuratorTransaction transaction = curator.inTransaction();
+                CuratorTransactionFinal transactionFinal = null;
+                for ( AttributeKey key : keys )
+                {
+                    String path = attributePath(key);
+                    if ( curator.checkExists().forPath(path) != null )
+                    {
+                        transactionFinal = transaction.delete().forPath(path).and();
+                        transaction = transactionFinal;
+                    }
+                }
+
+                if ( commit(transactionFinal, attempt) )
+                {
+                    break;
+                }
+            }
+        }
+        catch ( Exception e )
+        {
+            log.error("Could not remove attributes: " + keys, e);
+            throw new RuntimeException(e);
+        }
+
+        applyLocally(Maps.<AttributeKey, Object>newHashMap(), keys, startEventCount);
+    }
+
+    @Override
+    public Map<AttributeKey, Object> getAll()
+    {
+        Map<AttributeKey, Object> all = Maps.newHashMap();
+        try
+        {
+            if ( curator.checkExists().forPath(basePath) == null )
+            {
+                return all;
+            }
+
+            for ( String scopeNode : curator.getChildren().forPath(basePath) )
+            {
+                String scope = fromNodeName(scopeNode);
+                String scopePath = ZKPaths.makePath(basePath, scopeNode);
+                for ( String keyNode : curator.getChildren().forPath(scopePath) )
+                {
+                    try
+                    {
+                        byte[] data = curator.getData().forPath(ZKPaths.makePath(scopePath, keyNode));
+                        all.put(new AttributeKey(decode(keyNode), scope), toValue(data));
+                    }
+                    catch ( KeeperException.NoNodeException ignore )
+                    {
+                        // deleted while iterating
+                    }
+                }
+            }
+        }
+        catch ( Exception e )
+        {
+            log.error("Could not read all attributes from: " + basePath, e);
+            throw new RuntimeException(e);
+        }
+        return all;
+    }
+
+    private boolean commit(CuratorTransactionFinal transactionFinal, int attempt) throws Exception
+    {
+        if ( transactionFinal == null )
+        {
+            return true;    // nothing to do
+        }
+
+        try
+        {
+            transactionFinal.commit();
+            return true;
+        }
+        catch ( KeeperException.NodeExistsException | KeeperException.NoNodeException e )
+        {
+            // another writer changed a node between checking and committing
+            if ( attempt >= MAX_TRANSACTION_ATTEMPTS )
+            {
+                throw e;
+            }
+        }
+        return false;
+    }
+
+    private synchronized void handleEvent(String scope, PathChildrenCacheEvent event)
+    {
+        if ( !started )
+        {
+            return; // start() reads the current data of all caches once they're all started
+        }
+
+        switch ( event.getType() )
+        {
+            case CHILD_ADDED:
+            case CHILD_UPDATED:
+            {
+                AttributeKey key = toKey(scope, event.getData());
+                recordEvent(key, event.getData());
+                pendingDeletes.remove(key);
+                pendingUpserts.put(key, toValue(event.getData()));
+                scheduleFlush();
+                break;
+            }
+
+            case CHILD_REMOVED:
+            {
+                AttributeKey key = toKey(scope, event.getData());
+                recordEvent(key, event.getData());
+                pendingUpserts.remove(key);
+                pendingDeletes.add(key);
+                scheduleFlush();
+                break;
+            }
+
+            default:
+            {
+                // NOP
+                break;
+            }
+        }
+    }
+
+    // must be called while synchronized
+    private void scheduleFlush()
+    {
+        if ( flushScheduled )
+        {
+            return;
+        }
+
+        Runnable flush = new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                flushEvents();
+            }
+        };
+        executorService.schedule(flush, eventBatchMs, TimeUnit.MILLISECONDS);
+        flushScheduled = true;
+    }
+
+    private synchronized void flushEvents()
+    {
+        flushScheduled = false;
+        if ( pendingUpserts.isEmpty() && pendingDeletes.isEmpty() )
+        {
+            return;
+        }
+
+        try
+        {
+            container.applyChanges(Maps.newHashMap(pendingUpserts), Lists.newArrayList(pendingDeletes));
+        }
+        catch ( Throwable e )
+        {
+            // an uncaught Throwable would be lost in the executor
+            log.error("Could not apply attribute changes from ZooKeeper", e);
+        }
+        finally
+        {
+            pendingUpserts.clear();
+            pendingDeletes.clear();
+        }
+    }
+
+    private synchronized long getEventCount()
+    {
+        return eventCount;
+    }
+
+    // must be called while synchronized
+    private void recordEvent(AttributeKey key, ChildData childData)
+    {
+        lastEventCounts.put(key, ++eventCount);
+        lastEventZxids.put(key, (childData.getStat() != null) ? childData.getStat().getMzxid() : 0);
+    }
+
+    /**
+     * Apply writes immediately instead of waiting for the watch - only for the scopes this instance watches.
+     * Watch events arrive in ZooKeeper's order so events that arrived before the write started are older than
+     * the write and are discarded. If an event for a key arrived after the write started it may be older or newer
+     * than the write (e.g. another writer changed the key) - the node is read back and its value is only applied
+     * if it's at least as new as that event. Otherwise the pending events already have the newest value.
+     */
+    private void applyLocally(Map<AttributeKey, Object> upserts, Collection<AttributeKey> deletes, long startEventCount)
+    {
+        Map<AttributeKey, Object> localUpserts = Maps.newHashMap();
+        Set<AttributeKey> localDeletes = Sets.newHashSet();
+        Set<AttributeKey> changedKeys = Sets.newHashSet();
+        long readBackEventCount;
+        synchronized(this)
+        {
+            for ( Map.Entry<AttributeKey, Object> entry : upserts.entrySet() )
+            {
+                if ( scopes.contains(entry.getKey().getScope()) )
+                {
+                    localUpserts.put(entry.getKey(), entry.getValue());
+                }
+            }
+            for ( AttributeKey key : deletes )
+            {
+                if ( scopes.contains(key.getScope()) )
+                {
+                    localDeletes.add(key);
+                }
+            }
+            for ( AttributeKey key : Sets.union(localUpserts.keySet(), localDeletes) )
+            {
+                Long lastEventCount = lastEventCounts.get(key);
+                if ( (lastEventCount != null) && (lastEventCount > startEventCount) )
+                {
+                    changedKeys.add(key);
+                }
+            }
+            readBackEventCount = eventCount;
+        }
+
+        Map<AttributeKey, Stat> readBackStats = Maps.newHashMap();
+        Set<AttributeKey> readBackDeletes = Sets.newHashSet();
+        for ( AttributeKey key : changedKeys )
+        {
+            localUpserts.remove(key);
+            localDeletes.remove(key);
+            try
+            {
+                Stat stat = new Stat();
+                byte[] data = curator.getData().storingStatIn(stat).forPath(attributePath(key));
+                localUpserts.put(key, toValue(data));
+                readBackStats.put(key, stat);
+            }
+            catch ( KeeperException.NoNodeException e )
+            {
+                localDeletes.add(key);  // no event can be newer than a deletion that's still current
+                readBackDeletes.add(key);
+            }
+            catch ( Exception e )
+            {
+                log.debug("Could not read back attribute: " + key, e);    // the pending events will apply the current value
+            }
+        }
+
+        synchronized(this)
+        {
+            for ( Map.Entry<AttributeKey, Stat> entry : readBackStats.entrySet() )
+            {
+                Long lastEventZxid = lastEventZxids.get(entry.getKey());
+                if ( (lastEventZxid != null) && (lastEventZxid > entry.getValue().getMzxid()) )
+                {
+                    localUpserts.remove(entry.getKey()); // an even newer event arrived while reading back
+                }
+            }
+            for ( AttributeKey key : readBackDeletes )
+            {
+                if ( lastEventCounts.get(key) > readBackEventCount )
+                {
+                    localDeletes.remove(key);   // e.g. re-created while reading back
+                }
+            }
+            for ( AttributeKey key : Sets.union(localUpserts.keySet(), localDeletes) )
+            {
+                pendingUpserts.remove(key);
+                pendingDeletes.remove(key);
+            }
+            container.applyChanges(localUpserts, Lists.newArrayList(localDeletes));
+        }
+    }
+
+    private String scopePath(String scope)
+    {
+        return ZKPaths.makePath(basePath, toNodeName(scope));
+    }
+
+    private String attributePath(AttributeKey key)
+    {
+        return ZKPaths.makePath(scopePath(key.getScope()), encode(key.getKey()));
+    }
+
+    private static AttributeKey toKey(String scope, ChildData childData)
+    {
+        return new AttributeKey(decode(ZKPaths.getNodeFromPath(childData.getPath())), scope);
+    }
+
+    private static Object toValue(ChildData childData)
+    {
+        return toValue(childData.getData());
+    }
+
+    private static Object toValue(byte[] data)
+    {
+        return (data != null) ? new String(data, Charsets.UTF_8) : "";
+    }
+
+    private static byte[] toBytes(Object value)
+    {
+        return String.valueOf(value).getBytes(Charsets.UTF_8);
+    }
+
+    private static String toNodeName(String scope)
+    {
+        return scope.equals(StandardAttributesContainer.DEFAULT_SCOPE) ? DEFAULT_SCOPE_NODE : encode(scope);
+    }
+
+    private static String fromNodeName(String node)
+    {
+        return node.equals(DEFAULT_SCOPE_NODE) ? StandardAttributesContainer.DEFAULT_SCOPE : decode(node);
+    }
+
+    private static String encode(String name)
+    {
+        try
+        {
+            String encoded = URLEncoder.encode(name, "UTF-8");
+            if ( encoded.equals(".") || encoded.equals("..") )
+            {
+                // not valid znode names - URLEncoder leaves '.' alone. URLDecoder decodes these back to dots.
+                encoded = encoded.replace(".", "%2E");
+            }
+            return encoded;
+        }
+        catch ( UnsupportedEncodingException e )
+        {
+            throw new RuntimeException(e);  // should never happen
+        }
+    }
+
+    private static String decode(String name)
+    {
+        try
+        {
+            return URLDecoder.decode(name, "UTF-8");
+        }
+        catch ( UnsupportedEncodingException e )
+        {
+            throw new RuntimeException(e);  // should never happen
+        }
+    }
+}
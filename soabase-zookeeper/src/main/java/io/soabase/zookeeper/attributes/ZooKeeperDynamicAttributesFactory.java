@@ -0,0 +1,86 @@
+/**
+ * Copyright 2014 Jordan Zimmerman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.soabase.zookeeper.attributes;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonTypeName;
+import io.dropwizard.setup.Environment;
+import io.soabase.core.SoaBundle;
+import io.soabase.core.SoaFeatures;
+import io.soabase.core.features.attributes.DynamicAttributes;
+import io.soabase.core.features.attributes.DynamicAttributesFactory;
+import org.apache.curator.framework.CuratorFramework;
+import org.hibernate.validator.constraints.NotEmpty;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.Pattern;
+import java.util.List;
+
+@JsonTypeName("zookeeper")
+public class ZooKeeperDynamicAttributesFactory implements DynamicAttributesFactory
+{
+    @NotEmpty
+    @Pattern(regexp = "/..*")
+    private String zookeeperPath = "/attributes";
+
+    @NotEmpty
+    private String curatorName = SoaFeatures.DEFAULT_NAME;
+
+    @Min(0)
+    private long eventBatchMs = ZooKeeperDynamicAttributes.DEFAULT_EVENT_BATCH_MS;
+
+    @JsonProperty("zookeeperPath")
+    public String getZookeeperPath()
+    {
+        return zookeeperPath;
+    }
+
+    @JsonProperty("zookeeperPath")
+    public void setZookeeperPath(String zookeeperPath)
+    {
+        this.zookeeperPath = zookeeperPath;
+    }
+
+    @JsonProperty("name")
+    public String getCuratorName()
+    {
+        return curatorName;
+    }
+
+    @JsonProperty("name")
+    public void setCuratorName(String curatorName)
+    {
+        this.curatorName = curatorName;
+    }
+
+    @JsonProperty("eventBatchMs")
+    public long getEventBatchMs()
+    {
+        return eventBatchMs;
+    }
+
+    @JsonProperty("eventBatchMs")
+    public void setEventBatchMs(long eventBatchMs)
+    {
+        this.eventBatchMs = eventBatchMs;
+    }
+
+    @Override
+    public DynamicAttributes build(Environment environment, List<String> scopes)
+    {
+        CuratorFramework curator = SoaBundle.getFeatures(environment).getNamedRequired(CuratorFramework.class, curatorName);
+        return new ZooKeeperDynamicAttributes(curator, zookeeperPath, scopes, eventBatchMs);
+    }
+}
@@ -0,0 +1,98 @@
+/**
+ * Copyright 2014 Jordan Zimmerman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.soabase.zookeeper.discovery;
+
+import com.google.common.collect.ConcurrentHashMultiset;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multiset;
+import com.google.common.collect.Sets;
+import org.apache.curator.x.discovery.ServiceInstance;
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Counts the requests that clients in this JVM currently have outstanding to each instance. Counts come from
+ * {@link ZooKeeperDiscovery#noteRequestStarted(String, io.soabase.core.features.discovery.DiscoveryInstance)} and
+ * {@link ZooKeeperDiscovery#noteRequestCompleted(String, io.soabase.core.features.discovery.DiscoveryInstance)}.
+ * Counts for instances that are no longer registered are removed by {@link #retain(String, Collection)} when the
+ * service's registrations change.
+ */
+public class InFlightRequests
+{
+    private final Multiset<String> counts = ConcurrentHashMultiset.create();    // entries are removed when their count reaches 0
+    private final ConcurrentMap<String, Set<String>> serviceInstanceIds = Maps.newConcurrentMap();
+
+    /**
+     * @param instanceId instance id
+     * @return number of outstanding requests for the instance
+     */
+    public int get(String instanceId)
+    {
+        return counts.count(instanceId);
+    }
+
+    void increment(String serviceName, String instanceId)
+    {
+        Set<String> instanceIds = serviceInstanceIds.get(serviceName);
+        if ( instanceIds == null )
+        {
+            Set<String> newInstanceIds = Sets.newConcurrentHashSet();
+            instanceIds = serviceInstanceIds.putIfAbsent(serviceName, newInstanceIds);
+            if ( instanceIds == null )
+            {
+                instanceIds = newInstanceIds;
+            }
+        }
+        instanceIds.add(instanceId);
+        counts.add(instanceId);
+    }
+
+    void decrement(String instanceId)
+    {
+        counts.remove(instanceId);
+    }
+
+    /**
+     * Remove the counts of the service's instances that aren't in the given list - e.g. instances that
+     * were deregistered while requests to them were outstanding
+     *
+     * @param serviceName service name
+     * @param instances all of the service's registered instances - not only those available for selection
+     */
+    void retain(String serviceName, Collection<ServiceInstance<Payload>> instances)
+    {
+        Set<String> instanceIds = serviceInstanceIds.get(serviceName);
+        if ( (instanceIds == null) || instanceIds.isEmpty() )
+        {
+            return;
+        }
+
+        Set<String> currentIds = Sets.newHashSet();
+        for ( ServiceInstance<Payload> instance : instances )
+        {
+            currentIds.add(instance.getId());
+        }
+        for ( String instanceId : instanceIds )
+        {
+            if ( !currentIds.contains(instanceId) )
+            {
+                instanceIds.remove(instanceId);
+                counts.setCount(instanceId, 0);
+            }
+        }
+    }
+}
@@ -0,0 +1,47 @@
+/**
+ * Copyright 2014 Jordan Zimmerman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.soabase.zookeeper.discovery;
+
+import org.apache.curator.x.discovery.ServiceInstance;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Chooses the instance with the fewest in-flight requests. Scans every instance for each selection.
+ */
+public class LeastOutstandingSelectionStrategy implements SelectionStrategy
+{
+    @Override
+    public ServiceInstance<Payload> select(List<ServiceInstance<Payload>> instances, InFlightRequests inFlightRequests)
+    {
+        // start at a random instance so that ties (e.g. when idle) don't all go to the first instance
+        int size = instances.size();
+        int start = ThreadLocalRandom.current().nextInt(size);
+        ServiceInstance<Payload> best = null;
+        int bestCount = Integer.MAX_VALUE;
+        for ( int i = 0; i < size; ++i )
+        {
+            ServiceInstance<Payload> instance = instances.get((start + i) % size);
+            int count = inFlightRequests.get(instance.getId());
+            if ( count < bestCount )
+            {
+                best = instance;
+                bestCount = count;
+            }
+        }
+        return best;
+    }
+}
@@ -0,0 +1,49 @@
+/**
+ * Copyright 2014 Jordan Zimmerman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.soabase.zookeeper.discovery;
+
+import org.apache.curator.x.discovery.ServiceInstance;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Picks two instances at random and chooses the one with fewer in-flight requests. Nearly as
+ * well balanced as {@link LeastOutstandingSelectionStrategy} without scanning every instance and
+ * without every client piling onto the same least loaded instance.
+ */
+public class PowerOfTwoSelectionStrategy implements SelectionStrategy
+{
+    @Override
+    public ServiceInstance<Payload> select(List<ServiceInstance<Payload>> instances, InFlightRequests inFlightRequests)
+    {
+        int size = instances.size();
+        if ( size == 1 )
+        {
+            return instances.get(0);
+        }
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int firstIndex = random.nextInt(size);
+        int secondIndex = random.nextInt(size - 1);
+        if ( secondIndex >= firstIndex )
+        {
+            ++secondIndex;  // always a different instance than the first
+        }
+        ServiceInstance<Payload> first = instances.get(firstIndex);
+        ServiceInstance<Payload> second = instances.get(secondIndex);
+        return (inFlightRequests.get(second.getId()) < inFlightRequests.get(first.getId())) ? second : first;
+    }
+}
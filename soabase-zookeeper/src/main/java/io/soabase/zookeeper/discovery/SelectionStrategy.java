@@ -0,0 +1,33 @@
+/**
+ * Copyright 2014 Jordan Zimmerman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.soabase.zookeeper.discovery;
+
+import org.apache.curator.x.discovery.ServiceInstance;
+import java.util.List;
+
+/**
+ * Chooses the instance that {@link ZooKeeperDiscovery#getInstance(String)} returns. A new strategy
+ * is built (via {@link SelectionStrategyFactory}) for each service so implementations can keep per-service state.
+ */
+public interface SelectionStrategy
+{
+    /**
+     * @param instances the currently available instances. Never empty.
+     * @param inFlightRequests the number of requests each instance is currently handling
+     * @return the instance to use
+     */
+    public ServiceInstance<Payload> select(List<ServiceInstance<Payload>> instances, InFlightRequests inFlightRequests);
+}
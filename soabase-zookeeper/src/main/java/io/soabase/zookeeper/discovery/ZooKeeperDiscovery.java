@@ -34,18 +34,25 @@ import io.soabase.core.features.discovery.HealthyState;
 import io.soabase.core.features.discovery.DiscoveryInstance;
 import io.soabase.core.features.discovery.ExtendedDiscovery;
 import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.state.ConnectionState;
 import org.apache.curator.utils.CloseableUtils;
 import org.apache.curator.x.discovery.InstanceFilter;
+import org.apache.curator.x.discovery.ProviderStrategy;
+import org.apache.curator.x.discovery.ServiceCache;
 import org.apache.curator.x.discovery.ServiceDiscovery;
 import org.apache.curator.x.discovery.ServiceDiscoveryBuilder;
 import org.apache.curator.x.discovery.ServiceInstance;
 import org.apache.curator.x.discovery.ServiceInstanceBuilder;
 import org.apache.curator.x.discovery.ServiceProvider;
+import org.apache.curator.x.discovery.details.InstanceProvider;
+import org.apache.curator.x.discovery.details.ServiceCacheListener;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import javax.annotation.Nullable;
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -58,6 +65,9 @@ public class ZooKeeperDiscovery extends CacheLoader<String, ServiceProvider<Payl
     private final AtomicReference<ServiceInstance<Payload>> us = new AtomicReference<>();
     private final String bindAddress;
     private final SoaInfo soaInfo;
+    private final ZooKeeperDiscoveryFactory factory;
+    private final InFlightRequests inFlightRequests = new InFlightRequests();
+    private final ConcurrentMap<ServiceProvider<Payload>, ServiceCache<Payload>> registrationCaches = Maps.newConcurrentMap();
 
     private static class FoundInstance
     {
@@ -74,6 +84,7 @@ public class ZooKeeperDiscovery extends CacheLoader<String, ServiceProvider<Payl
     public ZooKeeperDiscovery(CuratorFramework curator, ZooKeeperDiscoveryFactory factory, SoaInfo soaInfo)
     {
         this.soaInfo = soaInfo;
+        this.factory = factory;
         bindAddress = factory.getBindAddress();
         providers = CacheBuilder.newBuilder()
             .expireAfterWrite(5, TimeUnit.MINUTES)  // TODO config
@@ -158,7 +169,7 @@ public class ZooKeeperDiscovery extends CacheLoader<String, ServiceProvider<Payl
     }
 
     @Override
-    public ServiceProvider<Payload> load(String serviceName) throws Exception
+    public ServiceProvider<Payload> load(final String serviceName) throws Exception
     {
         InstanceFilter<Payload> filter = new InstanceFilter<Payload>()
         {
@@ -173,18 +184,52 @@ public class ZooKeeperDiscovery extends CacheLoader<String, ServiceProvider<Payl
                 return (payload.getForcedState() == ForcedState.REGISTER);
             }
         };
+        final SelectionStrategy selectionStrategy = factory.getSelectionStrategy(serviceName).build();
+        ProviderStrategy<Payload> providerStrategy = new ProviderStrategy<Payload>()
+        {
+            @Override
+            public ServiceInstance<Payload> getInstance(InstanceProvider<Payload> instanceProvider) throws Exception
+            {
+                List<ServiceInstance<Payload>> instances = instanceProvider.getInstances();
+                return (instances.size() > 0) ? selectionStrategy.select(instances, inFlightRequests) : null;
+            }
+        };
         ServiceProvider<Payload> provider = discovery
             .serviceProviderBuilder()
             .serviceName(serviceName)
             .additionalFilter(filter)
+            .providerStrategy(providerStrategy)
             .build();
         provider.start();
+
+        // the provider's instances are filtered (forced state, health) - in-flight counts are only
+        // removed when an instance is actually deregistered
+        final ServiceCache<Payload> registrations = discovery.serviceCacheBuilder().name(serviceName).build();
+        ServiceCacheListener registrationsListener = new ServiceCacheListener()
+        {
+            @Override
+            public void cacheChanged()
+            {
+                inFlightRequests.retain(serviceName, registrations.getInstances());
+            }
+
+            @Override
+            public void stateChanged(CuratorFramework client, ConnectionState newState)
+            {
+                // NOP
+            }
+        };
+        registrations.addListener(registrationsListener);
+        registrations.start();
+        registrationCaches.put(provider, registrations);
+
         return provider;
     }
 
     @Override
     public void onRemoval(RemovalNotification<String, ServiceProvider<Payload>> notification)
     {
+        CloseableUtils.closeQuietly(registrationCaches.remove(notification.getValue()));
         CloseableUtils.closeQuietly(notification.getValue());
     }
 
@@ -265,6 +310,26 @@ public class ZooKeeperDiscovery extends CacheLoader<String, ServiceProvider<Payl
         }
     }
 
+    @Override
+    public void noteRequestStarted(String serviceName, DiscoveryInstance instance)
+    {
+        inFlightRequests.increment(serviceName, instance.getId());
+    }
+
+    @Override
+    public void noteRequestCompleted(String serviceName, DiscoveryInstance instance)
+    {
+        inFlightRequests.decrement(instance.getId());
+    }
+
+    /**
+     * @return the in-flight request counts used by the selection strategies
+     */
+    public InFlightRequests getInFlightRequests()
+    {
+        return inFlightRequests;
+    }
+
     @Override
     public void start() throws Exception
     {
@@ -17,6 +17,7 @@ package io.soabase.zookeeper.discovery;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.annotation.JsonTypeName;
+import com.google.common.collect.Maps;
 import io.dropwizard.setup.Environment;
 import io.soabase.core.SoaBundle;
 import io.soabase.core.SoaFeatures;
@@ -25,7 +26,10 @@ import io.soabase.core.features.discovery.Discovery;
 import io.soabase.core.features.discovery.DiscoveryFactory;
 import org.apache.curator.framework.CuratorFramework;
 import org.hibernate.validator.constraints.NotEmpty;
+import javax.validation.Valid;
+import javax.validation.constraints.NotNull;
 import javax.validation.constraints.Pattern;
+import java.util.Map;
 
 @JsonTypeName("zookeeper")
 public class ZooKeeperDiscoveryFactory implements DiscoveryFactory
@@ -36,6 +40,14 @@ public class ZooKeeperDiscoveryFactory implements DiscoveryFactory
     @Pattern(regexp = "/..*")
     private String zookeeperPath = "/discovery";
 
+    @Valid
+    @NotNull
+    private SelectionStrategyFactory selectionStrategy = new RoundRobinSelectionStrategyFactory();
+
+    @Valid
+    @NotNull
+    private Map<String, SelectionStrategyFactory> serviceSelectionStrategies = Maps.newHashMap();
+
     @JsonProperty("bindAddress")
     public String getBindAddress()
     {
@@ -60,6 +72,40 @@ public class ZooKeeperDiscoveryFactory implements DiscoveryFactory
         this.zookeeperPath = zookeeperPath;
     }
 
+    @JsonProperty("selectionStrategy")
+    public SelectionStrategyFactory getSelectionStrategy()
+    {
+        return selectionStrategy;
+    }
+
+    @JsonProperty("selectionStrategy")
+    public void setSelectionStrategy(SelectionStrategyFactory selectionStrategy)
+    {
+        this.selectionStrategy = selectionStrategy;
+    }
+
+    @JsonProperty("serviceSelectionStrategies")
+    public Map<String, SelectionStrategyFactory> getServiceSelectionStrategies()
+    {
+        return serviceSelectionStrategies;
+    }
+
+    @JsonProperty("serviceSelectionStrategies")
+    public void setServiceSelectionStrategies(Map<String, SelectionStrategyFactory> serviceSelectionStrategies)
+    {
+        this.serviceSelectionStrategies = serviceSelectionStrategies;
+    }
+
+    /**
+     * @param serviceName service name
+     * @return the service's selection strategy or the default strategy if the service doesn't have one
+     */
+    public SelectionStrategyFactory getSelectionStrategy(String serviceName)
+    {
+        SelectionStrategyFactory factory = serviceSelectionStrategies.get(serviceName);
+        return (factory != null) ? factory : selectionStrategy;
+    }
+
     @Override
     public Discovery build(Environment environment, SoaInfo soaInfo)
     {
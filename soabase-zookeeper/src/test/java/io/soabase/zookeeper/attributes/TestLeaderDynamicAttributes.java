@@ -0,0 +1,338 @@
+/**
+ * Copyright 2014 Jordan Zimmerman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.soabase.zookeeper.attributes;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import io.dropwizard.lifecycle.Managed;
+import io.soabase.core.features.attributes.AttributeKey;
+import io.soabase.core.features.attributes.ContainerDynamicAttributes;
+import io.soabase.core.features.attributes.StandardAttributesContainer;
+import io.soabase.core.features.attributes.WritableDynamicAttributes;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.retry.RetryOneTime;
+import org.apache.curator.test.TestingServer;
+import org.apache.curator.test.Timing;
+import org.apache.curator.utils.CloseableUtils;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TestLeaderDynamicAttributes
+{
+    private TestingServer server;
+    private CuratorFramework curator;
+
+    @BeforeMethod
+    public void setup() throws Exception
+    {
+        server = new TestingServer();
+        curator = CuratorFrameworkFactory.newClient(server.getConnectString(), new RetryOneTime(1));
+        curator.start();
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception
+    {
+        CloseableUtils.closeQuietly(curator);
+        CloseableUtils.closeQuietly(server);
+    }
+
+    @Test
+    public void testSnapshots() throws Exception
+    {
+        MapStore store = new MapStore();
+        store.put(new AttributeKey("one", "a"), "1");
+        store.put(new AttributeKey("one", "b"), "2");
+
+        final LeaderDynamicAttributes first = new LeaderDynamicAttributes(store, curator, "/test", Arrays.asList("a"), 100000, 10000, 100000, new MetricRegistry());
+        final LeaderDynamicAttributes second = new LeaderDynamicAttributes(store, curator, "/test", Arrays.asList("b"), 100000, 10000, 100000, new MetricRegistry());
+        first.start();
+        waitFor(new Callable<Boolean>()
+        {
+            @Override
+            public Boolean call() throws Exception
+            {
+                return first.isLeader();
+            }
+        });
+        second.start();
+        try
+        {
+            Assert.assertTrue(first.refresh());
+            waitForValue(first, "one", 1);
+            waitForValue(second, "one", 2);
+            Assert.assertFalse(second.isLeader());
+            Assert.assertEquals(first.getSnapshotVersion(), 0);
+
+            int reads = store.getAllCount.get();
+            Assert.assertTrue(second.refresh());  // followers don't read the store
+            Assert.assertEquals(store.getAllCount.get(), reads);
+
+            Assert.assertTrue(first.refresh());   // unchanged - no new snapshot
+            Assert.assertEquals(first.getSnapshotVersion(), 0);
+
+            second.put(new AttributeKey("one", "b"), "3");
+            Assert.assertEquals(second.getAttributeInt("one", 0), 3);   // applied locally right away
+            Assert.assertTrue(first.refresh());
+            waitForVersion(second, 1);
+            Assert.assertEquals(second.getAttributeInt("one", 0), 3);
+
+            first.stop();
+            waitFor(new Callable<Boolean>()
+            {
+                @Override
+                public Boolean call() throws Exception
+                {
+                    return second.isLeader();
+                }
+            });
+            Assert.assertTrue(second.refresh());  // the published snapshot is current - nothing to publish
+            Assert.assertEquals(second.getSnapshotVersion(), 1);
+
+            store.put(new AttributeKey("one", "b"), "4");
+            Assert.assertTrue(second.refresh());
+            waitForVersion(second, 2);
+            Assert.assertEquals(second.getAttributeInt("one", 0), 4);
+        }
+        finally
+        {
+            first.stop();
+            second.stop();
+        }
+    }
+
+    @Test
+    public void testPublishesWhenSnapshotDiffers() throws Exception
+    {
+        MapStore store = new MapStore();
+        store.put(new AttributeKey("one", "a"), "1");
+
+        final LeaderDynamicAttributes leader = new LeaderDynamicAttributes(store, curator, "/test", Arrays.asList("a"), 100000, 10000, 100000, new MetricRegistry());
+        leader.start();
+        try
+        {
+            waitFor(new Callable<Boolean>()
+            {
+                @Override
+                public Boolean call() throws Exception
+                {
+                    return leader.isLeader();
+                }
+            });
+            Assert.assertTrue(leader.refresh());
+            Assert.assertNotNull(curator.checkExists().forPath("/test/snapshot"));
+
+            // e.g. another leader published in between - the store hasn't changed but the snapshot must be re-published
+            curator.delete().forPath("/test/snapshot");
+            Assert.assertTrue(leader.refresh());
+            Assert.assertNotNull(curator.checkExists().forPath("/test/snapshot"));
+            waitForValue(leader, "one", 1);
+        }
+        finally
+        {
+            leader.stop();
+        }
+    }
+
+    @Test
+    public void testParts() throws Exception
+    {
+        MapStore store = new MapStore();
+        for ( int i = 0; i < 100; ++i )
+        {
+            store.put(new AttributeKey("key" + i, "b"), Integer.toString(i));
+            store.put(new AttributeKey("key" + i, "c"), "other");
+        }
+
+        final LeaderDynamicAttributes leader = new LeaderDynamicAttributes(store, curator, "/test", Arrays.asList("a"), 100000, 10000, 100000, 256, new MetricRegistry());
+        final LeaderDynamicAttributes follower = new LeaderDynamicAttributes(store, curator, "/test", Arrays.asList("b"), 100000, 10000, 100000, 256, new MetricRegistry());
+        leader.start();
+        waitFor(new Callable<Boolean>()
+        {
+            @Override
+            public Boolean call() throws Exception
+            {
+                return leader.isLeader();
+            }
+        });
+        follower.start();
+        try
+        {
+            Assert.assertTrue(leader.refresh());
+            waitForVersion(follower, 0);
+            Assert.assertTrue(curator.getChildren().forPath("/test/snapshot-parts").size() > 2);
+            for ( int i = 0; i < 100; ++i )
+            {
+                Assert.assertEquals(follower.getAttributeInt("key" + i, -1), i);
+            }
+            Assert.assertEquals(leader.getAttributeInt("key0", -1), -1);   // other scopes aren't applied
+
+            store.remove(new AttributeKey("key0", "b"));
+            Assert.assertTrue(leader.refresh());
+            waitForVersion(follower, 1);
+            Assert.assertEquals(follower.getAttributeInt("key0", -1), -1);
+            Assert.assertEquals(follower.getAttributeInt("key99", -1), 99);
+        }
+        finally
+        {
+            leader.stop();
+            follower.stop();
+        }
+    }
+
+    private static void waitForValue(final LeaderDynamicAttributes attributes, final String key, final int value) throws Exception
+    {
+        waitFor(new Callable<Boolean>()
+        {
+            @Override
+            public Boolean call() throws Exception
+            {
+                return attributes.getAttributeInt(key, 0) == value;
+            }
+        });
+    }
+
+    @Test
+    public void testStoreLifecycle() throws Exception
+    {
+        ManagedMapStore store = new ManagedMapStore();
+        store.put(new AttributeKey("one", "a"), "1");
+
+        final LeaderDynamicAttributes leader = new LeaderDynamicAttributes(store, curator, "/test", Arrays.asList("a"), 100000, 10000, 100000, new MetricRegistry());
+        leader.start();
+        try
+        {
+            Assert.assertEquals(store.startCount.get(), 1);
+            waitForVersion(leader, 0);  // gaining leadership publishes without an explicit refresh
+            Assert.assertEquals(leader.getAttributeInt("one", 0), 1);
+        }
+        finally
+        {
+            leader.stop();
+        }
+        Assert.assertEquals(store.stopCount.get(), 1);
+    }
+
+    private static void waitForVersion(final LeaderDynamicAttributes attributes, final int version) throws Exception
+    {
+        waitFor(new Callable<Boolean>()
+        {
+            @Override
+            public Boolean call() throws Exception
+            {
+                return attributes.getSnapshotVersion() == version;
+            }
+        });
+    }
+
+    private static void waitFor(Callable<Boolean> condition) throws Exception
+    {
+        Timing timing = new Timing();
+        long end = System.currentTimeMillis() + timing.forWaiting().milliseconds();
+        while ( !condition.call() )
+        {
+            Assert.assertTrue(System.currentTimeMillis() < end, "Timed out");
+            Thread.sleep(10);
+        }
+    }
+
+    private static class MapStore extends ContainerDynamicAttributes implements WritableDynamicAttributes
+    {
+        private final Map<AttributeKey, Object> attributes = Maps.newConcurrentMap();
+        private final AtomicInteger getAllCount = new AtomicInteger(0);
+
+        MapStore()
+        {
+            super(new StandardAttributesContainer());
+        }
+
+        @Override
+        public void put(AttributeKey key, Object value)
+        {
+            attributes.put(key, value);
+        }
+
+        @Override
+        public void remove(AttributeKey key)
+        {
+            attributes.remove(key);
+        }
+
+        @Override
+        public ListenableFuture<Void> putAsync(AttributeKey key, Object value)
+        {
+            put(key, value);
+            return Futures.immediateFuture(null);
+        }
+
+        @Override
+        public ListenableFuture<Void> removeAsync(AttributeKey key)
+        {
+            remove(key);
+            return Futures.immediateFuture(null);
+        }
+
+        @Override
+        public void putAll(Map<AttributeKey, Object> attributes)
+        {
+            this.attributes.putAll(attributes);
+        }
+
+        @Override
+        public void removeAll(Collection<AttributeKey> keys)
+        {
+            for ( AttributeKey key : keys )
+            {
+                attributes.remove(key);
+            }
+        }
+
+        @Override
+        public Map<AttributeKey, Object> getAll()
+        {
+            getAllCount.incrementAndGet();
+            return Maps.newHashMap(attributes);
+        }
+    }
+
+    private static class ManagedMapStore extends MapStore implements Managed
+    {
+        private final AtomicInteger startCount = new AtomicInteger(0);
+        private final AtomicInteger stopCount = new AtomicInteger(0);
+
+        @Override
+        public void start() throws Exception
+        {
+            startCount.incrementAndGet();
+        }
+
+        @Override
+        public void stop() throws Exception
+        {
+            stopCount.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,252 @@
+/**
+ * Copyright 2014 Jordan Zimmerman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.soabase.zookeeper.attributes;
+
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.MoreExecutors;
+import io.soabase.core.features.attributes.AttributeChangeSet;
+import io.soabase.core.features.attributes.AttributeKey;
+import io.soabase.core.features.attributes.DynamicAttributeBatchListener;
+import io.soabase.core.features.attributes.DynamicAttributeListenerAdapter;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.retry.RetryOneTime;
+import org.apache.curator.test.TestingServer;
+import org.apache.curator.utils.CloseableUtils;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TestZooKeeperDynamicAttributes
+{
+    private TestingServer server;
+    private CuratorFramework curator;
+
+    @BeforeMethod
+    public void setup() throws Exception
+    {
+        server = new TestingServer();
+        curator = CuratorFrameworkFactory.newClient(server.getConnectString(), new RetryOneTime(1));
+        curator.start();
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception
+    {
+        CloseableUtils.closeQuietly(curator);
+        CloseableUtils.closeQuietly(server);
+    }
+
+    @Test
+    public void testWatches() throws Exception
+    {
+        ZooKeeperDynamicAttributes writer = new ZooKeeperDynamicAttributes(curator, "/test", Arrays.asList("other"));
+        ZooKeeperDynamicAttributes reader = new ZooKeeperDynamicAttributes(curator, "/test", Arrays.asList("instance", "service"));
+        writer.start();
+        reader.start();
+        try
+        {
+            final CountDownLatch addedLatch = new CountDownLatch(2);
+            final CountDownLatch removedLatch = new CountDownLatch(1);
+            reader.getListenable().addListener(new DynamicAttributeListenerAdapter()
+            {
+                @Override
+                public void attributeAdded(String key, String scope)
+                {
+                    addedLatch.countDown();
+                }
+
+                @Override
+                public void attributeRemoved(String key, String scope)
+                {
+                    if ( key.equals("one/two") )
+                    {
+                        removedLatch.countDown();
+                    }
+                }
+            });
+
+            writer.put(new AttributeKey("one/two", ""), "default");
+            writer.put(new AttributeKey("one", "service"), 100);
+            Assert.assertTrue(addedLatch.await(10, TimeUnit.SECONDS));
+            Assert.assertEquals(reader.getAttributeInt("one"), 100);
+            Assert.assertEquals(reader.getAttribute("one/two"), "default");
+
+            writer.remove(new AttributeKey("one/two", ""));
+            Assert.assertTrue(removedLatch.await(10, TimeUnit.SECONDS));
+            Assert.assertNull(reader.getAttribute("one/two"));
+        }
+        finally
+        {
+            reader.stop();
+            writer.stop();
+        }
+    }
+
+    @Test
+    public void testTransactions() throws Exception
+    {
+        ZooKeeperDynamicAttributes attributes = new ZooKeeperDynamicAttributes(curator, "/test", Arrays.asList("a"));
+        attributes.start();
+        try
+        {
+            attributes.put(new AttributeKey("one", ""), "1");
+
+            Map<AttributeKey, Object> batch = Maps.newHashMap();
+            batch.put(new AttributeKey("one", ""), "10");
+            batch.put(new AttributeKey("two", "a"), "20");
+            batch.put(new AttributeKey("three", "b"), "30");
+            attributes.putAll(batch);
+            Assert.assertEquals(attributes.getAttributeInt("one"), 10);
+            Assert.assertEquals(attributes.getAttributeInt("two"), 20);
+            Assert.assertNull(attributes.getAttribute("three")); // not one of our scopes
+
+            Map<AttributeKey, Object> all = attributes.getAll();
+            Assert.assertEquals(all.size(), 3);
+            Assert.assertEquals(all.get(new AttributeKey("three", "b")), "30");
+
+            attributes.removeAll(Arrays.asList(new AttributeKey("one", ""), new AttributeKey("three", "b"), new AttributeKey("missing", "")));
+            Assert.assertNull(attributes.getAttribute("one"));
+            Assert.assertEquals(attributes.getAll().size(), 1);
+
+            ZooKeeperDynamicAttributes restarted = new ZooKeeperDynamicAttributes(curator, "/test", Arrays.asList("a"));
+            restarted.start();
+            Assert.assertEquals(restarted.getAttributeInt("two"), 20);
+            restarted.stop();
+        }
+        finally
+        {
+            attributes.stop();
+        }
+    }
+
+    @Test
+    public void testBatchedEvents() throws Exception
+    {
+        ZooKeeperDynamicAttributes writer = new ZooKeeperDynamicAttributes(curator, "/test", Arrays.asList("other"));
+        ZooKeeperDynamicAttributes reader = new ZooKeeperDynamicAttributes(curator, "/test", Arrays.asList("a"), 1000);
+        writer.start();
+        reader.start();
+        try
+        {
+            final AtomicInteger batches = new AtomicInteger();
+            reader.getBatchListenable().addListener(new DynamicAttributeBatchListener()
+            {
+                @Override
+                public void attributesChanged(AttributeChangeSet changes)
+                {
+                    batches.incrementAndGet();
+                }
+            }, MoreExecutors.directExecutor());
+
+            Map<AttributeKey, Object> batch = Maps.newHashMap();
+            for ( int i = 0; i < 20; ++i )
+            {
+                batch.put(new AttributeKey("key" + i, "a"), i);
+            }
+            writer.putAll(batch);
+
+            long start = System.currentTimeMillis();
+            while ( (reader.getAttribute("key19") == null) && ((System.currentTimeMillis() - start) < TimeUnit.SECONDS.toMillis(10)) )
+            {
+                Thread.sleep(10);
+            }
+            Assert.assertEquals(reader.getAttributeInt("key0"), 0);
+            Assert.assertEquals(reader.getAttributeInt("key19"), 19);
+            Assert.assertEquals(batches.get(), 1);  // one change set for all 20 watch events
+        }
+        finally
+        {
+            reader.stop();
+            writer.stop();
+        }
+    }
+
+    @Test
+    public void testDotKeys() throws Exception
+    {
+        ZooKeeperDynamicAttributes attributes = new ZooKeeperDynamicAttributes(curator, "/test", Arrays.asList(".."));
+        attributes.start();
+        try
+        {
+            attributes.put(new AttributeKey(".", ""), "1");
+            attributes.put(new AttributeKey("..", ".."), "2");
+            Assert.assertNotNull(curator.checkExists().forPath("/test/%2E%2E/%2E%2E"));
+
+            ZooKeeperDynamicAttributes restarted = new ZooKeeperDynamicAttributes(curator, "/test", Arrays.asList(".."));
+            restarted.start();
+            Assert.assertEquals(restarted.getAttributeInt("."), 1);
+            Assert.assertEquals(restarted.getAttributeInt(".."), 2);
+            Assert.assertEquals(restarted.getAll().get(new AttributeKey("..", "..")), "2");
+            restarted.stop();
+        }
+        finally
+        {
+            attributes.stop();
+        }
+    }
+
+    @Test
+    public void testConcurrentWritersConverge() throws Exception
+    {
+        final ZooKeeperDynamicAttributes first = new ZooKeeperDynamicAttributes(curator, "/test", Arrays.asList("a"), 50);
+        final ZooKeeperDynamicAttributes second = new ZooKeeperDynamicAttributes(curator, "/test", Arrays.asList("a"), 50);
+        first.start();
+        second.start();
+        try
+        {
+            final AttributeKey key = new AttributeKey("x", "a");
+            Thread thread = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    for ( int i = 0; i < 200; ++i )
+                    {
+                        second.put(key, "second-" + i);
+                    }
+                }
+            };
+            thread.start();
+            for ( int i = 0; i < 200; ++i )
+            {
+                first.put(key, "first-" + i);
+            }
+            thread.join();
+
+            // a local write must never hide a newer write from the other instance
+            String current = new String(curator.getData().forPath("/test/a/x"), "UTF-8");
+            long start = System.currentTimeMillis();
+            while ( !(current.equals(first.getAttribute("x")) && current.equals(second.getAttribute("x"))) && ((System.currentTimeMillis() - start) < TimeUnit.SECONDS.toMillis(10)) )
+            {
+                Thread.sleep(10);
+            }
+            Assert.assertEquals(first.getAttribute("x"), current);
+            Assert.assertEquals(second.getAttribute("x"), current);
+        }
+        finally
+        {
+            first.stop();
+            second.stop();
+        }
+    }
+}
@@ -0,0 +1,168 @@
+/**
+ * Copyright 2014 Jordan Zimmerman
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.soabase.zookeeper.discovery;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import io.dropwizard.jackson.Jackson;
+import io.soabase.core.features.discovery.ForcedState;
+import io.soabase.core.features.discovery.HealthyState;
+import org.apache.curator.x.discovery.ServiceInstance;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class TestSelectionStrategies
+{
+    @Test
+    public void testRoundRobin() throws Exception
+    {
+        List<ServiceInstance<Payload>> instances = buildInstances(3);
+        SelectionStrategy strategy = new RoundRobinSelectionStrategyFactory().build();
+        InFlightRequests inFlightRequests = new InFlightRequests();
+        for ( int i = 0; i < 6; ++i )
+        {
+            Assert.assertSame(strategy.select(instances, inFlightRequests), instances.get(i % 3));
+        }
+    }
+
+    @Test
+    public void testRandom() throws Exception
+    {
+        List<ServiceInstance<Payload>> instances = buildInstances(3);
+        SelectionStrategy strategy = new RandomSelectionStrategyFactory().build();
+        InFlightRequests inFlightRequests = new InFlightRequests();
+        Set<ServiceInstance<Payload>> selected = Sets.newHashSet();
+        for ( int i = 0; i < 1000; ++i )
+        {
+            selected.add(strategy.select(instances, inFlightRequests));
+        }
+        Assert.assertEquals(selected.size(), 3);
+    }
+
+    @Test
+    public void testLeastOutstanding() throws Exception
+    {
+        List<ServiceInstance<Payload>> instances = buildInstances(3);
+        SelectionStrategy strategy = new LeastOutstandingSelectionStrategyFactory().build();
+        InFlightRequests inFlightRequests = new InFlightRequests();
+        inFlightRequests.increment("test", instances.get(0).getId());
+        inFlightRequests.increment("test", instances.get(2).getId());
+        inFlightRequests.increment("test", instances.get(2).getId());
+        for ( int i = 0; i < 100; ++i )
+        {
+            Assert.assertSame(strategy.select(instances, inFlightRequests), instances.get(1));
+        }
+
+        inFlightRequests.decrement(instances.get(0).getId());
+        Set<ServiceInstance<Payload>> selected = Sets.newHashSet();
+        for ( int i = 0; i < 1000; ++i )
+        {
+            selected.add(strategy.select(instances, inFlightRequests));
+        }
+        Assert.assertEquals(selected, Sets.newHashSet(instances.get(0), instances.get(1)));   // ties are spread out
+    }
+
+    @Test
+    public void testPowerOfTwo() throws Exception
+    {
+        List<ServiceInstance<Payload>> instances = buildInstances(2);
+        SelectionStrategy strategy = new PowerOfTwoSelectionStrategyFactory().build();
+        InFlightRequests inFlightRequests = new InFlightRequests();
+        inFlightRequests.increment("test", instances.get(0).getId());
+        for ( int i = 0; i < 100; ++i )
+        {
+            Assert.assertSame(strategy.select(instances, inFlightRequests), instances.get(1));   // both are always compared
+        }
+
+        instances = buildInstances(4);
+        inFlightRequests.increment("test", instances.get(0).getId());
+        Map<ServiceInstance<Payload>, Integer> counts = Maps.newHashMap();
+        for ( int i = 0; i < 1000; ++i )
+        {
+            ServiceInstance<Payload> instance = strategy.select(instances, inFlightRequests);
+            Integer count = counts.get(instance);
+            counts.put(instance, (count != null) ? (count + 1) : 1);
+        }
+        Assert.assertNull(counts.get(instances.get(0)));  // never chosen - it always loses to the other instance picked
+        Assert.assertEquals(counts.size(), 3);
+
+        Assert.assertSame(strategy.select(instances.subList(0, 1), inFlightRequests), instances.get(0));
+    }
+
+    @Test
+    public void testInFlightRequests()
+    {
+        InFlightRequests inFlightRequests = new InFlightRequests();
+        inFlightRequests.increment("test", "a");
+        inFlightRequests.increment("test", "a");
+        inFlightRequests.decrement("a");
+        Assert.assertEquals(inFlightRequests.get("a"), 1);
+        inFlightRequests.decrement("a");
+        inFlightRequests.decrement("a");    // extra completions don't go negative
+        Assert.assertEquals(inFlightRequests.get("a"), 0);
+        Assert.assertEquals(inFlightRequests.get("b"), 0);
+    }
+
+    @Test
+    public void testInFlightRequestsRetain() throws Exception
+    {
+        List<ServiceInstance<Payload>> instances = buildInstances(3);
+        InFlightRequests inFlightRequests = new InFlightRequests();
+        for ( ServiceInstance<Payload> instance : instances )
+        {
+            inFlightRequests.increment("test", instance.getId());
+        }
+        inFlightRequests.increment("other", "x");
+
+        inFlightRequests.retain("test", instances.subList(1, 3));  // the first instance was deregistered
+        Assert.assertEquals(inFlightRequests.get(instances.get(0).getId()), 0);
+        Assert.assertEquals(inFlightRequests.get(instances.get(1).getId()), 1);
+        Assert.assertEquals(inFlightRequests.get(instances.get(2).getId()), 1);
+        Assert.assertEquals(inFlightRequests.get("x"), 1);  // other services aren't affected
+
+        inFlightRequests.decrement(instances.get(0).getId());  // late completion
+        Assert.assertEquals(inFlightRequests.get(instances.get(0).getId()), 0);
+    }
+
+    @Test
+    public void testConfiguration() throws Exception
+    {
+        ObjectMapper mapper = Jackson.newObjectMapper();
+        String json = "{\"type\": \"zookeeper\", \"selectionStrategy\": {\"type\": \"power-of-two\"}, \"serviceSelectionStrategies\": {\"billing\": {\"type\": \"least-outstanding\"}}}";
+        ZooKeeperDiscoveryFactory factory = mapper.readValue(json, ZooKeeperDiscoveryFactory.class);
+        Assert.assertTrue(factory.getSelectionStrategy("billing") instanceof LeastOutstandingSelectionStrategyFactory);
+        Assert.assertTrue(factory.getSelectionStrategy("other") instanceof PowerOfTwoSelectionStrategyFactory);
+
+        factory = mapper.readValue("{\"type\": \"zookeeper\"}", ZooKeeperDiscoveryFactory.class);
+        Assert.assertTrue(factory.getSelectionStrategy("other") instanceof RoundRobinSelectionStrategyFactory);
+    }
+
+    private static List<ServiceInstance<Payload>> buildInstances(int qty) throws Exception
+    {
+        List<ServiceInstance<Payload>> instances = Lists.newArrayList();
+        for ( int i = 0; i < qty; ++i )
+        {
+            Payload payload = new Payload(0, Maps.<String, String>newHashMap(), ForcedState.CLEARED, HealthyState.HEALTHY);
+            instances.add(ServiceInstance.<Payload>builder().name("test").id("instance" + i).port(1000 + i).payload(payload).build());
+        }
+        return instances;
+    }
+}